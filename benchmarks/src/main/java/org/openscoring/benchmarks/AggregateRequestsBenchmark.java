@@ -0,0 +1,148 @@
+/*
+ * Copyright (c) 2014 Villu Ruusmann
+ *
+ * This file is part of Openscoring
+ *
+ * Openscoring is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Openscoring is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Openscoring.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openscoring.benchmarks;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.openscoring.common.*;
+import org.openscoring.service.*;
+
+import com.google.common.collect.*;
+
+import org.openjdk.jmh.annotations.*;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class AggregateRequestsBenchmark {
+
+	@Param({"10000"})
+	public int records;
+
+	/**
+	 * The number of distinct "group by" values.
+	 */
+	@Param({"100", "5000"})
+	public int groups;
+
+	/**
+	 * If <code>true</code>, then records are sorted by the "group by" value.
+	 */
+	@Param({"false", "true"})
+	public boolean sorted;
+
+	private List<EvaluationRequest> requests = null;
+
+
+	@Setup
+	public void setUp(){
+		Random random = new Random(42L);
+
+		this.requests = Lists.newArrayList();
+
+		for(int i = 0; i < this.records; i++){
+			Map<String, Object> arguments = Maps.newLinkedHashMap();
+			arguments.put("transaction", String.valueOf(this.sorted ? (i / (this.records / this.groups)) : (i % this.groups)));
+			arguments.put("item", "item-" + random.nextInt(100));
+
+			EvaluationRequest request = new EvaluationRequest(String.valueOf(i + 1));
+			request.setArguments(arguments);
+
+			this.requests.add(request);
+		}
+	}
+
+	@Benchmark
+	public List<EvaluationRequest> aggregateRequests() throws IOException {
+		return ModelService.aggregateRequests("transaction", this.requests);
+	}
+
+	/**
+	 * Keeps one tenth of the groups in memory, and spills the rest to disk.
+	 */
+	@Benchmark
+	public int aggregateRequestsSpilled() throws IOException {
+		GroupAggregator aggregator = new GroupAggregator("transaction", this.groups / 10, null);
+
+		try {
+			for(EvaluationRequest request : this.requests){
+				aggregator.add(request);
+			}
+
+			aggregator.finish();
+
+			int count = 0;
+
+			while(aggregator.read() != null){
+				count++;
+			}
+
+			return count;
+		} finally {
+			aggregator.close();
+		}
+	}
+
+	/**
+	 * The multimap-based aggregation that {@link GroupAggregator} replaced, for reference.
+	 */
+	@Benchmark
+	public List<EvaluationRequest> aggregateRequestsMultimap(){
+		Map<Object, ListMultimap<String, Object>> groupedArguments = Maps.newLinkedHashMap();
+
+		for(EvaluationRequest request : this.requests){
+			Map<String, ?> arguments = request.getArguments();
+
+			Object groupValue = arguments.get("transaction");
+
+			ListMultimap<String, Object> groupedArgumentMap = groupedArguments.get(groupValue);
+			if(groupedArgumentMap == null){
+				groupedArgumentMap = ArrayListMultimap.create();
+
+				groupedArguments.put(groupValue, groupedArgumentMap);
+			}
+
+			Collection<? extends Map.Entry<String, ?>> entries = arguments.entrySet();
+			for(Map.Entry<String, ?> entry : entries){
+				groupedArgumentMap.put(entry.getKey(), entry.getValue());
+			}
+		}
+
+		List<EvaluationRequest> resultRequests = Lists.newArrayList();
+
+		Collection<Map.Entry<Object, ListMultimap<String, Object>>> entries = groupedArguments.entrySet();
+		for(Map.Entry<Object, ListMultimap<String, Object>> entry : entries){
+			Map<String, Object> arguments = Maps.newLinkedHashMap();
+			arguments.putAll((entry.getValue()).asMap());
+			arguments.put("transaction", entry.getKey());
+
+			EvaluationRequest resultRequest = new EvaluationRequest();
+			resultRequest.setArguments(arguments);
+
+			resultRequests.add(resultRequest);
+		}
+
+		return resultRequests;
+	}
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 2014 Villu Ruusmann
+ *
+ * This file is part of Openscoring
+ *
+ * Openscoring is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Openscoring is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Openscoring.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openscoring.benchmarks;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.openscoring.common.*;
+import org.openscoring.service.*;
+
+import org.openjdk.jmh.annotations.*;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class BatchEvaluationBenchmark {
+
+	@Param({"DecisionTreeIris", BenchmarkUtil.RANDOM_FOREST})
+	public String model;
+
+	/**
+	 * The number of batch executor threads. Zero means evaluation on the calling thread.
+	 */
+	@Param({"0", "4"})
+	public int threads;
+
+	@Param({"1000"})
+	public int batchSize;
+
+	private BatchExecutor executor = null;
+
+	private ModelService service = null;
+
+	private List<EvaluationRequest> requests = null;
+
+
+	@Setup
+	public void setUp() throws Exception {
+		ModelRegistry registry = new ModelRegistry();
+		registry.put(this.model, new ModelEntry(BenchmarkUtil.parsePMML(BenchmarkUtil.loadBytes(this.model))));
+
+		if(this.threads > 0){
+			this.executor = new BatchExecutor(this.threads, 64);
+		} else
+
+		{
+			this.executor = new BatchExecutor();
+		}
+
+		this.service = new ModelService.Builder(registry)
+			.setExecutor(this.executor)
+			.build();
+
+		this.requests = BenchmarkUtil.generateRequests(this.batchSize, 42L);
+	}
+
+	@TearDown
+	public void tearDown(){
+		this.executor.shutdown();
+	}
+
+	@Benchmark
+	public List<EvaluationResponse> evaluateBatch(){
+		return this.service.evaluateBatch(this.model, this.requests);
+	}
+}
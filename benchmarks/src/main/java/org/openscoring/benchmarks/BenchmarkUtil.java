@@ -0,0 +1,227 @@
+/*
+ * Copyright (c) 2014 Villu Ruusmann
+ *
+ * This file is part of Openscoring
+ *
+ * Openscoring is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Openscoring is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Openscoring.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openscoring.benchmarks;
+
+import java.io.*;
+import java.util.*;
+
+import org.openscoring.common.*;
+import org.openscoring.service.*;
+
+import com.google.common.collect.*;
+import com.google.common.io.*;
+
+import org.dmg.pmml.*;
+
+import org.supercsv.prefs.*;
+
+public class BenchmarkUtil {
+
+	private BenchmarkUtil(){
+	}
+
+	/**
+	 * @param id The name of a test PMML file, or {@link #RANDOM_FOREST} or {@link #LARGE_RANDOM_FOREST} for a generated model.
+	 */
+	static
+	public byte[] loadBytes(String id) throws IOException {
+
+		if((RANDOM_FOREST).equals(id)){
+			return generateRandomForest(100, 8, 42L);
+		} else
+
+		if((LARGE_RANDOM_FOREST).equals(id)){
+			return generateRandomForest(1000, 8, 42L);
+		}
+
+		InputStream is = BenchmarkUtil.class.getResourceAsStream("/pmml/" + id + ".pmml");
+		if(is == null){
+			throw new FileNotFoundException(id);
+		}
+
+		try {
+			return ByteStreams.toByteArray(is);
+		} finally {
+			is.close();
+		}
+	}
+
+	static
+	public PMML parsePMML(byte[] bytes) throws Exception {
+		InputStream is = new ByteArrayInputStream(bytes);
+
+		try {
+			return PMMLUtil.unmarshal(is);
+		} finally {
+			is.close();
+		}
+	}
+
+	static
+	public List<EvaluationRequest> loadRequests(String id) throws IOException {
+		InputStream is = BenchmarkUtil.class.getResourceAsStream("/csv/" + id + ".csv");
+		if(is == null){
+			throw new FileNotFoundException(id);
+		}
+
+		try {
+			BufferedReader reader = new BufferedReader(new InputStreamReader(is, "UTF-8"));
+
+			try {
+				return CsvUtil.readTable(reader, CsvPreference.TAB_PREFERENCE, "Id");
+			} finally {
+				reader.close();
+			}
+		} finally {
+			is.close();
+		}
+	}
+
+	/**
+	 * Generates requests that can be evaluated both by the Iris decision tree and by the generated random forest.
+	 */
+	static
+	public List<EvaluationRequest> generateRequests(int size, long seed){
+		Random random = new Random(seed);
+
+		List<EvaluationRequest> requests = Lists.newArrayList();
+
+		for(int i = 0; i < size; i++){
+			Map<String, Object> arguments = Maps.newLinkedHashMap();
+
+			for(int j = 0; j < IRIS_FIELDS.length; j++){
+				arguments.put(IRIS_FIELDS[j], round(IRIS_MIN[j] + random.nextDouble() * (IRIS_MAX[j] - IRIS_MIN[j])));
+			}
+
+			EvaluationRequest request = new EvaluationRequest(String.valueOf(i + 1));
+			request.setArguments(arguments);
+
+			requests.add(request);
+		}
+
+		return requests;
+	}
+
+	static
+	public List<EvaluationResponse> toResponses(List<EvaluationRequest> requests){
+		List<EvaluationResponse> responses = Lists.newArrayList();
+
+		for(EvaluationRequest request : requests){
+			EvaluationResponse response = new EvaluationResponse(request.getId());
+			response.setResult(request.getArguments());
+
+			responses.add(response);
+		}
+
+		return responses;
+	}
+
+	/**
+	 * Generates a majority vote ensemble of complete binary decision trees over the Iris input fields.
+	 */
+	static
+	public byte[] generateRandomForest(int trees, int depth, long seed) throws IOException {
+		Random random = new Random(seed);
+
+		StringBuilder sb = new StringBuilder(1024 * 1024);
+		sb.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+		sb.append("<PMML xmlns=\"http://www.dmg.org/PMML-4_1\" version=\"4.1\">\n");
+		sb.append("<Header/>\n");
+
+		sb.append("<DataDictionary>\n");
+		sb.append("<DataField name=\"Species\" optype=\"categorical\" dataType=\"string\">");
+		for(String species : IRIS_SPECIES){
+			sb.append("<Value value=\"").append(species).append("\"/>");
+		}
+		sb.append("</DataField>\n");
+		for(String field : IRIS_FIELDS){
+			sb.append("<DataField name=\"").append(field).append("\" optype=\"continuous\" dataType=\"double\"/>\n");
+		}
+		sb.append("</DataDictionary>\n");
+
+		sb.append("<MiningModel functionName=\"classification\">\n");
+		appendMiningSchema(sb);
+		sb.append("<Segmentation multipleModelMethod=\"majorityVote\">\n");
+
+		for(int i = 0; i < trees; i++){
+			sb.append("<Segment id=\"").append(i + 1).append("\"><True/>\n");
+			sb.append("<TreeModel functionName=\"classification\" splitCharacteristic=\"binarySplit\">\n");
+			appendMiningSchema(sb);
+			sb.append("<Node><True/>\n");
+			appendChildren(sb, random, depth);
+			sb.append("</Node>\n");
+			sb.append("</TreeModel>\n");
+			sb.append("</Segment>\n");
+		}
+
+		sb.append("</Segmentation>\n");
+		sb.append("</MiningModel>\n");
+		sb.append("</PMML>\n");
+
+		return (sb.toString()).getBytes("UTF-8");
+	}
+
+	static
+	private void appendMiningSchema(StringBuilder sb){
+		sb.append("<MiningSchema>");
+		sb.append("<MiningField name=\"Species\" usageType=\"predicted\"/>");
+		for(String field : IRIS_FIELDS){
+			sb.append("<MiningField name=\"").append(field).append("\"/>");
+		}
+		sb.append("</MiningSchema>\n");
+	}
+
+	static
+	private void appendChildren(StringBuilder sb, Random random, int depth){
+
+		if(depth == 0){
+			return;
+		}
+
+		int index = random.nextInt(IRIS_FIELDS.length);
+
+		String field = IRIS_FIELDS[index];
+		double value = round(IRIS_MIN[index] + random.nextDouble() * (IRIS_MAX[index] - IRIS_MIN[index]));
+
+		String[] operators = {"lessThan", "greaterOrEqual"};
+		for(String operator : operators){
+			sb.append("<Node score=\"").append(IRIS_SPECIES[random.nextInt(IRIS_SPECIES.length)]).append("\">");
+			sb.append("<SimplePredicate field=\"").append(field).append("\" operator=\"").append(operator).append("\" value=\"").append(value).append("\"/>\n");
+			appendChildren(sb, random, depth - 1);
+			sb.append("</Node>\n");
+		}
+	}
+
+	static
+	private double round(double value){
+		return Math.round(value * 10d) / 10d;
+	}
+
+	public static final String RANDOM_FOREST = "RandomForest";
+
+	public static final String LARGE_RANDOM_FOREST = "LargeRandomForest";
+
+	private static final String[] IRIS_SPECIES = {"setosa", "versicolor", "virginica"};
+
+	private static final String[] IRIS_FIELDS = {"Sepal.Length", "Sepal.Width", "Petal.Length", "Petal.Width"};
+
+	private static final double[] IRIS_MIN = {4.3, 2.0, 1.0, 0.1};
+
+	private static final double[] IRIS_MAX = {7.9, 4.4, 6.9, 2.5};
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) 2014 Villu Ruusmann
+ *
+ * This file is part of Openscoring
+ *
+ * Openscoring is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Openscoring is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Openscoring.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openscoring.benchmarks;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.openscoring.common.*;
+import org.openscoring.service.*;
+
+import com.codahale.metrics.*;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Measures the throughput of concurrent single-record evaluation requests with and without coalescing.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Threads(8)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class CoalescerBenchmark {
+
+	@Param({"DecisionTreeIris", BenchmarkUtil.RANDOM_FOREST})
+	public String model;
+
+	/**
+	 * The coalescing window in microseconds. 0 disables coalescing.
+	 */
+	@Param({"0", "100"})
+	public long window;
+
+	private ModelService service = null;
+
+	private List<EvaluationRequest> requests = null;
+
+
+	@Setup
+	public void setUp() throws Exception {
+		ModelRegistry registry = new ModelRegistry();
+		registry.put(this.model, new ModelEntry(BenchmarkUtil.parsePMML(BenchmarkUtil.loadBytes(this.model))));
+
+		EvaluationCoalescer coalescer = (this.window > 0 ? new EvaluationCoalescer(new MetricRegistry(), 8, this.window, TimeUnit.MICROSECONDS) : new EvaluationCoalescer());
+
+		this.service = new ModelService.Builder(registry)
+			.setCoalescer(coalescer)
+			.build();
+
+		this.requests = BenchmarkUtil.generateRequests(1000, 42L);
+	}
+
+	@Benchmark
+	public EvaluationResponse evaluate(Cursor cursor){
+		EvaluationRequest request = this.requests.get(cursor.next(this.requests.size()));
+
+		return this.service.evaluate(this.model, request);
+	}
+
+	@State(Scope.Thread)
+	static
+	public class Cursor {
+
+		private int index = (int)Thread.currentThread().getId();
+
+
+		public int next(int size){
+			this.index = (this.index + 1) % size;
+
+			return this.index;
+		}
+	}
+}
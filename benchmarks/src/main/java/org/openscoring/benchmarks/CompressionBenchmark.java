@@ -0,0 +1,169 @@
+/*
+ * Copyright (c) 2014 Villu Ruusmann
+ *
+ * This file is part of Openscoring
+ *
+ * Openscoring is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Openscoring is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Openscoring.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openscoring.benchmarks;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.zip.*;
+
+import org.openscoring.common.*;
+import org.openscoring.service.*;
+
+import com.google.common.io.*;
+
+import org.codehaus.jackson.map.*;
+
+import org.openjdk.jmh.annotations.*;
+
+import org.supercsv.prefs.*;
+
+/**
+ * Measures the CPU cost per row of compressing and decompressing CSV and NDJSON payloads, and the number of bytes per row on the wire.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@OperationsPerInvocation(CompressionBenchmark.ROWS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class CompressionBenchmark {
+
+	@Param({"CSV", "NDJSON"})
+	public String payload;
+
+	@Param({"gzip", "deflate"})
+	public String encoding;
+
+	@Param({"1", "6"})
+	public int level;
+
+	private byte[] bytes = null;
+
+	private byte[] compressedBytes = null;
+
+
+	@Setup
+	public void setUp() throws IOException {
+		List<EvaluationResponse> responses = BenchmarkUtil.toResponses(BenchmarkUtil.generateRequests(ROWS, 42L));
+
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+
+		if(("CSV").equals(this.payload)){
+			BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(os, "UTF-8"));
+
+			CsvUtil.writeTable(writer, CsvPreference.EXCEL_PREFERENCE, "Id", responses);
+		} else
+
+		if(("NDJSON").equals(this.payload)){
+			ObjectMapper mapper = new ObjectMapper();
+
+			for(EvaluationResponse response : responses){
+				os.write(mapper.writeValueAsBytes(response));
+				os.write('\n');
+			}
+		} else
+
+		{
+			throw new IllegalArgumentException(this.payload);
+		}
+
+		this.bytes = os.toByteArray();
+		this.compressedBytes = compress(this.bytes);
+	}
+
+	@Benchmark
+	public byte[] compress(WireCounters counters) throws IOException {
+		byte[] result = compress(this.bytes);
+
+		counters.rows += ROWS;
+		counters.rawBytes += this.bytes.length;
+		counters.wireBytes += result.length;
+
+		return result;
+	}
+
+	@Benchmark
+	public byte[] decompress() throws IOException {
+		InputStream is = new ByteArrayInputStream(this.compressedBytes);
+
+		if(("gzip").equals(this.encoding)){
+			is = new GZIPInputStream(is);
+		} else
+
+		{
+			is = new InflaterInputStream(is);
+		}
+
+		try {
+			return ByteStreams.toByteArray(is);
+		} finally {
+			is.close();
+		}
+	}
+
+	private byte[] compress(byte[] bytes) throws IOException {
+		ByteArrayOutputStream os = new ByteArrayOutputStream(bytes.length / 4);
+
+		if(("gzip").equals(this.encoding)){
+			GZIPOutputStream gzipOs = new GZIPOutputStream(os, 8 * 1024){
+
+				{
+					this.def.setLevel(CompressionBenchmark.this.level);
+				}
+			};
+
+			gzipOs.write(bytes);
+			gzipOs.close();
+		} else
+
+		{
+			Deflater deflater = new Deflater(this.level);
+
+			try {
+				DeflaterOutputStream deflaterOs = new DeflaterOutputStream(os, deflater, 8 * 1024);
+
+				deflaterOs.write(bytes);
+				deflaterOs.finish();
+			} finally {
+				deflater.end();
+			}
+		}
+
+		return os.toByteArray();
+	}
+
+	/**
+	 * JMH reports the totals over all measurement iterations. The number of bytes per row is <code>rawBytes / rows</code> before and <code>wireBytes / rows</code> after compression.
+	 */
+	@AuxCounters(AuxCounters.Type.EVENTS)
+	@State(Scope.Thread)
+	static
+	public class WireCounters {
+
+		public long rows = 0;
+
+		public long rawBytes = 0;
+
+		public long wireBytes = 0;
+	}
+
+	public static final int ROWS = 10000;
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright (c) 2014 Villu Ruusmann
+ *
+ * This file is part of Openscoring
+ *
+ * Openscoring is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Openscoring is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Openscoring.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openscoring.benchmarks;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.openscoring.common.*;
+import org.openscoring.service.*;
+
+import com.google.common.collect.*;
+
+import org.openjdk.jmh.annotations.*;
+
+import org.supercsv.io.*;
+import org.supercsv.prefs.*;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class CsvUtilBenchmark {
+
+	@Param({"EXCEL", "TAB"})
+	public String format;
+
+	@Param({"10000"})
+	public int records;
+
+	private CsvPreference preference = null;
+
+	private List<EvaluationResponse> responses = null;
+
+	private String csv = null;
+
+
+	@Setup
+	public void setUp() throws IOException {
+
+		if(("EXCEL").equals(this.format)){
+			this.preference = CsvPreference.EXCEL_PREFERENCE;
+		} else
+
+		if(("TAB").equals(this.format)){
+			this.preference = CsvPreference.TAB_PREFERENCE;
+		} else
+
+		{
+			throw new IllegalArgumentException(this.format);
+		}
+
+		this.responses = BenchmarkUtil.toResponses(BenchmarkUtil.generateRequests(this.records, 42L));
+
+		StringWriter writer = new StringWriter();
+
+		CsvUtil.writeTable(new BufferedWriter(writer), this.preference, "Id", this.responses);
+
+		this.csv = writer.toString();
+	}
+
+	@Benchmark
+	public CsvPreference getFormat() throws IOException {
+		BufferedReader reader = new BufferedReader(new StringReader(this.csv));
+
+		return CsvUtil.getFormat(reader);
+	}
+
+	@Benchmark
+	public List<EvaluationRequest> readTable() throws IOException {
+		BufferedReader reader = new BufferedReader(new StringReader(this.csv));
+
+		return CsvUtil.readTable(reader, this.preference, "Id");
+	}
+
+	/**
+	 * The previous implementation, which re-parsed the sample with Super CSV once for every candidate format.
+	 */
+	@Benchmark
+	public CsvPreference getFormatSuperCsv() throws IOException {
+		BufferedReader reader = new BufferedReader(new StringReader(this.csv));
+
+		reader.mark(10 * 1024);
+
+		CsvPreference[] formats = {CsvPreference.EXCEL_PREFERENCE, CsvPreference.EXCEL_NORTH_EUROPE_PREFERENCE, CsvPreference.TAB_PREFERENCE};
+		for(CsvPreference format : formats){
+
+			try {
+				CsvListReader parser = new CsvListReader(reader, format);
+
+				int columns = 0;
+
+				for(int line = 0; line < (1 + 10); line++){
+					List<String> row = parser.read();
+					if(row == null){
+						break;
+					} // End if
+
+					if(columns == 0 || columns == row.size()){
+						columns = row.size();
+					} else
+
+					{
+						columns = -1;
+
+						break;
+					}
+				}
+
+				if(columns > 1){
+					return format;
+				}
+			} finally {
+				reader.reset();
+			}
+		}
+
+		throw new IOException();
+	}
+
+	/**
+	 * The previous implementation, which built a hash map for every row with Super CSV.
+	 */
+	@Benchmark
+	public List<EvaluationRequest> readTableSuperCsv() throws IOException {
+		BufferedReader reader = new BufferedReader(new StringReader(this.csv));
+
+		List<EvaluationRequest> requests = Lists.newArrayList();
+
+		CsvMapReader parser = new CsvMapReader(reader, this.preference);
+
+		String[] header = parser.getHeader(true);
+
+		while(true){
+			Map<String, String> arguments = parser.read(header);
+			if(arguments == null){
+				break;
+			}
+
+			String id = arguments.remove("Id");
+
+			EvaluationRequest request = new EvaluationRequest(id);
+			request.setArguments(arguments);
+
+			requests.add(request);
+		}
+
+		parser.close();
+
+		return requests;
+	}
+
+	@Benchmark
+	public String writeTable() throws IOException {
+		StringWriter writer = new StringWriter(this.csv.length());
+
+		CsvUtil.writeTable(new BufferedWriter(writer), this.preference, "Id", this.responses);
+
+		return writer.toString();
+	}
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2014 Villu Ruusmann
+ *
+ * This file is part of Openscoring
+ *
+ * Openscoring is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Openscoring is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Openscoring.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openscoring.benchmarks;
+
+import java.io.*;
+import java.util.concurrent.*;
+
+import javax.xml.transform.*;
+
+import org.openscoring.service.*;
+
+import org.jpmml.model.*;
+
+import com.google.common.io.*;
+
+import org.dmg.pmml.*;
+
+import org.openjdk.jmh.annotations.*;
+
+import org.xml.sax.*;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class DeployBenchmark {
+
+	@Param({"DecisionTreeIris", BenchmarkUtil.RANDOM_FOREST, BenchmarkUtil.LARGE_RANDOM_FOREST})
+	public String model;
+
+	private byte[] bytes = null;
+
+	private File directory = null;
+
+	private ModelStore store = null;
+
+	private File file = null;
+
+
+	@Setup
+	public void setUp() throws Exception {
+		this.bytes = BenchmarkUtil.loadBytes(this.model);
+
+		this.directory = Files.createTempDir();
+
+		this.store = new ModelStore(this.directory);
+		this.store.store(this.model, BenchmarkUtil.parsePMML(this.bytes));
+
+		this.file = (this.store.listFiles()).get(0);
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		this.store.delete(this.model);
+
+		this.directory.delete();
+	}
+
+	/**
+	 * Parses the PMML document like a deployment request does.
+	 */
+	@Benchmark
+	public PMML parse() throws Exception {
+		return BenchmarkUtil.parsePMML(this.bytes);
+	}
+
+	/**
+	 * Parses the PMML document without sharing attribute values and without dropping source locations.
+	 * This is the baseline for {@link #parse()}.
+	 */
+	@Benchmark
+	public PMML parseUnshared() throws Exception {
+		InputStream is = new ByteArrayInputStream(this.bytes);
+
+		try {
+			Source source = ImportFilter.apply(new InputSource(is));
+
+			return JAXBUtil.unmarshalPMML(source);
+		} finally {
+			is.close();
+		}
+	}
+
+	/**
+	 * Parses the PMML document and creates the evaluator.
+	 */
+	@Benchmark
+	public ModelEntry deploy() throws Exception {
+		return new ModelEntry(BenchmarkUtil.parsePMML(this.bytes));
+	}
+
+	/**
+	 * Loads the PMML object from the persistent model store like a server restart does.
+	 */
+	@Benchmark
+	public PMML load() throws IOException {
+		ModelStore.StoredModel storedModel = this.store.load(this.file);
+
+		return storedModel.getPMML();
+	}
+}
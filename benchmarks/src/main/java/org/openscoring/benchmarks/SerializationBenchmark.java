@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) 2014 Villu Ruusmann
+ *
+ * This file is part of Openscoring
+ *
+ * Openscoring is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Openscoring is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Openscoring.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openscoring.benchmarks;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.openscoring.common.*;
+
+import com.google.common.collect.*;
+
+import org.codehaus.jackson.map.*;
+import org.codehaus.jackson.type.*;
+
+import org.openjdk.jmh.annotations.*;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class SerializationBenchmark {
+
+	@Param({"1", "1000"})
+	public int batchSize;
+
+	private ObjectMapper mapper = new ObjectMapper();
+
+	private BinaryCodec codec = null;
+
+	private List<EvaluationRequest> requests = null;
+
+	private List<EvaluationResponse> responses = null;
+
+	private byte[] requestJson = null;
+
+	private byte[] responseJson = null;
+
+	private byte[] requestBinary = null;
+
+	private byte[] responseBinary = null;
+
+
+	@Setup
+	public void setUp() throws IOException {
+		this.requests = BenchmarkUtil.generateRequests(this.batchSize, 42L);
+		this.responses = BenchmarkUtil.toResponses(this.requests);
+
+		List<String> fields = Lists.newArrayList(((this.requests.get(0)).getArguments()).keySet());
+
+		this.codec = new BinaryCodec(fields, fields);
+
+		this.requestJson = this.mapper.writeValueAsBytes(this.requests);
+		this.responseJson = this.mapper.writeValueAsBytes(this.responses);
+
+		this.requestBinary = writeRequestsBinary();
+		this.responseBinary = writeResponsesBinary();
+	}
+
+	@Benchmark
+	public byte[] writeRequestsJson() throws IOException {
+		return this.mapper.writeValueAsBytes(this.requests);
+	}
+
+	@Benchmark
+	public List<EvaluationRequest> readRequestsJson() throws IOException {
+		return this.mapper.readValue(this.requestJson, new TypeReference<List<EvaluationRequest>>(){});
+	}
+
+	@Benchmark
+	public byte[] writeResponsesJson() throws IOException {
+		return this.mapper.writeValueAsBytes(this.responses);
+	}
+
+	@Benchmark
+	public List<EvaluationResponse> readResponsesJson() throws IOException {
+		return this.mapper.readValue(this.responseJson, new TypeReference<List<EvaluationResponse>>(){});
+	}
+
+	@Benchmark
+	public byte[] writeRequestsBinary() throws IOException {
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+
+		this.codec.writeRequests(os, this.requests);
+
+		return os.toByteArray();
+	}
+
+	@Benchmark
+	public List<EvaluationRequest> readRequestsBinary() throws IOException {
+		return this.codec.readRequests(new ByteArrayInputStream(this.requestBinary));
+	}
+
+	@Benchmark
+	public byte[] writeResponsesBinary() throws IOException {
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+
+		this.codec.writeResponses(os, this.responses);
+
+		return os.toByteArray();
+	}
+
+	@Benchmark
+	public List<EvaluationResponse> readResponsesBinary() throws IOException {
+		return this.codec.readResponses(new ByteArrayInputStream(this.responseBinary));
+	}
+}
@@ -18,6 +18,14 @@
  */
 package org.openscoring.client;
 
+import com.sun.jersey.api.client.*;
+import com.sun.jersey.api.client.config.*;
+import com.sun.jersey.api.client.filter.*;
+import com.sun.jersey.client.apache4.*;
+import com.sun.jersey.client.apache4.config.*;
+
+import org.apache.http.impl.conn.tsccm.*;
+
 import com.beust.jcommander.*;
 
 abstract
@@ -30,10 +38,52 @@ public class Application {
 	)
 	private boolean help = false;
 
+	@Parameter (
+		names = {"--no-compression"},
+		description = "Send request bodies uncompressed, and do not accept compressed response bodies"
+	)
+	private boolean noCompression = false;
+
 
 	abstract
 	public void run() throws Exception;
 
+	/**
+	 * Creates a client that gzip-compresses request bodies and accepts gzip-compressed response bodies, unless disabled.
+	 */
+	protected Client createClient(ClientConfig config){
+		Client client = Client.create(config);
+
+		addFilters(client);
+
+		return client;
+	}
+
+	/**
+	 * Creates a client that keeps up to the specified number of persistent connections per host.
+	 * The connection pool belongs to the client, whereas the pool of the default client is shared by the whole JVM.
+	 */
+	protected Client createClient(ClientConfig config, int maxConnections){
+		ThreadSafeClientConnManager connectionManager = new ThreadSafeClientConnManager();
+		connectionManager.setMaxTotal(maxConnections);
+		connectionManager.setDefaultMaxPerRoute(maxConnections);
+
+		(config.getProperties()).put(ApacheHttpClient4Config.PROPERTY_CONNECTION_MANAGER, connectionManager);
+
+		Client client = ApacheHttpClient4.create(config);
+
+		addFilters(client);
+
+		return client;
+	}
+
+	private void addFilters(Client client){
+
+		if(!this.noCompression){
+			client.addFilter(new GZIPContentEncodingFilter(true));
+		}
+	}
+
 	private boolean getHelp(){
 		return this.help;
 	}
@@ -19,13 +19,22 @@
 package org.openscoring.client;
 
 import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
 
 import javax.ws.rs.core.*;
 
+import org.openscoring.common.*;
+
+import com.google.common.collect.*;
+
 import com.sun.jersey.api.client.*;
+import com.sun.jersey.api.client.config.*;
 
 import com.beust.jcommander.*;
 
+import org.codehaus.jackson.jaxrs.*;
+
 public class CsvEvaluator extends Application {
 
 	@Parameter (
@@ -55,6 +64,18 @@ public class CsvEvaluator extends Application {
 	)
 	private String idColumn = null;
 
+	@Parameter (
+		names = {"--shard-size"},
+		description = "The number of rows per request. If 0, the input file is sent in one request. Ignored for models that aggregate rows by a \"group by\" field"
+	)
+	private int shardSize = 0;
+
+	@Parameter (
+		names = {"--concurrency"},
+		description = "The number of concurrent shard requests"
+	)
+	private int concurrency = 4;
+
 
 	static
 	public void main(String... args) throws Exception {
@@ -62,26 +83,57 @@ public class CsvEvaluator extends Application {
 	}
 
 	@Override
-	public void run() throws IOException {
-		Client client = Client.create();
+	public void run() throws Exception {
+
+		if(this.shardSize < 0 || this.concurrency < 1){
+			throw new IllegalArgumentException();
+		} // End if
+
+		ClientConfig config = new DefaultClientConfig();
+
+		Set<Class<?>> clazzes = config.getClasses();
+		clazzes.add(JacksonJsonProvider.class);
+
+		// Keep one persistent connection per concurrent request
+		Client client = (this.shardSize > 0 ? createClient(config, this.concurrency) : createClient(config));
+
+		int shardSize = this.shardSize;
+
+		if(shardSize > 0){
+			SummaryResponse summary = (client.resource(removeSuffix(this.model, "/csv"))).accept(MediaType.APPLICATION_JSON).get(SummaryResponse.class);
+
+			// Rows of the same group must be aggregated together, so the input cannot be split
+			List<String> groupFields = summary.getGroupFields();
+			if(groupFields != null && !groupFields.isEmpty()){
+				System.err.println("The model aggregates rows by " + groupFields + ", sending the input file in one request");
+
+				shardSize = 0;
+			}
+		}
 
 		WebResource resource = client.resource(ensureSuffix(this.model, "/csv"));
 		if(this.idColumn != null){
 			resource = resource.queryParam("idColumn", this.idColumn);
 		}
 
-		InputStream is = new FileInputStream(this.input);
+		InputStream is = new BufferedInputStream(new FileInputStream(this.input));
 
 		try {
-			OutputStream os = new FileOutputStream(this.output);
+			OutputStream os = new BufferedOutputStream(new FileOutputStream(this.output));
 
 			try {
-				InputStream result = resource.type(MediaType.TEXT_PLAIN).post(InputStream.class, is);
+				if(shardSize > 0){
+					evaluateShards(resource, is, os, shardSize);
+				} else
+
+				{
+					InputStream result = resource.type(MediaType.TEXT_PLAIN).post(InputStream.class, is);
 
-				try {
-					copy(result, os);
-				} finally {
-					result.close();
+					try {
+						copy(result, os);
+					} finally {
+						result.close();
+					}
 				}
 			} finally {
 				os.close();
@@ -93,6 +145,143 @@ public class CsvEvaluator extends Application {
 		client.destroy();
 	}
 
+	/**
+	 * Splits the input into row-aligned shards, which all start with the header row.
+	 * Shards are evaluated concurrently, and their results are written in the original row order.
+	 */
+	private void evaluateShards(final WebResource resource, InputStream is, OutputStream os, int shardSize) throws Exception {
+		ByteArrayOutputStream header = new ByteArrayOutputStream();
+
+		if(!readRecord(is, header)){
+			return;
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(this.concurrency);
+
+		try {
+			// Results are consumed in submission order. Bound the number of shards that are held in memory
+			Deque<Future<byte[]>> futures = Lists.newLinkedList();
+
+			boolean first = true;
+
+			while(true){
+				ByteArrayOutputStream shard = new ByteArrayOutputStream();
+				header.writeTo(shard);
+
+				int rows = 0;
+
+				while(rows < shardSize && readRecord(is, shard)){
+					rows++;
+				}
+
+				if(rows == 0){
+					break;
+				}
+
+				final
+				byte[] body = shard.toByteArray();
+
+				futures.addLast(executor.submit(new Callable<byte[]>(){
+
+					@Override
+					public byte[] call(){
+						return resource.type(MediaType.TEXT_PLAIN).post(byte[].class, body);
+					}
+				}));
+
+				if(futures.size() > this.concurrency){
+					writeShard(futures.removeFirst(), os, first);
+
+					first = false;
+				}
+			}
+
+			while(!futures.isEmpty()){
+				writeShard(futures.removeFirst(), os, first);
+
+				first = false;
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+
+		os.flush();
+	}
+
+	static
+	private void writeShard(Future<byte[]> future, OutputStream os, boolean first) throws Exception {
+		byte[] result;
+
+		try {
+			result = future.get();
+		} catch(ExecutionException ee){
+			Throwable cause = ee.getCause();
+
+			if(cause instanceof Exception){
+				throw (Exception)cause;
+			}
+
+			throw ee;
+		}
+
+		// Every shard result starts with the header row, but only the first one is kept
+		int offset = (first ? 0 : recordLength(result));
+
+		os.write(result, offset, result.length - offset);
+	}
+
+	/**
+	 * Reads a CSV record, including its line terminator. Line breaks that are inside quoted cells do not terminate the record.
+	 *
+	 * @return <code>true</code> if a record was read, <code>false</code> if the end of the stream was reached.
+	 */
+	static
+	private boolean readRecord(InputStream is, OutputStream os) throws IOException {
+		boolean quoted = false;
+
+		int count = 0;
+
+		while(true){
+			int b = is.read();
+			if(b < 0){
+				break;
+			}
+
+			os.write(b);
+
+			count++;
+
+			if(b == '\"'){
+				quoted = !quoted;
+			} else
+
+			if(b == '\n' && !quoted){
+				break;
+			}
+		}
+
+		return (count > 0);
+	}
+
+	static
+	private int recordLength(byte[] bytes){
+		boolean quoted = false;
+
+		for(int i = 0; i < bytes.length; i++){
+			byte b = bytes[i];
+
+			if(b == '\"'){
+				quoted = !quoted;
+			} else
+
+			if(b == '\n' && !quoted){
+				return (i + 1);
+			}
+		}
+
+		return bytes.length;
+	}
+
 	static
 	private String ensureSuffix(String string, String suffix){
 
@@ -103,9 +292,19 @@ public class CsvEvaluator extends Application {
 		return string;
 	}
 
+	static
+	private String removeSuffix(String string, String suffix){
+
+		if(string.endsWith(suffix)){
+			string = string.substring(0, string.length() - suffix.length());
+		}
+
+		return string;
+	}
+
 	static
 	private void copy(InputStream is, OutputStream os) throws IOException {
-		byte[] buffer = new byte[512];
+		byte[] buffer = new byte[64 * 1024];
 
 		while(true){
 			int count = is.read(buffer);
@@ -19,13 +19,20 @@
 package org.openscoring.client;
 
 import java.io.*;
+import java.net.*;
+import java.util.*;
 
 import javax.ws.rs.core.*;
 
+import org.openscoring.common.*;
+
 import com.sun.jersey.api.client.*;
+import com.sun.jersey.api.client.config.*;
 
 import com.beust.jcommander.*;
 
+import org.codehaus.jackson.jaxrs.*;
+
 public class Deployer extends Application {
 
 	@Parameter (
@@ -50,20 +57,66 @@ public class Deployer extends Application {
 
 	@Override
 	public void run() throws IOException {
-		Client client = Client.create();
+		ClientConfig config = new DefaultClientConfig();
+
+		Set<Class<?>> clazzes = config.getClasses();
+		clazzes.add(JacksonJsonProvider.class);
+
+		Client client = createClient(config);
 
 		WebResource resource = client.resource(this.model);
 
+		URI location = null;
+
 		InputStream is = new FileInputStream(this.file);
 
 		try {
-			String result = resource.type(MediaType.APPLICATION_XML_TYPE).put(String.class, is);
+			ClientResponse response = resource.type(MediaType.APPLICATION_XML_TYPE).put(ClientResponse.class, is);
+
+			String result = response.getEntity(String.class);
+
+			if(response.getStatus() >= 400){
+				throw new IOException(result);
+			}
 
 			System.out.println(result);
+
+			// The model is deployed in the background
+			if(response.getStatus() == ClientResponse.Status.ACCEPTED.getStatusCode()){
+				location = response.getLocation();
+			}
 		} finally {
 			is.close();
 		}
 
+		if(location != null){
+			DeploymentStatusResponse status = waitForDeployment(client.resource(location));
+
+			System.out.println("Model " + status.getId() + " " + (status.getStatus()).name() + (status.getMessage() != null ? (": " + status.getMessage()) : ""));
+		}
+
 		client.destroy();
 	}
+
+	static
+	private DeploymentStatusResponse waitForDeployment(WebResource resource) throws IOException {
+
+		while(true){
+			DeploymentStatusResponse status = resource.accept(MediaType.APPLICATION_JSON).get(DeploymentStatusResponse.class);
+
+			switch(status.getStatus()){
+				case PENDING:
+				case DEPLOYING:
+					break;
+				default:
+					return status;
+			}
+
+			try {
+				Thread.sleep(100L);
+			} catch(InterruptedException ie){
+				throw new InterruptedIOException();
+			}
+		}
+	}
 }
\ No newline at end of file
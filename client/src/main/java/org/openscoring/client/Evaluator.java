@@ -18,6 +18,7 @@
  */
 package org.openscoring.client;
 
+import java.io.*;
 import java.util.*;
 
 import javax.ws.rs.core.*;
@@ -48,6 +49,12 @@ public class Evaluator extends Application {
 	)
 	private Map<String, String> arguments = Maps.newLinkedHashMap();
 
+	@Parameter (
+		names = {"--binary"},
+		description = "Use the binary wire format instead of JSON"
+	)
+	private boolean binary = false;
+
 
 	static
 	public void main(String... args) throws Exception {
@@ -55,20 +62,45 @@ public class Evaluator extends Application {
 	}
 
 	@Override
-	public void run(){
+	public void run() throws IOException {
 		ClientConfig config = new DefaultClientConfig();
 
 		Set<Class<?>> clazzes = config.getClasses();
 		clazzes.add(JacksonJsonProvider.class);
 
-		Client client = Client.create(config);
+		Client client = createClient(config);
 
 		WebResource resource = client.resource(this.model);
 
 		EvaluationRequest request = new EvaluationRequest();
 		request.setArguments(this.arguments);
 
-		EvaluationResponse response = resource.accept(MediaType.APPLICATION_JSON).entity(request, MediaType.APPLICATION_JSON).post(EvaluationResponse.class);
+		EvaluationResponse response;
+
+		if(this.binary){
+			// The field dictionary is derived from the model summary
+			SummaryResponse summary = resource.accept(MediaType.APPLICATION_JSON).get(SummaryResponse.class);
+
+			BinaryCodec codec = BinaryCodec.create(summary);
+
+			ByteArrayOutputStream os = new ByteArrayOutputStream();
+
+			codec.writeRequests(os, Collections.singletonList(request));
+
+			InputStream is = resource.accept(BinaryCodec.MEDIA_TYPE).entity(os.toByteArray(), BinaryCodec.MEDIA_TYPE).post(InputStream.class);
+
+			try {
+				List<EvaluationResponse> responses = codec.readResponses(is);
+
+				response = responses.get(0);
+			} finally {
+				is.close();
+			}
+		} else
+
+		{
+			response = resource.accept(MediaType.APPLICATION_JSON).entity(request, MediaType.APPLICATION_JSON).post(EvaluationResponse.class);
+		}
 
 		System.out.println(response.getResult());
 
@@ -0,0 +1,686 @@
+/*
+ * Copyright (c) 2014 Villu Ruusmann
+ *
+ * This file is part of Openscoring
+ *
+ * Openscoring is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Openscoring is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Openscoring.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openscoring.client;
+
+import java.io.*;
+import java.net.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.*;
+
+import javax.ws.rs.core.*;
+
+import org.openscoring.common.*;
+
+import com.google.common.collect.*;
+
+import com.sun.jersey.api.client.*;
+import com.sun.jersey.api.client.config.*;
+
+import com.beust.jcommander.*;
+
+import org.codehaus.jackson.map.*;
+import org.codehaus.jackson.type.*;
+
+import org.HdrHistogram.*;
+
+import org.supercsv.io.*;
+
+/**
+ * Replays a CSV or JSON dataset against a deployed model, and reports throughput and latency percentiles.
+ *
+ * <p>
+ * In fixed rate mode, the latency of a request is measured from the moment when it should have been sent according to the schedule.
+ * This accounts for the requests that were delayed because the service (or the load generator itself) was falling behind ("coordinated omission").
+ * </p>
+ */
+public class LoadGenerator extends Application {
+
+	@Parameter (
+		names = {"--model"},
+		description = "The URI of the model",
+		required = true
+	)
+	private String model = null;
+
+	@Parameter (
+		names = {"--input"},
+		description = "Input CSV file, or JSON file (*.json) containing an array of evaluation requests",
+		required = true
+	)
+	private File input = null;
+
+	@Parameter (
+		names = {"--id-column"},
+		description = "The name of the row identifier column of the input CSV file"
+	)
+	private String idColumn = null;
+
+	@Parameter (
+		names = {"--batch-size"},
+		description = "The number of records per batch evaluation request. If 0, records are sent one by one as single evaluation requests"
+	)
+	private int batchSize = 0;
+
+	@Parameter (
+		names = {"--rate"},
+		description = "The target number of requests per second. If 0, workers send requests back-to-back"
+	)
+	private double rate = 0d;
+
+	@Parameter (
+		names = {"--concurrency"},
+		description = "The number of concurrent workers"
+	)
+	private int concurrency = 1;
+
+	@Parameter (
+		names = {"--duration"},
+		description = "Test duration in seconds"
+	)
+	private int duration = 60;
+
+	@Parameter (
+		names = {"--stream-length"},
+		description = "The number of records per NDJSON stream. If greater than 0, every worker opens a stream, and sends records one by one, waiting for the result of every record before sending the next one"
+	)
+	private int streamLength = 0;
+
+	@Parameter (
+		names = {"--think-time"},
+		description = "The pause in milliseconds between consecutive records of a stream"
+	)
+	private int thinkTime = 0;
+
+	@Parameter (
+		names = {"--output"},
+		description = "Output file for the report"
+	)
+	private File output = null;
+
+
+	static
+	public void main(String... args) throws Exception {
+		run(LoadGenerator.class, args);
+	}
+
+	@Override
+	public void run() throws Exception {
+
+		if(this.concurrency < 1 || this.batchSize < 0 || this.rate < 0d || this.duration < 1 || this.streamLength < 0 || this.thinkTime < 0){
+			throw new IllegalArgumentException();
+		} // End if
+
+		if(this.batchSize > 0 && this.streamLength > 0){
+			throw new IllegalArgumentException("Batch mode and stream mode are mutually exclusive");
+		}
+
+		List<EvaluationRequest> requests = loadRequests();
+		if(requests.isEmpty()){
+			throw new IllegalArgumentException("Empty input file " + this.input);
+		}
+
+		final
+		List<byte[]> bodies = encode(requests);
+
+		// Keep one persistent connection per worker
+		Client client = createClient(new DefaultClientConfig(), this.concurrency);
+
+		final
+		WebResource resource = client.resource((this.batchSize > 0 || this.streamLength > 0) ? ensureSuffix(this.model, "/batch") : this.model);
+
+		final
+		int streamLength = this.streamLength;
+
+		final
+		long thinkTime = TimeUnit.MILLISECONDS.toNanos(this.thinkTime);
+
+		final
+		long interval = (this.rate > 0d ? (long)(TimeUnit.SECONDS.toNanos(1) / this.rate) : 0L);
+
+		final
+		long start = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(100);
+
+		final
+		long end = start + TimeUnit.SECONDS.toNanos(this.duration);
+
+		final
+		AtomicLong sequence = new AtomicLong(0);
+
+		final
+		AtomicLong errors = new AtomicLong(0);
+
+		final
+		AtomicLong lastCompletion = new AtomicLong(start);
+
+		List<Worker> workers = Lists.newArrayList();
+
+		ExecutorService executor = Executors.newFixedThreadPool(this.concurrency);
+
+		try {
+			List<Future<?>> futures = Lists.newArrayList();
+
+			for(int i = 0; i < this.concurrency; i++){
+				Worker worker = new Worker(){
+
+					@Override
+					public void run(){
+
+						while(true){
+							long index = sequence.getAndIncrement();
+
+							long intendedStart;
+
+							if(interval > 0L){
+								intendedStart = start + index * interval;
+							} else
+
+							{
+								intendedStart = Math.max(start, System.nanoTime());
+							} // End if
+
+							if(intendedStart >= end){
+								break;
+							}
+
+							sleepUntil(intendedStart);
+
+							if(streamLength > 0){
+								List<byte[]> records = Lists.newArrayList();
+
+								for(int i = 0; i < streamLength; i++){
+									records.add(bodies.get((int)((index * streamLength + i) % bodies.size())));
+								}
+
+								if(!stream(resource.getURI(), records, intendedStart, thinkTime, this)){
+									errors.incrementAndGet();
+								}
+
+								updateMax(lastCompletion, System.nanoTime());
+
+								continue;
+							}
+
+							byte[] body = bodies.get((int)(index % bodies.size()));
+
+							long actualStart = System.nanoTime();
+
+							boolean success = send(resource, body);
+
+							long completion = System.nanoTime();
+
+							if(success){
+								(getResponseTime()).recordValue(toMicros(completion - intendedStart));
+								(getServiceTime()).recordValue(toMicros(completion - actualStart));
+							} else
+
+							{
+								errors.incrementAndGet();
+							}
+
+							updateMax(lastCompletion, completion);
+						}
+					}
+				};
+
+				workers.add(worker);
+
+				futures.add(executor.submit(worker));
+			}
+
+			for(Future<?> future : futures){
+				future.get();
+			}
+		} finally {
+			executor.shutdown();
+		}
+
+		client.destroy();
+
+		Histogram responseTime = new Histogram(HIGHEST_TRACKABLE_VALUE, 3);
+		Histogram serviceTime = new Histogram(HIGHEST_TRACKABLE_VALUE, 3);
+
+		for(Worker worker : workers){
+			responseTime.add(worker.getResponseTime());
+			serviceTime.add(worker.getServiceTime());
+		}
+
+		double seconds = (lastCompletion.get() - start) / (double)TimeUnit.SECONDS.toNanos(1);
+
+		report(System.out, responseTime, serviceTime, errors.get(), seconds);
+
+		if(this.output != null){
+			PrintStream ps = new PrintStream(new FileOutputStream(this.output), false, "UTF-8");
+
+			try {
+				report(ps, responseTime, serviceTime, errors.get(), seconds);
+			} finally {
+				ps.close();
+			}
+		}
+	}
+
+	private void report(PrintStream ps, Histogram responseTime, Histogram serviceTime, long errors, double seconds){
+		long count = responseTime.getTotalCount();
+
+		ps.println("Mode: " + (this.rate > 0d ? ("fixed rate of " + this.rate + " " + (this.streamLength > 0 ? "streams" : "requests") + "/s") : "back-to-back") + ", " + this.concurrency + " worker(s)" + (this.batchSize > 0 ? (", batch size " + this.batchSize) : "") + (this.streamLength > 0 ? (", stream length " + this.streamLength + ", think time " + this.thinkTime + " ms") : ""));
+
+		if(this.streamLength > 0){
+			ps.println("Records: " + count + " successful, " + errors + " stream(s) failed, in " + String.format(Locale.US, "%.3f", seconds) + " s");
+			ps.println("Throughput: " + String.format(Locale.US, "%.1f", count / seconds) + " records/s");
+		} else
+
+		{
+			ps.println("Requests: " + count + " successful, " + errors + " failed, in " + String.format(Locale.US, "%.3f", seconds) + " s");
+			ps.println("Throughput: " + String.format(Locale.US, "%.1f", count / seconds) + " requests/s" + (this.batchSize > 0 ? (", " + String.format(Locale.US, "%.1f", (count * this.batchSize) / seconds) + " records/s") : ""));
+		}
+		ps.println();
+
+		if(count == 0){
+			ps.flush();
+
+			return;
+		}
+
+		ps.println("Response time (ms), measured from the intended start time:");
+		responseTime.outputPercentileDistribution(ps, 1000d);
+		ps.println();
+
+		ps.println("Service time (ms), measured from the actual start time:");
+		serviceTime.outputPercentileDistribution(ps, 1000d);
+
+		ps.flush();
+	}
+
+	private List<EvaluationRequest> loadRequests() throws IOException {
+
+		if((this.input.getName()).endsWith(".json")){
+			return LoadGenerator.mapper.readValue(this.input, new TypeReference<List<EvaluationRequest>>(){});
+		}
+
+		BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(this.input), "UTF-8"));
+
+		try {
+			reader.mark(10 * 1024);
+
+			String line = reader.readLine();
+			if(line == null){
+				return Collections.emptyList();
+			}
+
+			reader.reset();
+
+			CsvMapReader parser = new CsvMapReader(reader, CsvFormatUtil.getFormat(reader));
+
+			try {
+				String[] header = parser.getHeader(true);
+
+				List<EvaluationRequest> requests = Lists.newArrayList();
+
+				while(true){
+					Map<String, String> row = parser.read(header);
+					if(row == null){
+						break;
+					}
+
+					String id = null;
+
+					if(this.idColumn != null){
+						id = row.remove(this.idColumn);
+					}
+
+					EvaluationRequest request = new EvaluationRequest(id);
+					request.setArguments(row);
+
+					requests.add(request);
+				}
+
+				return requests;
+			} finally {
+				parser.close();
+			}
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * Serializes requests upfront, so that client-side JSON encoding is not part of the measured latency.
+	 */
+	private List<byte[]> encode(List<EvaluationRequest> requests) throws IOException {
+		List<byte[]> result = Lists.newArrayList();
+
+		if(this.batchSize > 0){
+			List<List<EvaluationRequest>> batches = Lists.partition(requests, this.batchSize);
+
+			for(List<EvaluationRequest> batch : batches){
+
+				// Keep the batch size constant
+				if(batch.size() < this.batchSize && !result.isEmpty()){
+					break;
+				}
+
+				result.add(LoadGenerator.mapper.writeValueAsBytes(batch));
+			}
+		} else
+
+		{
+			for(EvaluationRequest request : requests){
+				byte[] body = LoadGenerator.mapper.writeValueAsBytes(request);
+
+				// NDJSON records are terminated by a newline
+				if(this.streamLength > 0){
+					body = Arrays.copyOf(body, body.length + 1);
+					body[body.length - 1] = '\n';
+				}
+
+				result.add(body);
+			}
+		}
+
+		return result;
+	}
+
+	static
+	private boolean send(WebResource resource, byte[] body){
+		ClientResponse response;
+
+		try {
+			response = resource.accept(MediaType.APPLICATION_JSON).entity(body, MediaType.APPLICATION_JSON).post(ClientResponse.class);
+		} catch(ClientHandlerException che){
+			return false;
+		}
+
+		try {
+			// Consume the response body in order to reuse the connection
+			response.getEntity(byte[].class);
+
+			// Unlike ClientResponse#getClientResponseStatus(), the status code is defined for every response
+			int status = response.getStatus();
+
+			return (status >= 200 && status < 300);
+		} catch(ClientHandlerException che){
+			return false;
+		} finally {
+			response.close();
+		}
+	}
+
+	/**
+	 * Sends records over a single NDJSON stream, one record at a time.
+	 *
+	 * The JDK HTTP client cannot read the response before the request body has been completed, so the stream is driven over a plain socket.
+	 * The response time of the first record is measured from the intended start time of the stream, and the response time of every subsequent record from the end of its think time.
+	 */
+	static
+	private boolean stream(URI uri, List<byte[]> records, long intendedStart, long thinkTime, Worker worker){
+		int port = (uri.getPort() > -1 ? uri.getPort() : 80);
+
+		Socket socket;
+
+		try {
+			socket = new Socket(uri.getHost(), port);
+		} catch(IOException ioe){
+			return false;
+		}
+
+		try {
+			socket.setTcpNoDelay(true);
+
+			OutputStream os = new BufferedOutputStream(socket.getOutputStream());
+
+			String header = "POST " + uri.getRawPath() + " HTTP/1.1\r\n" +
+				"Host: " + uri.getHost() + ":" + port + "\r\n" +
+				"Content-Type: application/x-ndjson\r\n" +
+				"Accept: application/x-ndjson\r\n" +
+				"Transfer-Encoding: chunked\r\n" +
+				"Connection: close\r\n" +
+				"\r\n";
+
+			os.write(header.getBytes("US-ASCII"));
+
+			ResponseReader reader = null;
+
+			long intendedSend = intendedStart;
+
+			for(byte[] record : records){
+
+				if(reader != null){
+					intendedSend = System.nanoTime() + thinkTime;
+
+					sleepUntil(intendedSend);
+				}
+
+				long actualSend = System.nanoTime();
+
+				os.write((Integer.toHexString(record.length) + "\r\n").getBytes("US-ASCII"));
+				os.write(record);
+				os.write(CRLF);
+				os.flush();
+
+				if(reader == null){
+					reader = new ResponseReader(new BufferedInputStream(socket.getInputStream()));
+
+					if(reader.readStatus() != 200){
+						return false;
+					}
+				} // End if
+
+				if(reader.readRecord() == null){
+					return false;
+				}
+
+				long completion = System.nanoTime();
+
+				(worker.getResponseTime()).recordValue(toMicros(completion - intendedSend));
+				(worker.getServiceTime()).recordValue(toMicros(completion - actualSend));
+			}
+
+			os.write('0');
+			os.write(CRLF);
+			os.write(CRLF);
+			os.flush();
+
+			return true;
+		} catch(IOException ioe){
+			return false;
+		} finally {
+
+			try {
+				socket.close();
+			} catch(IOException ioe){
+				// Ignored
+			}
+		}
+	}
+
+	static
+	private void sleepUntil(long deadline){
+
+		while(true){
+			long remaining = deadline - System.nanoTime();
+			if(remaining <= 0L){
+				break;
+			}
+
+			LockSupport.parkNanos(remaining);
+		}
+	}
+
+	static
+	private void updateMax(AtomicLong max, long value){
+
+		while(true){
+			long current = max.get();
+
+			if(value <= current || max.compareAndSet(current, value)){
+				break;
+			}
+		}
+	}
+
+	static
+	private long toMicros(long nanos){
+		return Math.min(TimeUnit.NANOSECONDS.toMicros(nanos), HIGHEST_TRACKABLE_VALUE);
+	}
+
+	static
+	private String ensureSuffix(String string, String suffix){
+
+		if(!string.endsWith(suffix)){
+			string += suffix;
+		}
+
+		return string;
+	}
+
+	static
+	private class ResponseReader {
+
+		private InputStream is = null;
+
+		private boolean chunked = false;
+
+
+		public ResponseReader(InputStream is){
+			this.is = is;
+		}
+
+		/**
+		 * Reads the status line and the header fields.
+		 */
+		public int readStatus() throws IOException {
+			String statusLine = readLine();
+			if(statusLine == null){
+				throw new EOFException();
+			}
+
+			String[] parts = statusLine.split(" ");
+			if(parts.length < 2){
+				throw new IOException("Invalid status line " + statusLine);
+			}
+
+			while(true){
+				String line = readLine();
+
+				if(line == null || line.isEmpty()){
+					break;
+				} // End if
+
+				if((line.toLowerCase(Locale.ROOT)).matches("transfer-encoding:\\s*chunked")){
+					this.chunked = true;
+				}
+			}
+
+			return Integer.parseInt(parts[1]);
+		}
+
+		/**
+		 * @return The next NDJSON record, or <code>null</code> if the response has ended.
+		 */
+		public String readRecord() throws IOException {
+
+			if(!this.chunked){
+				return readLine();
+			}
+
+			ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+
+			while(true){
+				String sizeLine = readLine();
+				if(sizeLine == null){
+					return null;
+				}
+
+				int size = Integer.parseInt((sizeLine.split(";")[0]).trim(), 16);
+				if(size == 0){
+					return null;
+				}
+
+				for(int i = 0; i < size; i++){
+					int b = this.is.read();
+					if(b < 0){
+						throw new EOFException();
+					}
+
+					buffer.write(b);
+				}
+
+				// The CRLF after chunk data
+				readLine();
+
+				byte[] bytes = buffer.toByteArray();
+
+				if(bytes.length > 0 && bytes[bytes.length - 1] == '\n'){
+					return (new String(bytes, "UTF-8")).trim();
+				}
+			}
+		}
+
+		private String readLine() throws IOException {
+			ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+
+			while(true){
+				int b = this.is.read();
+
+				if(b < 0){
+
+					if(buffer.size() == 0){
+						return null;
+					}
+
+					break;
+				} // End if
+
+				if(b == '\n'){
+					break;
+				}
+
+				buffer.write(b);
+			}
+
+			return (new String(buffer.toByteArray(), "UTF-8")).trim();
+		}
+	}
+
+	abstract
+	private class Worker implements Runnable {
+
+		private Histogram responseTime = new Histogram(HIGHEST_TRACKABLE_VALUE, 3);
+
+		private Histogram serviceTime = new Histogram(HIGHEST_TRACKABLE_VALUE, 3);
+
+
+		public Histogram getResponseTime(){
+			return this.responseTime;
+		}
+
+		public Histogram getServiceTime(){
+			return this.serviceTime;
+		}
+	}
+
+	private static final ObjectMapper mapper = new ObjectMapper();
+
+	private static final byte[] CRLF = {'\r', '\n'};
+
+	// One hour in microseconds
+	private static final long HIGHEST_TRACKABLE_VALUE = TimeUnit.HOURS.toMicros(1);
+}
@@ -19,6 +19,7 @@
 package org.openscoring.client;
 
 import com.sun.jersey.api.client.*;
+import com.sun.jersey.api.client.config.*;
 
 import com.beust.jcommander.*;
 
@@ -39,7 +40,7 @@ public class Undeployer extends Application {
 
 	@Override
 	public void run(){
-		Client client = Client.create();
+		Client client = createClient(new DefaultClientConfig());
 
 		WebResource resource = client.resource(this.model);
 
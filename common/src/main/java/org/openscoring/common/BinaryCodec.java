@@ -0,0 +1,415 @@
+/*
+ * Copyright (c) 2014 Villu Ruusmann
+ *
+ * This file is part of Openscoring
+ *
+ * Openscoring is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Openscoring is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Openscoring.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openscoring.common;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Binary encoding of evaluation requests and responses.
+ *
+ * Field names are not transmitted. Instead, both parties derive the same field dictionary from the {@link SummaryResponse} of the model.
+ * Argument values are encoded in the order of active and group fields, and result values in the order of target and output fields.
+ *
+ * A message is a 4-byte length prefix followed by the payload.
+ * The payload starts with the format version, the hash code of the field dictionary and the number of records.
+ * Every value is a 1-byte type tag, which may be followed by the encoded value.
+ * List elements must not be lists themselves, because argument values are never lists of lists.
+ *
+ * Lengths and counts are validated against the remaining payload before anything is allocated for them, and messages that are longer than the maximum message size are rejected.
+ */
+public class BinaryCodec {
+
+	private List<String> argumentFields = null;
+
+	private List<String> resultFields = null;
+
+	private int dictionaryHash = 0;
+
+	private int maxMessageSize = 0;
+
+
+	public BinaryCodec(List<String> argumentFields, List<String> resultFields){
+		this(argumentFields, resultFields, BinaryCodec.DEFAULT_MAX_MESSAGE_SIZE);
+	}
+
+	/**
+	 * @param maxMessageSize The maximum payload size in bytes of a message that is read.
+	 */
+	public BinaryCodec(List<String> argumentFields, List<String> resultFields, int maxMessageSize){
+
+		if(maxMessageSize < 0){
+			throw new IllegalArgumentException();
+		}
+
+		this.maxMessageSize = maxMessageSize;
+
+		this.argumentFields = new ArrayList<String>(argumentFields);
+		this.resultFields = new ArrayList<String>(resultFields);
+
+		this.dictionaryHash = (31 * (this.argumentFields).hashCode()) + (this.resultFields).hashCode();
+	}
+
+	public List<String> getArgumentFields(){
+		return this.argumentFields;
+	}
+
+	public List<String> getResultFields(){
+		return this.resultFields;
+	}
+
+	public int getMaxMessageSize(){
+		return this.maxMessageSize;
+	}
+
+	public void writeRequests(OutputStream os, List<EvaluationRequest> requests) throws IOException {
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+
+		DataOutputStream output = new DataOutputStream(buffer);
+
+		writeHeader(output, requests.size());
+
+		for(EvaluationRequest request : requests){
+			writeValue(output, request.getId());
+			writeValues(output, this.argumentFields, request.getArguments());
+		}
+
+		writeMessage(os, buffer);
+	}
+
+	public List<EvaluationRequest> readRequests(InputStream is) throws IOException {
+		DataInputStream input = readMessage(is, this.maxMessageSize);
+
+		// Every record consists of at least an id tag and a tag for every argument field
+		int count = readHeader(input, 1 + this.argumentFields.size());
+
+		List<EvaluationRequest> requests = new ArrayList<EvaluationRequest>();
+
+		for(int i = 0; i < count; i++){
+			EvaluationRequest request = new EvaluationRequest((String)readValue(input));
+			request.setArguments(readValues(input, this.argumentFields));
+
+			requests.add(request);
+		}
+
+		return requests;
+	}
+
+	public void writeResponses(OutputStream os, List<EvaluationResponse> responses) throws IOException {
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+
+		DataOutputStream output = new DataOutputStream(buffer);
+
+		writeHeader(output, responses.size());
+
+		for(EvaluationResponse response : responses){
+			writeValue(output, response.getId());
+			writeValues(output, this.resultFields, response.getResult());
+		}
+
+		writeMessage(os, buffer);
+	}
+
+	public List<EvaluationResponse> readResponses(InputStream is) throws IOException {
+		DataInputStream input = readMessage(is, this.maxMessageSize);
+
+		// Every record consists of at least an id tag and a tag for every result field
+		int count = readHeader(input, 1 + this.resultFields.size());
+
+		List<EvaluationResponse> responses = new ArrayList<EvaluationResponse>();
+
+		for(int i = 0; i < count; i++){
+			EvaluationResponse response = new EvaluationResponse((String)readValue(input));
+			response.setResult(readValues(input, this.resultFields));
+
+			responses.add(response);
+		}
+
+		return responses;
+	}
+
+	private void writeHeader(DataOutputStream output, int count) throws IOException {
+		output.writeByte(BinaryCodec.VERSION);
+		output.writeInt(this.dictionaryHash);
+		output.writeInt(count);
+	}
+
+	private int readHeader(DataInputStream input, int minRecordSize) throws IOException {
+		int version = input.readUnsignedByte();
+		if(version != BinaryCodec.VERSION){
+			throw new IOException("Unsupported format version " + version);
+		}
+
+		int dictionaryHash = input.readInt();
+		if(dictionaryHash != this.dictionaryHash){
+			throw new IOException("Field dictionary mismatch");
+		}
+
+		return readCount(input, minRecordSize);
+	}
+
+	static
+	public BinaryCodec create(SummaryResponse summary){
+		return create(summary, BinaryCodec.DEFAULT_MAX_MESSAGE_SIZE);
+	}
+
+	static
+	public BinaryCodec create(SummaryResponse summary, int maxMessageSize){
+		List<String> argumentFields = new ArrayList<String>();
+		argumentFields.addAll(summary.getActiveFields());
+		argumentFields.addAll(summary.getGroupFields());
+
+		List<String> resultFields = new ArrayList<String>();
+		resultFields.addAll(summary.getTargetFields());
+		resultFields.addAll(summary.getOutputFields());
+
+		return new BinaryCodec(argumentFields, resultFields, maxMessageSize);
+	}
+
+	static
+	private void writeMessage(OutputStream os, ByteArrayOutputStream buffer) throws IOException {
+		DataOutputStream output = new DataOutputStream(os);
+		output.writeInt(buffer.size());
+
+		buffer.writeTo(output);
+
+		output.flush();
+	}
+
+	static
+	private DataInputStream readMessage(InputStream is, int maxMessageSize) throws IOException {
+		DataInputStream input = new DataInputStream(is);
+
+		int length = input.readInt();
+		if(length < 0 || length > maxMessageSize){
+			throw new IOException("Invalid message length " + length);
+		}
+
+		// The buffer grows with the data that actually arrives, not with the declared length
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream(Math.min(length, BinaryCodec.CHUNK_SIZE));
+
+		byte[] chunk = new byte[Math.min(length, BinaryCodec.CHUNK_SIZE)];
+
+		for(int remaining = length; remaining > 0; ){
+			int count = input.read(chunk, 0, Math.min(remaining, chunk.length));
+			if(count < 0){
+				throw new EOFException("Truncated message");
+			}
+
+			buffer.write(chunk, 0, count);
+
+			remaining -= count;
+		}
+
+		return new DataInputStream(new ByteArrayInputStream(buffer.toByteArray()));
+	}
+
+	/**
+	 * Reads a length or a count, and checks that the rest of the payload can hold that many elements.
+	 *
+	 * @param minElementSize The minimum encoded size of an element in bytes.
+	 */
+	static
+	private int readCount(DataInputStream input, int minElementSize) throws IOException {
+		int count = input.readInt();
+
+		// The payload is held in memory, so the number of available bytes is exact
+		if(count < 0 || (long)count * minElementSize > input.available()){
+			throw new IOException("Invalid length " + count);
+		}
+
+		return count;
+	}
+
+	static
+	private void writeValues(DataOutputStream output, List<String> fields, Map<String, ?> values) throws IOException {
+
+		for(String field : fields){
+
+			if(values == null || !values.containsKey(field)){
+				output.writeByte(BinaryCodec.TAG_ABSENT);
+
+				continue;
+			}
+
+			writeValue(output, values.get(field));
+		}
+	}
+
+	static
+	private Map<String, ?> readValues(DataInputStream input, List<String> fields) throws IOException {
+		Map<String, Object> values = new LinkedHashMap<String, Object>(2 * fields.size());
+
+		for(String field : fields){
+			int tag = input.readUnsignedByte();
+
+			if(tag == BinaryCodec.TAG_ABSENT){
+				continue;
+			}
+
+			values.put(field, readValue(input, tag));
+		}
+
+		return values;
+	}
+
+	static
+	private void writeValue(DataOutputStream output, Object value) throws IOException {
+
+		if(value == null){
+			output.writeByte(BinaryCodec.TAG_NULL);
+		} else
+
+		if(value instanceof String){
+			output.writeByte(BinaryCodec.TAG_STRING);
+
+			writeString(output, (String)value);
+		} else
+
+		if(value instanceof Integer){
+			output.writeByte(BinaryCodec.TAG_INTEGER);
+			output.writeInt((Integer)value);
+		} else
+
+		if(value instanceof Long){
+			output.writeByte(BinaryCodec.TAG_LONG);
+			output.writeLong((Long)value);
+		} else
+
+		if(value instanceof Float){
+			output.writeByte(BinaryCodec.TAG_FLOAT);
+			output.writeFloat((Float)value);
+		} else
+
+		if(value instanceof Double){
+			output.writeByte(BinaryCodec.TAG_DOUBLE);
+			output.writeDouble((Double)value);
+		} else
+
+		if(value instanceof Boolean){
+			output.writeByte(BinaryCodec.TAG_BOOLEAN);
+			output.writeBoolean((Boolean)value);
+		} else
+
+		if(value instanceof Collection){
+			Collection<?> elements = (Collection<?>)value;
+
+			output.writeByte(BinaryCodec.TAG_LIST);
+			output.writeInt(elements.size());
+
+			for(Object element : elements){
+
+				if(element instanceof Collection){
+					throw new IOException("Nested lists are not supported");
+				}
+
+				writeValue(output, element);
+			}
+		} else
+
+		// Other types (eg. date and time values) are transmitted in their string form
+		{
+			output.writeByte(BinaryCodec.TAG_STRING);
+
+			writeString(output, value.toString());
+		}
+	}
+
+	static
+	private Object readValue(DataInputStream input) throws IOException {
+		return readValue(input, input.readUnsignedByte());
+	}
+
+	static
+	private Object readValue(DataInputStream input, int tag) throws IOException {
+
+		switch(tag){
+			case BinaryCodec.TAG_NULL:
+				return null;
+			case BinaryCodec.TAG_STRING:
+				return readString(input);
+			case BinaryCodec.TAG_INTEGER:
+				return input.readInt();
+			case BinaryCodec.TAG_LONG:
+				return input.readLong();
+			case BinaryCodec.TAG_FLOAT:
+				return input.readFloat();
+			case BinaryCodec.TAG_DOUBLE:
+				return input.readDouble();
+			case BinaryCodec.TAG_BOOLEAN:
+				return input.readBoolean();
+			case BinaryCodec.TAG_LIST:
+				{
+					int size = readCount(input, 1);
+
+					List<Object> elements = new ArrayList<Object>();
+
+					for(int i = 0; i < size; i++){
+						int elementTag = input.readUnsignedByte();
+
+						// Rejected before descending, so that a malicious payload cannot nest lists deeply enough to overflow the stack
+						if(elementTag == BinaryCodec.TAG_LIST){
+							throw new IOException("Nested lists are not supported");
+						}
+
+						elements.add(readValue(input, elementTag));
+					}
+
+					return elements;
+				}
+			default:
+				throw new IOException("Unknown type tag " + tag);
+		}
+	}
+
+	static
+	private void writeString(DataOutputStream output, String string) throws IOException {
+		byte[] bytes = string.getBytes("UTF-8");
+
+		output.writeInt(bytes.length);
+		output.write(bytes);
+	}
+
+	static
+	private String readString(DataInputStream input) throws IOException {
+		byte[] bytes = new byte[readCount(input, 1)];
+
+		input.readFully(bytes);
+
+		return new String(bytes, "UTF-8");
+	}
+
+	public static final String MEDIA_TYPE = "application/x-openscoring-binary";
+
+	public static final int DEFAULT_MAX_MESSAGE_SIZE = 16 * 1024 * 1024;
+
+	private static final int CHUNK_SIZE = 8192;
+
+	private static final int VERSION = 1;
+
+	private static final int TAG_ABSENT = 0;
+	private static final int TAG_NULL = 1;
+	private static final int TAG_STRING = 2;
+	private static final int TAG_INTEGER = 3;
+	private static final int TAG_LONG = 4;
+	private static final int TAG_FLOAT = 5;
+	private static final int TAG_DOUBLE = 6;
+	private static final int TAG_BOOLEAN = 7;
+	private static final int TAG_LIST = 8;
+}
\ No newline at end of file
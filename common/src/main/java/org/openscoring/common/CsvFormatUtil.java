@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) 2014 Villu Ruusmann
+ *
+ * This file is part of Openscoring
+ *
+ * Openscoring is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Openscoring is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Openscoring.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openscoring.common;
+
+import java.io.*;
+
+import org.supercsv.prefs.*;
+
+public class CsvFormatUtil {
+
+	private CsvFormatUtil(){
+	}
+
+	/**
+	 * Detects the CSV dialect by scanning the header line and the first ten lines once for all candidate delimiters.
+	 */
+	static
+	public CsvPreference getFormat(BufferedReader reader) throws IOException {
+		char[] buffer = new char[10 * 1024];
+
+		reader.mark(buffer.length);
+
+		int length = 0;
+
+		try {
+			while(length < buffer.length){
+				int count = reader.read(buffer, length, buffer.length - length);
+				if(count < 0){
+					break;
+				}
+
+				length += count;
+			}
+		} finally {
+			reader.reset();
+		}
+
+		boolean complete = (length < buffer.length);
+
+		CsvPreference[] formats = {CsvPreference.EXCEL_PREFERENCE, CsvPreference.EXCEL_NORTH_EUROPE_PREFERENCE, CsvPreference.TAB_PREFERENCE};
+
+		// The number of columns per format. A negative value indicates an inconsistent number of columns
+		int[] columns = new int[formats.length];
+
+		// The number of delimiters per format on the current line
+		int[] delimiters = new int[formats.length];
+
+		int lines = 0;
+
+		boolean quoted = false;
+		boolean blank = true;
+
+		for(int i = 0; i < length && lines < (1 + 10); i++){
+			char c = buffer[i];
+
+			if(c == '"'){
+				quoted = !quoted;
+			} else
+
+			if((c == '\n' || c == '\r') && !quoted){
+
+				if(!blank){
+					countColumns(columns, delimiters);
+
+					lines++;
+				}
+
+				blank = true;
+
+				continue;
+			} else
+
+			if(!quoted){
+
+				for(int j = 0; j < formats.length; j++){
+
+					if(c == (formats[j]).getDelimiterChar()){
+						delimiters[j]++;
+					}
+				}
+			}
+
+			blank = false;
+		}
+
+		// The last line is not terminated
+		if(!blank && complete && lines < (1 + 10)){
+			countColumns(columns, delimiters);
+		}
+
+		for(int j = 0; j < formats.length; j++){
+
+			if(columns[j] > 1){
+				return formats[j];
+			}
+		}
+
+		throw new IOException("Unrecognized CSV format");
+	}
+
+	static
+	private void countColumns(int[] columns, int[] delimiters){
+
+		for(int j = 0; j < columns.length; j++){
+
+			if(columns[j] == 0 || columns[j] == (delimiters[j] + 1)){
+				columns[j] = (delimiters[j] + 1);
+			} else
+
+			{
+				columns[j] = -1;
+			}
+
+			delimiters[j] = 0;
+		}
+	}
+}
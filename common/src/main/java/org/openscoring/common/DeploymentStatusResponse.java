@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) 2013 Villu Ruusmann
+ *
+ * This file is part of Openscoring
+ *
+ * Openscoring is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Openscoring is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Openscoring.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openscoring.common;
+
+public class DeploymentStatusResponse {
+
+	private String id = null;
+
+	private Status status = null;
+
+	private String message = null;
+
+
+	public DeploymentStatusResponse(){
+	}
+
+	public DeploymentStatusResponse(String id, Status status){
+		this(id, status, null);
+	}
+
+	public DeploymentStatusResponse(String id, Status status, String message){
+		setId(id);
+		setStatus(status);
+		setMessage(message);
+	}
+
+	public String getId(){
+		return this.id;
+	}
+
+	public void setId(String id){
+		this.id = id;
+	}
+
+	public Status getStatus(){
+		return this.status;
+	}
+
+	public void setStatus(Status status){
+		this.status = status;
+	}
+
+	public String getMessage(){
+		return this.message;
+	}
+
+	public void setMessage(String message){
+		this.message = message;
+	}
+
+	static
+	public enum Status {
+		/**
+		 * The model has been uploaded and is waiting for a deploy thread.
+		 */
+		PENDING,
+
+		/**
+		 * The model is being parsed and compiled.
+		 */
+		DEPLOYING,
+
+		/**
+		 * The model is serving.
+		 */
+		DEPLOYED,
+
+		/**
+		 * The model could not be deployed. The previous version of the model (if any) keeps serving.
+		 */
+		FAILED,
+		;
+	}
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright (c) 2014 Villu Ruusmann
+ *
+ * This file is part of Openscoring
+ *
+ * Openscoring is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Openscoring is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Openscoring.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openscoring.common;
+
+import java.util.*;
+
+public class TableEvaluationRequest {
+
+	private List<String> ids = null;
+
+	private List<String> columns = null;
+
+	private List<List<Object>> rows = null;
+
+
+	public List<String> getIds(){
+		return this.ids;
+	}
+
+	public void setIds(List<String> ids){
+		this.ids = ids;
+	}
+
+	public List<String> getColumns(){
+		return this.columns;
+	}
+
+	public void setColumns(List<String> columns){
+		this.columns = columns;
+	}
+
+	public List<List<Object>> getRows(){
+		return this.rows;
+	}
+
+	public void setRows(List<List<Object>> rows){
+		this.rows = rows;
+	}
+}
\ No newline at end of file
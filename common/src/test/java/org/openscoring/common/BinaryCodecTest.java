@@ -0,0 +1,339 @@
+/*
+ * Copyright (c) 2014 Villu Ruusmann
+ *
+ * This file is part of Openscoring
+ *
+ * Openscoring is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Openscoring is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Openscoring.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openscoring.common;
+
+import java.io.*;
+import java.util.*;
+
+import org.junit.*;
+
+import static org.junit.Assert.*;
+
+public class BinaryCodecTest {
+
+	@Test
+	public void roundTripRequests() throws Exception {
+		BinaryCodec codec = createCodec();
+
+		Map<String, Object> arguments = new LinkedHashMap<String, Object>();
+		arguments.put("Sepal.Length", 5.1d);
+		arguments.put("Sepal.Width", 3.5f);
+		arguments.put("Petal.Length", 14);
+		arguments.put("Petal.Width", 2L);
+		arguments.put("transaction", Arrays.asList("Cracker", "Water", null, true));
+
+		EvaluationRequest first = new EvaluationRequest("example-001");
+		first.setArguments(arguments);
+
+		Map<String, Object> sparseArguments = new LinkedHashMap<String, Object>();
+		sparseArguments.put("Sepal.Length", null);
+		sparseArguments.put("Petal.Width", "äöü");
+
+		EvaluationRequest second = new EvaluationRequest(null);
+		second.setArguments(sparseArguments);
+
+		List<EvaluationRequest> requests = Arrays.asList(first, second);
+
+		List<EvaluationRequest> result = codec.readRequests(new ByteArrayInputStream(writeRequests(codec, requests)));
+
+		assertEquals(requests.size(), result.size());
+
+		for(int i = 0; i < requests.size(); i++){
+			assertEquals((requests.get(i)).getId(), (result.get(i)).getId());
+			assertEquals((requests.get(i)).getArguments(), (result.get(i)).getArguments());
+		}
+	}
+
+	@Test
+	public void roundTripResponses() throws Exception {
+		BinaryCodec codec = createCodec();
+
+		Map<String, Object> result = new LinkedHashMap<String, Object>();
+		result.put("Species", "setosa");
+		result.put("Probability_setosa", 1.0d);
+		result.put("Node_Id", "2");
+
+		EvaluationResponse response = new EvaluationResponse("example-001");
+		response.setResult(result);
+
+		List<EvaluationResponse> responses = Collections.singletonList(response);
+
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+
+		codec.writeResponses(os, responses);
+
+		List<EvaluationResponse> decodedResponses = codec.readResponses(new ByteArrayInputStream(os.toByteArray()));
+
+		assertEquals(1, decodedResponses.size());
+		assertEquals("example-001", (decodedResponses.get(0)).getId());
+		assertEquals(result, (decodedResponses.get(0)).getResult());
+	}
+
+	@Test
+	public void consecutiveMessages() throws Exception {
+		BinaryCodec codec = createCodec();
+
+		EvaluationRequest request = new EvaluationRequest("example-001");
+		request.setArguments(Collections.singletonMap("Sepal.Length", 5.1d));
+
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+
+		codec.writeRequests(os, Collections.singletonList(request));
+		codec.writeRequests(os, Collections.<EvaluationRequest>emptyList());
+
+		InputStream is = new ByteArrayInputStream(os.toByteArray());
+
+		assertEquals(1, (codec.readRequests(is)).size());
+		assertEquals(0, (codec.readRequests(is)).size());
+		assertEquals(-1, is.read());
+	}
+
+	@Test
+	public void wireFormat() throws Exception {
+		BinaryCodec codec = new BinaryCodec(Arrays.asList("x"), Arrays.asList("y"));
+
+		EvaluationRequest request = new EvaluationRequest("a");
+		request.setArguments(Collections.singletonMap("x", 1));
+
+		byte[] bytes = writeRequests(codec, Collections.singletonList(request));
+
+		// Length prefix, version, dictionary hash, record count, id (string "a"), argument x (integer 1)
+		int dictionaryHash = (31 * Arrays.asList("x").hashCode()) + Arrays.asList("y").hashCode();
+
+		ByteArrayOutputStream expected = new ByteArrayOutputStream();
+
+		DataOutputStream output = new DataOutputStream(expected);
+		output.writeInt(1 + 4 + 4 + (1 + 4 + 1) + (1 + 4));
+		output.writeByte(1);
+		output.writeInt(dictionaryHash);
+		output.writeInt(1);
+		output.writeByte(2);
+		output.writeInt(1);
+		output.writeByte('a');
+		output.writeByte(3);
+		output.writeInt(1);
+		output.flush();
+
+		assertArrayEquals(expected.toByteArray(), bytes);
+	}
+
+	@Test
+	public void nestedList() throws Exception {
+		BinaryCodec codec = new BinaryCodec(Arrays.asList("x"), Arrays.asList("y"));
+
+		EvaluationRequest request = new EvaluationRequest("a");
+		request.setArguments(Collections.singletonMap("x", Arrays.asList(Arrays.asList("b"))));
+
+		try {
+			writeRequests(codec, Collections.singletonList(request));
+
+			fail();
+		} catch(IOException ioe){
+			// Ignored
+		}
+
+		int depth = 100000;
+
+		ByteArrayOutputStream payload = new ByteArrayOutputStream();
+
+		// Version, dictionary hash, record count, id (string "a"), argument x (list of list of list...)
+		DataOutputStream output = new DataOutputStream(payload);
+		output.writeByte(1);
+		output.writeInt((31 * Arrays.asList("x").hashCode()) + Arrays.asList("y").hashCode());
+		output.writeInt(1);
+		output.writeByte(2);
+		output.writeInt(1);
+		output.writeByte('a');
+
+		for(int i = 0; i < depth; i++){
+			output.writeByte(8);
+			output.writeInt(1);
+		}
+
+		output.writeByte(0);
+		output.flush();
+
+		ByteArrayOutputStream message = new ByteArrayOutputStream();
+
+		output = new DataOutputStream(message);
+		output.writeInt(payload.size());
+		payload.writeTo(output);
+		output.flush();
+
+		assertInvalid(codec, message.toByteArray());
+	}
+
+	@Test
+	public void dictionaryMismatch() throws Exception {
+		BinaryCodec codec = createCodec();
+
+		EvaluationRequest request = new EvaluationRequest("example-001");
+		request.setArguments(Collections.<String, Object>emptyMap());
+
+		byte[] bytes = writeRequests(codec, Collections.singletonList(request));
+
+		BinaryCodec otherCodec = new BinaryCodec(Arrays.asList("Sepal.Length"), Arrays.asList("Species"));
+
+		try {
+			otherCodec.readRequests(new ByteArrayInputStream(bytes));
+
+			fail();
+		} catch(IOException ioe){
+			// Ignored
+		}
+	}
+
+	@Test
+	public void truncatedMessage() throws Exception {
+		BinaryCodec codec = createCodec();
+
+		EvaluationRequest request = new EvaluationRequest("example-001");
+		request.setArguments(Collections.singletonMap("Sepal.Length", 5.1d));
+
+		byte[] bytes = writeRequests(codec, Collections.singletonList(request));
+
+		for(int length = 0; length < bytes.length; length++){
+
+			try {
+				codec.readRequests(new ByteArrayInputStream(Arrays.copyOf(bytes, length)));
+
+				fail();
+			} catch(EOFException eofe){
+				// Ignored
+			}
+		}
+	}
+
+	@Test
+	public void oversizedMessage() throws Exception {
+		BinaryCodec codec = new BinaryCodec(Arrays.asList("x"), Arrays.asList("y"), 32);
+
+		assertEquals(32, codec.getMaxMessageSize());
+
+		// The length prefix alone must be rejected, before the payload has been received
+		assertInvalid(codec, createMessage(33));
+		assertInvalid(codec, createMessage(Integer.MAX_VALUE));
+		assertInvalid(codec, createMessage(-1));
+
+		EvaluationRequest request = new EvaluationRequest("a");
+		request.setArguments(Collections.singletonMap("x", 1));
+
+		assertEquals(1, (codec.readRequests(new ByteArrayInputStream(writeRequests(codec, Collections.singletonList(request))))).size());
+
+		request.setArguments(Collections.singletonMap("x", "abcdefghijklmnopqrstuvwxyz"));
+
+		assertInvalid(codec, writeRequests(codec, Collections.singletonList(request)));
+	}
+
+	@Test
+	public void invalidLengths() throws Exception {
+		BinaryCodec codec = new BinaryCodec(Arrays.asList("x"), Arrays.asList("y"));
+
+		// Record count
+		assertInvalid(codec, createMessage(codec, Integer.MAX_VALUE));
+		assertInvalid(codec, createMessage(codec, -1));
+		assertInvalid(codec, createMessage(codec, 1, (byte)1));
+
+		// String length
+		assertInvalid(codec, createMessage(codec, 1, (byte)2, 0xff, 0xff, 0xff, 0xff, (byte)1));
+		assertInvalid(codec, createMessage(codec, 1, (byte)2, 0x7f, 0xff, 0xff, 0xff, (byte)1));
+
+		// List size
+		assertInvalid(codec, createMessage(codec, 1, (byte)1, (byte)8, 0xff, 0xff, 0xff, 0xff));
+		assertInvalid(codec, createMessage(codec, 1, (byte)1, (byte)8, 0x7f, 0xff, 0xff, 0xff));
+	}
+
+	@Test
+	public void create(){
+		SummaryResponse summary = new SummaryResponse();
+		summary.setActiveFields(Arrays.asList("item"));
+		summary.setGroupFields(Arrays.asList("transaction"));
+		summary.setTargetFields(Collections.<String>emptyList());
+		summary.setOutputFields(Arrays.asList("Rule"));
+
+		BinaryCodec codec = BinaryCodec.create(summary);
+
+		assertEquals(Arrays.asList("item", "transaction"), codec.getArgumentFields());
+		assertEquals(Arrays.asList("Rule"), codec.getResultFields());
+	}
+
+	static
+	private BinaryCodec createCodec(){
+		List<String> argumentFields = Arrays.asList("Sepal.Length", "Sepal.Width", "Petal.Length", "Petal.Width", "transaction");
+		List<String> resultFields = Arrays.asList("Species", "Probability_setosa", "Probability_versicolor", "Node_Id");
+
+		return new BinaryCodec(argumentFields, resultFields);
+	}
+
+	static
+	private void assertInvalid(BinaryCodec codec, byte[] bytes){
+
+		try {
+			codec.readRequests(new ByteArrayInputStream(bytes));
+
+			fail();
+		} catch(IOException ioe){
+			// Ignored
+		}
+	}
+
+	static
+	private byte[] createMessage(int length) throws IOException {
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+
+		DataOutputStream output = new DataOutputStream(os);
+		output.writeInt(length);
+		output.flush();
+
+		return os.toByteArray();
+	}
+
+	/**
+	 * @param content The raw bytes that follow the record count in the payload.
+	 */
+	static
+	private byte[] createMessage(BinaryCodec codec, int count, int... content) throws IOException {
+		byte[] header = writeRequests(codec, Collections.<EvaluationRequest>emptyList());
+
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+
+		DataOutputStream output = new DataOutputStream(os);
+		output.writeInt(header.length - 4 + content.length);
+		// Version and dictionary hash
+		output.write(header, 4, header.length - 4 - 4);
+		output.writeInt(count);
+
+		for(int value : content){
+			output.writeByte(value);
+		}
+
+		output.flush();
+
+		return os.toByteArray();
+	}
+
+	static
+	private byte[] writeRequests(BinaryCodec codec, List<EvaluationRequest> requests) throws IOException {
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+
+		codec.writeRequests(os, requests);
+
+		return os.toByteArray();
+	}
+}
@@ -0,0 +1,196 @@
+/*
+ * Copyright (c) 2014 Villu Ruusmann
+ *
+ * This file is part of Openscoring
+ *
+ * Openscoring is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Openscoring is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Openscoring.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openscoring.server;
+
+import java.io.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+import javax.servlet.*;
+import javax.servlet.http.*;
+
+/**
+ * Performs blocking reads of request bodies on platform threads.
+ *
+ * Jetty waits for request content while holding a monitor, which pins a virtual thread to its carrier thread.
+ * When all carrier threads are pinned this way, the tasks that would deliver the content cannot run, and the server stops making progress.
+ * Reads of content that has already arrived do not block, and stay on the request thread.
+ */
+public class BlockingReadFilter implements Filter {
+
+	private Filter filter = null;
+
+	private ExecutorService executor = null;
+
+
+	/**
+	 * @param filter The filter that handles requests.
+	 */
+	public BlockingReadFilter(Filter filter){
+		this.filter = filter;
+
+		ThreadFactory threadFactory = new ThreadFactory(){
+
+			private AtomicInteger count = new AtomicInteger(0);
+
+
+			@Override
+			public Thread newThread(Runnable runnable){
+				Thread thread = new Thread(runnable, "request-reader-" + this.count.getAndIncrement());
+				thread.setDaemon(true);
+
+				return thread;
+			}
+		};
+
+		// The number of threads follows the number of reads that are waiting for content
+		this.executor = Executors.newCachedThreadPool(threadFactory);
+	}
+
+	@Override
+	public void init(FilterConfig config) throws ServletException {
+		this.filter.init(config);
+	}
+
+	@Override
+	public void doFilter(ServletRequest servletRequest, ServletResponse servletResponse, FilterChain chain) throws IOException, ServletException {
+		HttpServletRequest request = (HttpServletRequest)servletRequest;
+
+		this.filter.doFilter(new BlockingReadRequest(request, this.executor), servletResponse, chain);
+	}
+
+	@Override
+	public void destroy(){
+		this.filter.destroy();
+
+		this.executor.shutdown();
+	}
+
+	static
+	private class BlockingReadRequest extends HttpServletRequestWrapper {
+
+		private ExecutorService executor = null;
+
+		private ServletInputStream inputStream = null;
+
+		private BufferedReader reader = null;
+
+
+		public BlockingReadRequest(HttpServletRequest request, ExecutorService executor){
+			super(request);
+
+			this.executor = executor;
+		}
+
+		@Override
+		public ServletInputStream getInputStream() throws IOException {
+
+			if(this.reader != null){
+				throw new IllegalStateException();
+			} // End if
+
+			if(this.inputStream == null){
+				final
+				ServletInputStream is = super.getInputStream();
+
+				final
+				ExecutorService executor = this.executor;
+
+				this.inputStream = new ServletInputStream(){
+
+					@Override
+					public int read() throws IOException {
+						byte[] buffer = new byte[1];
+
+						int count = read(buffer, 0, 1);
+						if(count < 1){
+							return -1;
+						}
+
+						return (buffer[0] & 0xff);
+					}
+
+					@Override
+					public int read(final byte[] buffer, final int offset, final int length) throws IOException {
+
+						if(length == 0 || is.available() > 0){
+							return is.read(buffer, offset, length);
+						}
+
+						Callable<Integer> task = new Callable<Integer>(){
+
+							@Override
+							public Integer call() throws IOException {
+								return is.read(buffer, offset, length);
+							}
+						};
+
+						Future<Integer> future = executor.submit(task);
+
+						try {
+							return future.get();
+						} catch(InterruptedException ie){
+							future.cancel(true);
+
+							Thread.currentThread().interrupt();
+
+							throw new InterruptedIOException();
+						} catch(ExecutionException ee){
+							Throwable cause = ee.getCause();
+
+							if(cause instanceof IOException){
+								throw (IOException)cause;
+							} else
+
+							if(cause instanceof RuntimeException){
+								throw (RuntimeException)cause;
+							}
+
+							throw new IOException(cause);
+						}
+					}
+
+					@Override
+					public int available() throws IOException {
+						return is.available();
+					}
+
+					@Override
+					public void close() throws IOException {
+						is.close();
+					}
+				};
+			}
+
+			return this.inputStream;
+		}
+
+		@Override
+		public BufferedReader getReader() throws IOException {
+
+			if(this.reader == null){
+				String characterEncoding = getCharacterEncoding();
+
+				this.reader = new BufferedReader(new InputStreamReader(getInputStream(), characterEncoding != null ? characterEncoding : "ISO-8859-1"));
+			}
+
+			return this.reader;
+		}
+	}
+}
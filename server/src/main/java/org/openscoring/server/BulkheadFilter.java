@@ -0,0 +1,278 @@
+/*
+ * Copyright (c) 2014 Villu Ruusmann
+ *
+ * This file is part of Openscoring
+ *
+ * Openscoring is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Openscoring is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Openscoring.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openscoring.server;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.servlet.*;
+import javax.servlet.http.*;
+
+import com.google.common.util.concurrent.*;
+
+import com.codahale.metrics.*;
+import com.codahale.metrics.Timer;
+
+/**
+ * Separates requests into independently sized lanes, so that heavy bulk evaluation and model management requests cannot starve latency sensitive realtime evaluation requests.
+ *
+ * Every lane has a bounded pool of worker threads. When the queue of a lane is full, requests are rejected straight away with "503 Service Unavailable", instead of letting them pile up.
+ * Requests for lanes that do not have a pool are handled on Jetty request threads.
+ * So are health checks and metrics scrapes, which must keep answering while the lanes are saturated.
+ */
+public class BulkheadFilter implements Filter {
+
+	private Filter filter = null;
+
+	private int retryAfter = 0;
+
+	private Map<Lane, LaneExecutor> executors = new EnumMap<Lane, LaneExecutor>(Lane.class);
+
+
+	/**
+	 * @param filter The filter that handles requests. Jetty filter chains cannot be invoked outside of Jetty request threads, so the filter must be wrapped rather than chained.
+	 */
+	public BulkheadFilter(Filter filter, int retryAfter){
+		this.filter = filter;
+		this.retryAfter = retryAfter;
+	}
+
+	public boolean isEmpty(){
+		return this.executors.isEmpty();
+	}
+
+	public void addLane(MetricRegistry metrics, Lane lane, int threads, int queueSize, ThreadFactory threadFactory){
+		this.executors.put(lane, new LaneExecutor(metrics, lane, threads, queueSize, threadFactory));
+	}
+
+	@Override
+	public void init(FilterConfig config) throws ServletException {
+		this.filter.init(config);
+	}
+
+	@Override
+	public void doFilter(ServletRequest servletRequest, ServletResponse servletResponse, FilterChain chain) throws IOException, ServletException {
+		HttpServletRequest request = (HttpServletRequest)servletRequest;
+
+		Lane lane = Lane.classify(request);
+
+		LaneExecutor executor = (lane != null ? this.executors.get(lane) : null);
+		if(executor == null){
+			this.filter.doFilter(servletRequest, servletResponse, chain);
+
+			return;
+		}
+
+		final
+		AsyncContext asyncContext = request.startAsync();
+
+		// Jetty resets the path information of the request when the request thread leaves the servlet handler
+		final
+		HttpServletRequest asyncRequest = new RequestSnapshot(request);
+
+		// Requests that have been accepted are always run to completion
+		asyncContext.setTimeout(0);
+
+		final
+		Timer.Context waitContext = executor.queueWait.time();
+
+		Runnable task = new Runnable(){
+
+			@Override
+			public void run(){
+				waitContext.stop();
+
+				HttpServletResponse response = (HttpServletResponse)asyncContext.getResponse();
+
+				try {
+					BulkheadFilter.this.filter.doFilter(asyncRequest, response, BulkheadFilter.NOT_FOUND);
+				} catch(Exception e){
+					logger.log(Level.SEVERE, "Failed to process request " + asyncRequest.getMethod() + " " + asyncRequest.getRequestURI(), e);
+
+					try {
+						if(!response.isCommitted()){
+							response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+						}
+					} catch(IOException ioe){
+						// Ignored
+					}
+				} finally {
+					asyncContext.complete();
+				}
+			}
+		};
+
+		try {
+			executor.execute(task);
+		} catch(RejectedExecutionException ree){
+			executor.rejections.mark();
+
+			HttpServletResponse response = (HttpServletResponse)asyncContext.getResponse();
+			response.setHeader("Retry-After", String.valueOf(this.retryAfter));
+			response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+
+			asyncContext.complete();
+		}
+	}
+
+	@Override
+	public void destroy(){
+		Collection<LaneExecutor> executors = this.executors.values();
+		for(LaneExecutor executor : executors){
+			executor.shutdown();
+		}
+
+		this.filter.destroy();
+	}
+
+	static
+	public enum Lane {
+		/**
+		 * Single record evaluation.
+		 */
+		REALTIME,
+
+		/**
+		 * Batch, table and CSV evaluation.
+		 */
+		BULK,
+
+		/**
+		 * Everything else, including model deployment, undeployment and summaries.
+		 */
+		ADMIN,
+		;
+
+		/**
+		 * @return The lane, or <code>null</code> if the request bypasses the bulkhead.
+		 */
+		static
+		public Lane classify(HttpServletRequest request){
+			String path = (request.getRequestURI()).substring((request.getContextPath()).length());
+
+			// Liveness and readiness probes, and metrics scrapes
+			if(isPath(path, "/health") || isPath(path, "/metrics")){
+				return null;
+			}
+
+			// Evaluation requests are POST requests to "/model/{id}" and "/model/{id}/{mode}"
+			if(("POST").equals(request.getMethod()) && path.startsWith("/model/")){
+				int slash = path.indexOf('/', "/model/".length());
+
+				return (slash < 0 ? Lane.REALTIME : Lane.BULK);
+			}
+
+			return Lane.ADMIN;
+		}
+
+		static
+		private boolean isPath(String path, String prefix){
+			return path.equals(prefix) || path.startsWith(prefix + "/");
+		}
+	}
+
+	static
+	private class LaneExecutor extends ThreadPoolExecutor {
+
+		private Timer queueWait = null;
+
+		private Meter rejections = null;
+
+
+		public LaneExecutor(MetricRegistry metrics, Lane lane, int threads, int queueSize, ThreadFactory backingThreadFactory){
+			super(threads, threads, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(queueSize), createThreadFactory(lane, backingThreadFactory), new ThreadPoolExecutor.AbortPolicy());
+
+			final
+			BlockingQueue<Runnable> queue = getQueue();
+
+			Gauge<Integer> queueDepth = new Gauge<Integer>(){
+
+				@Override
+				public Integer getValue(){
+					return queue.size();
+				}
+			};
+
+			String name = (lane.name()).toLowerCase(Locale.ROOT);
+
+			metrics.register(MetricRegistry.name(BulkheadFilter.class, name, "queueDepth"), queueDepth);
+
+			this.queueWait = metrics.timer(MetricRegistry.name(BulkheadFilter.class, name, "queueWait"));
+			this.rejections = metrics.meter(MetricRegistry.name(BulkheadFilter.class, name, "rejections"));
+		}
+
+		static
+		private ThreadFactory createThreadFactory(Lane lane, ThreadFactory backingThreadFactory){
+			ThreadFactory threadFactory = new ThreadFactoryBuilder()
+				.setThreadFactory(backingThreadFactory)
+				.setNameFormat((lane.name()).toLowerCase(Locale.ROOT) + "-%d")
+				.setDaemon(true)
+				.build();
+
+			return threadFactory;
+		}
+	}
+
+	static
+	private class RequestSnapshot extends HttpServletRequestWrapper {
+
+		private String contextPath = null;
+
+		private String servletPath = null;
+
+		private String pathInfo = null;
+
+
+		public RequestSnapshot(HttpServletRequest request){
+			super(request);
+
+			this.contextPath = request.getContextPath();
+			this.servletPath = request.getServletPath();
+			this.pathInfo = request.getPathInfo();
+		}
+
+		@Override
+		public String getContextPath(){
+			return this.contextPath;
+		}
+
+		@Override
+		public String getServletPath(){
+			return this.servletPath;
+		}
+
+		@Override
+		public String getPathInfo(){
+			return this.pathInfo;
+		}
+	}
+
+	private static final FilterChain NOT_FOUND = new FilterChain(){
+
+		@Override
+		public void doFilter(ServletRequest request, ServletResponse response) throws IOException {
+			((HttpServletResponse)response).sendError(HttpServletResponse.SC_NOT_FOUND);
+		}
+	};
+
+	private static final Logger logger = Logger.getLogger(BulkheadFilter.class.getName());
+}
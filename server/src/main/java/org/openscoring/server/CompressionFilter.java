@@ -0,0 +1,769 @@
+/*
+ * Copyright (c) 2014 Villu Ruusmann
+ *
+ * This file is part of Openscoring
+ *
+ * Openscoring is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Openscoring is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Openscoring.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openscoring.server;
+
+import java.io.*;
+import java.lang.reflect.*;
+import java.util.*;
+import java.util.zip.*;
+
+import javax.servlet.*;
+import javax.servlet.http.*;
+
+import org.openscoring.service.*;
+
+/**
+ * Decompresses gzip and deflate encoded request bodies, and compresses response bodies according to the "Accept-Encoding" request header.
+ *
+ * Bodies are (de)compressed while they are being streamed, so that CSV and JSON parsers and formatters work on plain streams.
+ * Responses that are shorter than the minimum size are sent uncompressed, because compression would not pay for itself.
+ * Requests whose decompressed body exceeds the maximum size are rejected with status 413, so that a small compressed body cannot exhaust the heap.
+ */
+public class CompressionFilter implements Filter {
+
+	private Filter filter = null;
+
+	private int level = Deflater.BEST_SPEED;
+
+	private int minSize = 0;
+
+	private long maxInflatedSize = 0;
+
+
+	/**
+	 * @param filter The filter that handles requests. It is wrapped rather than chained, so that the {@link BulkheadFilter} can run it outside of Jetty request threads.
+	 * @param level The compression level of responses. If 0, responses are not compressed.
+	 * @param maxInflatedSize The maximum size in bytes of a decompressed request body. If 0, the size is not limited.
+	 */
+	public CompressionFilter(Filter filter, int level, int minSize, long maxInflatedSize){
+
+		if(level < Deflater.NO_COMPRESSION || level > Deflater.BEST_COMPRESSION || minSize < 0 || maxInflatedSize < 0){
+			throw new IllegalArgumentException();
+		}
+
+		this.filter = filter;
+		this.level = level;
+		this.minSize = minSize;
+		this.maxInflatedSize = maxInflatedSize;
+	}
+
+	@Override
+	public void init(FilterConfig config) throws ServletException {
+		this.filter.init(config);
+	}
+
+	@Override
+	public void doFilter(ServletRequest servletRequest, ServletResponse servletResponse, FilterChain chain) throws IOException, ServletException {
+		HttpServletRequest request = (HttpServletRequest)servletRequest;
+		HttpServletResponse response = (HttpServletResponse)servletResponse;
+
+		DecompressingRequest decompressingRequest = null;
+
+		String contentEncoding = request.getHeader("Content-Encoding");
+		if(contentEncoding != null){
+			Encoding encoding = Encoding.forName(contentEncoding);
+
+			if(encoding == null){
+				response.sendError(HttpServletResponse.SC_UNSUPPORTED_MEDIA_TYPE);
+
+				return;
+			} // End if
+
+			if(encoding != Encoding.IDENTITY){
+				decompressingRequest = new DecompressingRequest(request, encoding, this.maxInflatedSize);
+
+				request = decompressingRequest;
+			}
+		}
+
+		CompressingResponse compressingResponse = null;
+
+		Encoding acceptEncoding = (this.level > Deflater.NO_COMPRESSION ? Encoding.negotiate(request.getHeader("Accept-Encoding")) : Encoding.IDENTITY);
+		if(acceptEncoding != Encoding.IDENTITY){
+			compressingResponse = new CompressingResponse(response, acceptEncoding, this.level, this.minSize);
+		}
+
+		// The handler may turn the failed read into an error response of its own, or let the exception propagate
+		try {
+			this.filter.doFilter(request, (compressingResponse != null ? compressingResponse : response), chain);
+		} catch(IOException ioe){
+
+			if(!isTooLarge(decompressingRequest, response)){
+				throw ioe;
+			}
+		} catch(ServletException se){
+
+			if(!isTooLarge(decompressingRequest, response)){
+				throw se;
+			}
+		} catch(RuntimeException re){
+
+			if(!isTooLarge(decompressingRequest, response)){
+				throw re;
+			}
+		} finally {
+
+			if(compressingResponse != null){
+
+				if(isTooLarge(decompressingRequest, response)){
+					compressingResponse.discard();
+				} else
+
+				{
+					compressingResponse.finish();
+				}
+			}
+		}
+
+		if(isTooLarge(decompressingRequest, response)){
+			response.reset();
+			response.sendError(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE);
+		}
+	}
+
+	@Override
+	public void destroy(){
+		this.filter.destroy();
+	}
+
+	/**
+	 * @return <code>true</code> if the request body exceeded the maximum size, and the response can still be replaced.
+	 */
+	static
+	private boolean isTooLarge(DecompressingRequest request, HttpServletResponse response){
+		return (request != null && request.isTooLarge() && !response.isCommitted());
+	}
+
+	static
+	private enum Encoding {
+		IDENTITY("identity"),
+		GZIP("gzip"),
+		DEFLATE("deflate"),
+		;
+
+		private String value = null;
+
+
+		private Encoding(String value){
+			this.value = value;
+		}
+
+		public String value(){
+			return this.value;
+		}
+
+		public InputStream decode(InputStream is) throws IOException {
+
+			switch(this){
+				case GZIP:
+					return new GZIPInputStream(is);
+				case DEFLATE:
+					return new InflaterInputStream(is);
+				default:
+					return is;
+			}
+		}
+
+		static
+		public Encoding forName(String value){
+			value = (value.trim()).toLowerCase(Locale.ROOT);
+
+			if(("").equals(value) || ("identity").equals(value)){
+				return IDENTITY;
+			} else
+
+			if(("gzip").equals(value) || ("x-gzip").equals(value)){
+				return GZIP;
+			} else
+
+			if(("deflate").equals(value)){
+				return DEFLATE;
+			}
+
+			return null;
+		}
+
+		/**
+		 * Selects gzip over deflate, unless the client prefers deflate.
+		 */
+		static
+		public Encoding negotiate(String acceptEncoding){
+
+			if(acceptEncoding == null){
+				return IDENTITY;
+			}
+
+			Encoding result = IDENTITY;
+
+			double resultQuality = 0d;
+
+			String[] values = acceptEncoding.split(",");
+			for(String value : values){
+				double quality = 1d;
+
+				int semicolon = value.indexOf(';');
+				if(semicolon > -1){
+					String parameter = (value.substring(semicolon + 1)).trim();
+
+					if(parameter.startsWith("q=")){
+
+						try {
+							quality = Double.parseDouble(parameter.substring("q=".length()));
+						} catch(NumberFormatException nfe){
+							quality = 0d;
+						}
+					}
+
+					value = value.substring(0, semicolon);
+				}
+
+				Encoding encoding = forName(value);
+				if(encoding == null || encoding == IDENTITY){
+					continue;
+				} // End if
+
+				if(quality > resultQuality || (quality == resultQuality && encoding == GZIP)){
+					result = encoding;
+					resultQuality = quality;
+				}
+			}
+
+			return result;
+		}
+	}
+
+	static
+	private class DecompressingRequest extends HttpServletRequestWrapper {
+
+		private Encoding encoding = null;
+
+		private long maxSize = 0;
+
+		private long size = 0;
+
+		private boolean tooLarge = false;
+
+		private ServletInputStream inputStream = null;
+
+		private BufferedReader reader = null;
+
+
+		public DecompressingRequest(HttpServletRequest request, Encoding encoding, long maxSize){
+			super(request);
+
+			this.encoding = encoding;
+			this.maxSize = maxSize;
+		}
+
+		public boolean isTooLarge(){
+			return this.tooLarge;
+		}
+
+		@Override
+		public String getHeader(String name){
+
+			if(("Content-Encoding").equalsIgnoreCase(name) || ("Content-Length").equalsIgnoreCase(name)){
+				return null;
+			}
+
+			return super.getHeader(name);
+		}
+
+		@Override
+		public Enumeration<String> getHeaders(String name){
+
+			if(("Content-Encoding").equalsIgnoreCase(name) || ("Content-Length").equalsIgnoreCase(name)){
+				return Collections.enumeration(Collections.<String>emptyList());
+			}
+
+			return super.getHeaders(name);
+		}
+
+		@Override
+		public int getContentLength(){
+			return -1;
+		}
+
+		@Override
+		public ServletInputStream getInputStream() throws IOException {
+
+			if(this.reader != null){
+				throw new IllegalStateException();
+			} // End if
+
+			if(this.inputStream == null){
+				final
+				InputStream is = this.encoding.decode(super.getInputStream());
+
+				this.inputStream = new ServletInputStream(){
+
+					@Override
+					public int read() throws IOException {
+						int b = is.read();
+
+						if(b > -1){
+							count(1);
+						}
+
+						return b;
+					}
+
+					@Override
+					public int read(byte[] buffer, int offset, int length) throws IOException {
+						int count = is.read(buffer, offset, length);
+
+						if(count > 0){
+							count(count);
+						}
+
+						return count;
+					}
+
+					@Override
+					public int available() throws IOException {
+						return is.available();
+					}
+
+					@Override
+					public void close() throws IOException {
+						is.close();
+					}
+				};
+			}
+
+			return this.inputStream;
+		}
+
+		@Override
+		public BufferedReader getReader() throws IOException {
+
+			if(this.reader == null){
+				String characterEncoding = getCharacterEncoding();
+
+				this.reader = new BufferedReader(new InputStreamReader(getInputStream(), characterEncoding != null ? characterEncoding : "ISO-8859-1"));
+			}
+
+			return this.reader;
+		}
+
+		private void count(int length) throws IOException {
+
+			if(this.maxSize <= 0){
+				return;
+			}
+
+			this.size += length;
+
+			if(this.size > this.maxSize){
+				this.tooLarge = true;
+
+				throw new IOException("Decompressed request body exceeds " + this.maxSize + " bytes");
+			}
+		}
+	}
+
+	static
+	private class CompressingResponse extends HttpServletResponseWrapper {
+
+		private CompressingOutputStream outputStream = null;
+
+		private PrintWriter writer = null;
+
+
+		public CompressingResponse(HttpServletResponse response, Encoding encoding, int level, int minSize){
+			super(response);
+
+			this.outputStream = new CompressingOutputStream(response, encoding, level, minSize);
+		}
+
+		@Override
+		public void setContentLength(int contentLength){
+			this.outputStream.setContentLength(contentLength);
+		}
+
+		@Override
+		public void setHeader(String name, String value){
+
+			if(("Content-Length").equalsIgnoreCase(name)){
+				this.outputStream.setContentLength(Integer.parseInt(value));
+
+				return;
+			}
+
+			super.setHeader(name, value);
+		}
+
+		@Override
+		public void addHeader(String name, String value){
+
+			if(("Content-Length").equalsIgnoreCase(name)){
+				this.outputStream.setContentLength(Integer.parseInt(value));
+
+				return;
+			}
+
+			super.addHeader(name, value);
+		}
+
+		@Override
+		public void setIntHeader(String name, int value){
+
+			if(("Content-Length").equalsIgnoreCase(name)){
+				this.outputStream.setContentLength(value);
+
+				return;
+			}
+
+			super.setIntHeader(name, value);
+		}
+
+		@Override
+		public void addIntHeader(String name, int value){
+
+			if(("Content-Length").equalsIgnoreCase(name)){
+				this.outputStream.setContentLength(value);
+
+				return;
+			}
+
+			super.addIntHeader(name, value);
+		}
+
+		@Override
+		public ServletOutputStream getOutputStream(){
+
+			if(this.writer != null){
+				throw new IllegalStateException();
+			}
+
+			return this.outputStream;
+		}
+
+		@Override
+		public PrintWriter getWriter() throws IOException {
+
+			if(this.writer == null){
+				this.writer = new PrintWriter(new OutputStreamWriter(this.outputStream, getCharacterEncoding()));
+			}
+
+			return this.writer;
+		}
+
+		@Override
+		public void flushBuffer() throws IOException {
+
+			if(this.writer != null){
+				this.writer.flush();
+			}
+
+			this.outputStream.flush();
+		}
+
+		public void finish() throws IOException {
+
+			if(this.writer != null){
+				this.writer.flush();
+			}
+
+			this.outputStream.finish();
+		}
+
+		public void discard(){
+			this.outputStream.discard();
+		}
+	}
+
+	/**
+	 * Buffers the beginning of the response body until it exceeds the minimum size.
+	 * After that, the response is committed to being compressed.
+	 *
+	 * <p>
+	 * A response that is flushed while it is still buffered is sent uncompressed, because the client may be waiting for the content so far.
+	 * Streaming responses (NDJSON) are always sent uncompressed, because every record must reach the client as soon as it has been flushed.
+	 * Flushing a compressed response sync-flushes the deflater, where the runtime supports it (Java 7 and newer).
+	 * </p>
+	 */
+	static
+	private class CompressingOutputStream extends ServletOutputStream {
+
+		private HttpServletResponse response = null;
+
+		private Encoding encoding = null;
+
+		private int level = 0;
+
+		private int minSize = 0;
+
+		private ByteArrayOutputStream buffer = null;
+
+		private int contentLength = -1;
+
+		private Deflater deflater = null;
+
+		private DeflaterOutputStream deflaterOs = null;
+
+		private OutputStream os = null;
+
+		private boolean finished = false;
+
+
+		public CompressingOutputStream(HttpServletResponse response, Encoding encoding, int level, int minSize){
+			this.response = response;
+			this.encoding = encoding;
+			this.level = level;
+			this.minSize = minSize;
+			this.buffer = new ByteArrayOutputStream(Math.max(minSize, 32));
+		}
+
+		public void setContentLength(int contentLength){
+			this.contentLength = contentLength;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[]{(byte)b}, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] bytes, int offset, int length) throws IOException {
+
+			if(this.finished){
+				throw new IOException("Stream closed");
+			} // End if
+
+			if(this.os == null){
+
+				if(this.buffer.size() + length <= this.minSize){
+					this.buffer.write(bytes, offset, length);
+
+					return;
+				} // End if
+
+				if(isCompressible()){
+					startCompression();
+				} else
+
+				{
+					startIdentity();
+				}
+			}
+
+			this.os.write(bytes, offset, length);
+		}
+
+		@Override
+		public void flush() throws IOException {
+
+			if(this.finished){
+				return;
+			} // End if
+
+			if(this.os == null){
+
+				// Jersey flushes every response, even if it has no body
+				if(this.buffer.size() == 0){
+					return;
+				}
+
+				startIdentity();
+			}
+
+			this.os.flush();
+		}
+
+		@Override
+		public void close() throws IOException {
+			finish();
+
+			(this.response.getOutputStream()).close();
+		}
+
+		public void finish() throws IOException {
+
+			if(this.finished){
+				return;
+			}
+
+			this.finished = true;
+
+			if(this.os == null){
+				// Too short to compress
+				startIdentity();
+			} // End if
+
+			if(this.deflaterOs != null){
+
+				try {
+					this.deflaterOs.finish();
+				} finally {
+					this.deflater.end();
+				}
+			}
+
+			(this.response.getOutputStream()).flush();
+		}
+
+		/**
+		 * Drops the response body, so that the response can be replaced with an error.
+		 */
+		public void discard(){
+
+			if(this.finished){
+				return;
+			}
+
+			this.finished = true;
+
+			if(this.deflater != null){
+				this.deflater.end();
+			}
+
+			this.buffer = null;
+		}
+
+		private boolean isCompressible(){
+			String contentType = this.response.getContentType();
+
+			if(contentType != null && (contentType.toLowerCase(Locale.ROOT)).startsWith(ModelService.APPLICATION_NDJSON)){
+				return false;
+			}
+
+			return true;
+		}
+
+		private void startIdentity() throws IOException {
+
+			if(this.contentLength > -1){
+				this.response.setContentLength(this.contentLength);
+			}
+
+			this.os = this.response.getOutputStream();
+
+			this.buffer.writeTo(this.os);
+			this.buffer = null;
+		}
+
+		private void startCompression() throws IOException {
+			this.response.addHeader("Vary", "Accept-Encoding");
+			this.response.setHeader("Content-Encoding", (this.encoding).value());
+
+			OutputStream os = this.response.getOutputStream();
+
+			switch(this.encoding){
+				case GZIP:
+					{
+						GZIPStream gzipStream = new GZIPStream(os, this.level);
+
+						this.deflater = gzipStream.getDeflater();
+						this.deflaterOs = gzipStream;
+					}
+					break;
+				case DEFLATE:
+					this.deflater = new Deflater(this.level);
+					this.deflaterOs = new DeflateStream(os, this.deflater);
+					break;
+				default:
+					throw new IllegalStateException();
+			}
+
+			this.os = this.deflaterOs;
+
+			this.buffer.writeTo(this.os);
+			this.buffer = null;
+		}
+	}
+
+	static
+	private class GZIPStream extends GZIPOutputStream {
+
+		public GZIPStream(OutputStream os, int level) throws IOException {
+			super(os, 8 * 1024);
+
+			// The header has been written, but nothing has been deflated yet
+			this.def.setLevel(level);
+		}
+
+		public Deflater getDeflater(){
+			return this.def;
+		}
+
+		@Override
+		public void flush() throws IOException {
+			syncFlush(this.def, this.buf, this.out);
+		}
+	}
+
+	static
+	private class DeflateStream extends DeflaterOutputStream {
+
+		public DeflateStream(OutputStream os, Deflater deflater){
+			super(os, deflater, 8 * 1024);
+		}
+
+		@Override
+		public void flush() throws IOException {
+			syncFlush(this.def, this.buf, this.out);
+		}
+	}
+
+	/**
+	 * Emits everything that has been written to the deflater so far, so that the client can decompress it right away.
+	 */
+	static
+	private void syncFlush(Deflater deflater, byte[] buffer, OutputStream os) throws IOException {
+
+		if(CompressionFilter.DEFLATE_SYNC_FLUSH != null && !deflater.finished()){
+
+			while(true){
+				int length;
+
+				try {
+					length = (Integer)CompressionFilter.DEFLATE_SYNC_FLUSH.invoke(deflater, buffer, 0, buffer.length, CompressionFilter.SYNC_FLUSH);
+				} catch(Exception e){
+					throw new IOException("Cannot flush deflater", e);
+				}
+
+				if(length > 0){
+					os.write(buffer, 0, length);
+				} // End if
+
+				if(length < buffer.length){
+					break;
+				}
+			}
+		}
+
+		os.flush();
+	}
+
+	static
+	private Method getDeflateMethod(){
+
+		try {
+			return Deflater.class.getMethod("deflate", byte[].class, int.class, int.class, int.class);
+		} catch(NoSuchMethodException nsme){
+			return null;
+		}
+	}
+
+	// Deflater#deflate(byte[], int, int, int) and Deflater#SYNC_FLUSH are available on Java 7 and newer
+	private static final Method DEFLATE_SYNC_FLUSH = getDeflateMethod();
+
+	private static final int SYNC_FLUSH = 2;
+}
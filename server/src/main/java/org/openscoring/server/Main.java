@@ -28,6 +28,7 @@ import javax.servlet.*;
 import org.openscoring.service.*;
 
 import com.google.common.collect.*;
+import com.google.common.io.*;
 import com.google.inject.*;
 import com.google.inject.servlet.*;
 
@@ -44,6 +45,7 @@ import com.beust.jcommander.*;
 import com.codahale.metrics.*;
 import com.codahale.metrics.jersey.*;
 import com.codahale.metrics.jetty9.*;
+import com.codahale.metrics.jvm.*;
 
 public class Main {
 
@@ -68,16 +70,178 @@ public class Main {
 
 	@Parameter (
 		names = {"--max-threads"},
-		description = "The maximum number of threads in the threadpool."
+		description = "The maximum number of threads in the threadpool. Ignored when virtual threads are enabled."
 	)
 	private int maxThreads = 1;
 
 	@Parameter (
 		names = {"--min-threads"},
-		description = "The minimum number of threads in the threadpool."
+		description = "The minimum number of threads in the threadpool. Ignored when virtual threads are enabled."
 	)
 	private int minThreads = 1;
 
+	@Parameter (
+		names = {"--virtual-threads"},
+		description = "Run every request on a virtual thread of its own, and run scoring on virtual threads. Requires Java 21 or newer."
+	)
+	private boolean virtualThreads = false;
+
+	@Parameter (
+		names = {"--realtime-threads"},
+		description = "The number of worker threads for single record evaluation requests. 0 handles them on request threads."
+	)
+	private int realtimeThreads = 0;
+
+	@Parameter (
+		names = {"--realtime-queue-size"},
+		description = "The maximum number of single record evaluation requests that wait for a worker thread. Further requests are rejected."
+	)
+	private int realtimeQueueSize = 100;
+
+	@Parameter (
+		names = {"--bulk-threads"},
+		description = "The number of worker threads for batch, table and CSV evaluation requests. 0 handles them on request threads."
+	)
+	private int bulkThreads = 0;
+
+	@Parameter (
+		names = {"--bulk-queue-size"},
+		description = "The maximum number of batch, table and CSV evaluation requests that wait for a worker thread. Further requests are rejected."
+	)
+	private int bulkQueueSize = 10;
+
+	@Parameter (
+		names = {"--admin-threads"},
+		description = "The number of worker threads for model management requests. 0 handles them on request threads."
+	)
+	private int adminThreads = 0;
+
+	@Parameter (
+		names = {"--admin-queue-size"},
+		description = "The maximum number of model management requests that wait for a worker thread. Further requests are rejected."
+	)
+	private int adminQueueSize = 10;
+
+	@Parameter (
+		names = {"--retry-after"},
+		description = "The time in seconds that rejected clients are asked to wait before retrying."
+	)
+	private int retryAfter = 1;
+
+	@Parameter (
+		names = {"--compression-level"},
+		description = "The gzip/deflate compression level (1-9) of responses for clients that accept compressed responses. 0 disables response compression. Compressed requests are always accepted."
+	)
+	private int compressionLevel = 1;
+
+	@Parameter (
+		names = {"--compression-min-size"},
+		description = "The minimum size in bytes of a response body that is compressed."
+	)
+	private int compressionMinSize = 1024;
+
+	@Parameter (
+		names = {"--max-inflated-size"},
+		description = "The maximum size in megabytes of a decompressed request body. Larger requests are rejected with status 413. 0 disables the limit."
+	)
+	private long maxInflatedSize = 256;
+
+	@Parameter (
+		names = {"--batch-threads"},
+		description = "The number of threads for parallel batch evaluation. 0 disables parallel evaluation."
+	)
+	private int batchThreads = 0;
+
+	@Parameter (
+		names = {"--batch-chunk-size"},
+		description = "The minimum number of requests per parallel batch evaluation task."
+	)
+	private int batchChunkSize = 1000;
+
+	@Parameter (
+		names = {"--coalesce-window"},
+		description = "The maximum time in microseconds that a single evaluation request waits to be coalesced with concurrent requests for the same model. 0 disables coalescing."
+	)
+	private long coalesceWindow = 0;
+
+	@Parameter (
+		names = {"--coalesce-size"},
+		description = "The maximum number of single evaluation requests that are coalesced into one batch."
+	)
+	private int coalesceSize = 16;
+
+	@Parameter (
+		names = {"--cache-size"},
+		description = "The maximum number of cached evaluation results per model. 0 disables result caching."
+	)
+	private long cacheSize = 0;
+
+	@Parameter (
+		names = {"--cache-ttl"},
+		description = "The time in seconds after which a cached evaluation result expires."
+	)
+	private long cacheTtl = 60;
+
+	@Parameter (
+		names = {"--aggregation-max-groups"},
+		description = "The maximum number of groups that are kept in memory when aggregating a CSV or NDJSON upload for a model with a \"group by\" field. Further groups are spilled to disk. 0 keeps all groups in memory."
+	)
+	private int aggregationMaxGroups = 100000;
+
+	@Parameter (
+		names = {"--aggregation-dir"},
+		description = "The directory for aggregation spill files. Defaults to the temporary-file directory."
+	)
+	private String aggregationDir = "";
+
+	@Parameter (
+		names = {"--deploy-threads"},
+		description = "The number of threads for parsing and compiling uploaded models. 0 deploys models on request threads."
+	)
+	private int deployThreads = 1;
+
+	@Parameter (
+		names = {"--deploy-queue-size"},
+		description = "The maximum number of uploaded models that wait for a deploy thread."
+	)
+	private int deployQueueSize = 16;
+
+	@Parameter (
+		names = {"--warm-up-records"},
+		description = "The number of evaluations that a newly deployed or loaded model is warmed up with before it is published. 0 disables warm-up."
+	)
+	private int warmUpRecords = 0;
+
+	@Parameter (
+		names = {"--warm-up-time"},
+		description = "The maximum time in milliseconds that a model is warmed up for."
+	)
+	private long warmUpTime = 5000;
+
+	@Parameter (
+		names = {"--model-dir"},
+		description = "The directory where deployed models are persisted. Persisted models are loaded at startup."
+	)
+	private String modelDir = "";
+
+	@Parameter (
+		names = {"--model-loader-threads"},
+		description = "The number of threads for loading persisted models at startup."
+	)
+	private int modelLoaderThreads = Runtime.getRuntime().availableProcessors();
+
+	@Parameter (
+		names = {"--max-model-heap"},
+		description = "The maximum estimated heap size in megabytes of deployed models. Least recently used models are evicted to disk when it is exceeded, and reloaded when they are next requested. 0 disables eviction."
+	)
+	private long maxModelHeap = 0;
+
+	@Parameter (
+		names = {"--model-swap-dir"},
+		description = "The directory for evicted models. Must not be the model directory. Defaults to a new directory in the temporary-file directory, which is deleted at shutdown."
+	)
+	private String modelSwapDir = "";
+
 	@Parameter (
 		names = {"--metrics-dir"},
 		description = "The directory where metrics are stored."
@@ -103,6 +267,24 @@ public class Main {
 			commander.usage();
 
 			System.exit(0);
+		} // End if
+
+		if(main.virtualThreads && !VirtualThreads.isSupported()){
+			System.err.println("Virtual threads require Java 21 or newer");
+
+			System.exit(-1);
+		} // End if
+
+		if(main.maxModelHeap > 0 && !main.modelDir.trim().equals("") && !main.modelSwapDir.trim().equals("")){
+			File modelDir = (new File(main.modelDir)).getCanonicalFile();
+			File modelSwapDir = (new File(main.modelSwapDir)).getCanonicalFile();
+
+			// Evicting a model would overwrite its persisted copy, and undeploying it would delete the copy
+			if(modelDir.equals(modelSwapDir)){
+				System.err.println("The model swap directory must not be the model directory");
+
+				System.exit(-1);
+			}
 		}
 
 		main.run();
@@ -111,25 +293,113 @@ public class Main {
 	private void run() throws Exception {
 		final MetricRegistry metrics = new MetricRegistry();
 
-		InstrumentedQueuedThreadPool threadPool = new InstrumentedQueuedThreadPool(metrics, this.maxThreads, this.minThreads);
+		metrics.register("jvm.memory", new MemoryUsageGaugeSet());
+		metrics.register("jvm.gc", new GarbageCollectorMetricSet());
+		metrics.register("jvm.threads", new ThreadStatesGaugeSet());
+
+		final
+		ThreadFactory threadFactory = (this.virtualThreads ? VirtualThreads.getThreadFactory() : Executors.defaultThreadFactory());
+
+		ThreadPool threadPool;
+
+		if(this.virtualThreads){
+			threadPool = new VirtualThreadPool();
+		} else
+
+		{
+			InstrumentedQueuedThreadPool queuedThreadPool = new InstrumentedQueuedThreadPool(metrics, this.maxThreads, this.minThreads);
+
+			// Give pool metrics a stable name
+			queuedThreadPool.setName("jetty");
+
+			threadPool = queuedThreadPool;
+		}
+
 		Server server = new Server(threadPool);
 
 		ServerConnector connector = new ServerConnector(server);
 		connector.setPort(this.port);
 		server.setConnectors(new Connector[] { connector });
 
+		final
+		BatchExecutor batchExecutor = (this.batchThreads > 0 ? new BatchExecutor(this.batchThreads, this.batchChunkSize, threadFactory) : new BatchExecutor());
+
+		final
+		EvaluationCoalescer evaluationCoalescer = (this.coalesceWindow > 0 ? new EvaluationCoalescer(metrics, this.coalesceSize, this.coalesceWindow, TimeUnit.MICROSECONDS) : new EvaluationCoalescer());
+
+		final
+		ResultCacheFactory resultCacheFactory = (this.cacheSize > 0 ? new ResultCacheFactory(this.cacheSize, this.cacheTtl, TimeUnit.SECONDS) : new ResultCacheFactory());
+
+		final
+		GroupAggregatorFactory groupAggregatorFactory = (this.aggregationMaxGroups > 0 ? new GroupAggregatorFactory(this.aggregationMaxGroups, (!this.aggregationDir.trim().equals("") ? new File(this.aggregationDir) : null)) : new GroupAggregatorFactory());
+
+		final
+		ModelStore modelStore = (!this.modelDir.trim().equals("") ? new ModelStore(new File(this.modelDir)) : new ModelStore());
+
+		final
+		ModelDeployer modelDeployer = (this.deployThreads > 0 ? new ModelDeployer(this.deployThreads, this.deployQueueSize) : new ModelDeployer());
+
+		final
+		ModelWarmer modelWarmer = (this.warmUpRecords > 0 ? new ModelWarmer(this.warmUpRecords, this.warmUpTime, TimeUnit.MILLISECONDS) : new ModelWarmer());
+
+		final
+		ModelRegistry modelRegistry = (this.maxModelHeap > 0 ? new ModelRegistry(metrics, this.maxModelHeap * 1024 * 1024, new ModelStore(getModelSwapDir())) : new ModelRegistry(metrics));
+
+		final
+		ModelMetricsRegistry modelMetricsRegistry = new ModelMetricsRegistry(metrics);
+
 		ServletContextHandler contextHandler = new ServletContextHandler();
 		contextHandler.setContextPath(this.contextPath);
 
-		contextHandler.addFilter(GuiceFilter.class, "/*", null);
+		// Compression must happen inside the bulkhead, because the response body is completed on the lane thread
+		CompressionFilter compressionFilter = new CompressionFilter(new GuiceFilter(), this.compressionLevel, this.compressionMinSize, this.maxInflatedSize * 1024 * 1024);
+
+		BulkheadFilter bulkheadFilter = new BulkheadFilter(compressionFilter, this.retryAfter);
+
+		if(this.realtimeThreads > 0){
+			bulkheadFilter.addLane(metrics, BulkheadFilter.Lane.REALTIME, this.realtimeThreads, this.realtimeQueueSize, threadFactory);
+		} // End if
+
+		if(this.bulkThreads > 0){
+			bulkheadFilter.addLane(metrics, BulkheadFilter.Lane.BULK, this.bulkThreads, this.bulkQueueSize, threadFactory);
+		} // End if
+
+		if(this.adminThreads > 0){
+			bulkheadFilter.addLane(metrics, BulkheadFilter.Lane.ADMIN, this.adminThreads, this.adminQueueSize, threadFactory);
+		} // End if
+
+		Filter filter = (!bulkheadFilter.isEmpty() ? bulkheadFilter : compressionFilter);
+
+		if(this.virtualThreads){
+			filter = new BlockingReadFilter(filter);
+		}
+
+		FilterHolder filterHolder = new FilterHolder(filter);
+		filterHolder.setAsyncSupported(!bulkheadFilter.isEmpty());
+
+		contextHandler.addFilter(filterHolder, "/*", EnumSet.of(DispatcherType.REQUEST));
 
 		Module module = new JerseyServletModule(){
 
 			@Override
 			public void configureServlets(){
 				bind(ModelService.class);
+				bind(MetricsService.class);
+				bind(HealthService.class);
+				bind(ModelRegistry.class).toInstance(modelRegistry);
+				bind(MetricRegistry.class).toInstance(metrics);
+				bind(BatchExecutor.class).toInstance(batchExecutor);
+				bind(EvaluationCoalescer.class).toInstance(evaluationCoalescer);
+				bind(ResultCacheFactory.class).toInstance(resultCacheFactory);
+				bind(GroupAggregatorFactory.class).toInstance(groupAggregatorFactory);
+				bind(ModelStore.class).toInstance(modelStore);
+				bind(ModelLoader.class);
+				bind(ModelDeployer.class).toInstance(modelDeployer);
+				bind(ModelWarmer.class).toInstance(modelWarmer);
 				bind(InstrumentedResourceMethodDispatchAdapter.class)
 				  .toInstance(new InstrumentedResourceMethodDispatchAdapter(metrics));
+				bind(ModelMetricsRegistry.class).toInstance(modelMetricsRegistry);
+				bind(ModelMetricsDispatchAdapter.class);
 
 				Map<String, String> config = Maps.newLinkedHashMap();
 				config.put(JSONConfiguration.FEATURE_POJO_MAPPING, "true");
@@ -156,6 +426,10 @@ public class Main {
 
 		server.start();
 
+		// Start accepting traffic right away, and publish persisted models one by one as they become ready
+		ModelLoader modelLoader = injector.getInstance(ModelLoader.class);
+		modelLoader.start(this.modelLoaderThreads);
+
 		if (!this.metricsDir.trim().equals("")) {
 			System.out.printf("Reporting metrics in %s\n", this.metricsDir);
 			CsvReporter reporter = CsvReporter.forRegistry(metrics)
@@ -172,4 +446,36 @@ public class Main {
 
 		server.join();
 	}
+
+	private File getModelSwapDir(){
+
+		if(!this.modelSwapDir.trim().equals("")){
+			return new File(this.modelSwapDir);
+		}
+
+		final
+		File directory = Files.createTempDir();
+
+		// Nobody else knows about the directory, so it is removed together with the evicted models in it
+		Thread cleaner = new Thread("model-swap-cleaner"){
+
+			@Override
+			public void run(){
+				File[] files = directory.listFiles();
+
+				if(files != null){
+
+					for(File file : files){
+						file.delete();
+					}
+				}
+
+				directory.delete();
+			}
+		};
+
+		Runtime.getRuntime().addShutdownHook(cleaner);
+
+		return directory;
+	}
 }
@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) 2014 Villu Ruusmann
+ *
+ * This file is part of Openscoring
+ *
+ * Openscoring is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Openscoring is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Openscoring.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openscoring.server;
+
+import java.util.concurrent.*;
+
+import org.openscoring.service.*;
+
+import com.google.common.util.concurrent.*;
+
+import org.eclipse.jetty.io.*;
+import org.eclipse.jetty.server.*;
+import org.eclipse.jetty.util.thread.*;
+
+/**
+ * Runs every request on a virtual thread of its own, so that the number of concurrent requests is not capped by the size of a thread pool.
+ *
+ * The acceptor and selector loops of connectors run on platform threads.
+ * They run for the lifetime of the server and every request depends on them, so they must not queue for a carrier thread behind the requests.
+ */
+public class VirtualThreadPool extends ExecutorThreadPool {
+
+	private ExecutorService loopExecutor = null;
+
+
+	public VirtualThreadPool(){
+		super(VirtualThreads.newThreadPerTaskExecutor());
+
+		ThreadFactory threadFactory = new ThreadFactoryBuilder()
+			.setNameFormat("jetty-%d")
+			.build();
+
+		this.loopExecutor = Executors.newCachedThreadPool(threadFactory);
+	}
+
+	@Override
+	public void execute(Runnable task){
+
+		if(isLoop(task)){
+			this.loopExecutor.execute(task);
+
+			return;
+		}
+
+		super.execute(task);
+	}
+
+	@Override
+	public boolean dispatch(Runnable task){
+
+		if(isLoop(task)){
+
+			try {
+				this.loopExecutor.execute(task);
+			} catch(RejectedExecutionException ree){
+				return false;
+			}
+
+			return true;
+		}
+
+		return super.dispatch(task);
+	}
+
+	@Override
+	protected void doStop() throws Exception {
+		super.doStop();
+
+		this.loopExecutor.shutdown();
+	}
+
+	static
+	private boolean isLoop(Runnable task){
+		// The acceptor is a private class of the connector
+		return (task instanceof SelectorManager.ManagedSelector) || (task.getClass()).getEnclosingClass() == AbstractConnector.class;
+	}
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2014 Villu Ruusmann
+ *
+ * This file is part of Openscoring
+ *
+ * Openscoring is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Openscoring is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Openscoring.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openscoring.server;
+
+import java.lang.reflect.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+import javax.servlet.*;
+import javax.servlet.http.*;
+
+import org.openscoring.server.BulkheadFilter.Lane;
+
+import com.codahale.metrics.*;
+
+import org.junit.*;
+
+import static org.junit.Assert.*;
+
+public class BulkheadFilterTest {
+
+	@Test
+	public void classify(){
+		assertEquals(Lane.REALTIME, classify("POST", "/model/DecisionTreeIris"));
+		assertEquals(Lane.BULK, classify("POST", "/model/DecisionTreeIris/batch"));
+		assertEquals(Lane.ADMIN, classify("PUT", "/model/DecisionTreeIris"));
+		assertEquals(Lane.ADMIN, classify("GET", "/model"));
+		assertEquals(Lane.ADMIN, classify("GET", "/metricsAndMore"));
+
+		assertNull(classify("GET", "/health/live"));
+		assertNull(classify("GET", "/health/ready"));
+		assertNull(classify("GET", "/metrics"));
+		assertNull(classify("GET", "/metrics/prometheus"));
+	}
+
+	@Test
+	public void bypass() throws Exception {
+		final
+		AtomicInteger count = new AtomicInteger(0);
+
+		Filter filter = new Filter(){
+
+			@Override
+			public void init(FilterConfig config){
+			}
+
+			@Override
+			public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain){
+				count.incrementAndGet();
+			}
+
+			@Override
+			public void destroy(){
+			}
+		};
+
+		BulkheadFilter bulkheadFilter = new BulkheadFilter(filter, 1);
+		bulkheadFilter.addLane(new MetricRegistry(), Lane.ADMIN, 1, 1, Executors.defaultThreadFactory());
+
+		try {
+			// Requests that go through a lane are started in asynchronous mode, which the request stub does not support
+			bulkheadFilter.doFilter(createRequest("GET", "/health/ready"), null, null);
+			bulkheadFilter.doFilter(createRequest("GET", "/metrics/prometheus"), null, null);
+
+			assertEquals(2, count.get());
+
+			try {
+				bulkheadFilter.doFilter(createRequest("GET", "/model"), null, null);
+
+				fail();
+			} catch(UnsupportedOperationException uoe){
+				// Ignored
+			}
+		} finally {
+			bulkheadFilter.destroy();
+		}
+	}
+
+	static
+	private Lane classify(String method, String path){
+		return Lane.classify(createRequest(method, path));
+	}
+
+	static
+	private HttpServletRequest createRequest(final String method, final String path){
+		InvocationHandler handler = new InvocationHandler(){
+
+			@Override
+			public Object invoke(Object proxy, Method invokedMethod, Object[] args){
+				String name = invokedMethod.getName();
+
+				if(("getMethod").equals(name)){
+					return method;
+				} else
+
+				if(("getContextPath").equals(name)){
+					return "/openscoring";
+				} else
+
+				if(("getRequestURI").equals(name)){
+					return "/openscoring" + path;
+				}
+
+				throw new UnsupportedOperationException(name);
+			}
+		};
+
+		return (HttpServletRequest)Proxy.newProxyInstance(BulkheadFilterTest.class.getClassLoader(), new Class<?>[]{HttpServletRequest.class}, handler);
+	}
+}
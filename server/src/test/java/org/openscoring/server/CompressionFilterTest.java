@@ -0,0 +1,342 @@
+/*
+ * Copyright (c) 2014 Villu Ruusmann
+ *
+ * This file is part of Openscoring
+ *
+ * Openscoring is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Openscoring is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Openscoring.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openscoring.server;
+
+import java.io.*;
+import java.lang.reflect.*;
+import java.util.*;
+import java.util.zip.*;
+
+import javax.servlet.*;
+import javax.servlet.http.*;
+
+import org.openscoring.service.*;
+
+import com.google.common.io.*;
+
+import org.junit.*;
+
+import static org.junit.Assert.*;
+
+public class CompressionFilterTest {
+
+	@Test
+	public void inflate() throws Exception {
+		Map<String, Object> response = new LinkedHashMap<String, Object>();
+
+		CompressionFilter compressionFilter = new CompressionFilter(new ReadingFilter(false), 0, 0, 10 * 1024);
+		compressionFilter.doFilter(createRequest(CompressionFilterTest.GZIP_REQUEST, gzip(10 * 1024)), createResponse(response), null);
+
+		assertEquals(10 * 1024, response.get("Content-Length"));
+		assertNull(response.get("status"));
+	}
+
+	@Test
+	public void inflateTooLarge() throws Exception {
+		Map<String, Object> response = new LinkedHashMap<String, Object>();
+
+		CompressionFilter compressionFilter = new CompressionFilter(new ReadingFilter(false), 0, 0, 10 * 1024);
+		compressionFilter.doFilter(createRequest(CompressionFilterTest.GZIP_REQUEST, gzip(10 * 1024 + 1)), createResponse(response), null);
+
+		assertNull(response.get("Content-Length"));
+		assertEquals(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE, response.get("status"));
+
+		response.clear();
+
+		compressionFilter = new CompressionFilter(new ReadingFilter(true), 0, 0, 10 * 1024);
+		compressionFilter.doFilter(createRequest(CompressionFilterTest.GZIP_REQUEST, gzip(10 * 1024 + 1)), createResponse(response), null);
+
+		assertEquals(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE, response.get("status"));
+
+		response.clear();
+
+		compressionFilter = new CompressionFilter(new ReadingFilter(false), 0, 0, 0);
+		compressionFilter.doFilter(createRequest(CompressionFilterTest.GZIP_REQUEST, gzip(10 * 1024 + 1)), createResponse(response), null);
+
+		assertEquals(10 * 1024 + 1, response.get("Content-Length"));
+		assertNull(response.get("status"));
+	}
+
+	@Test
+	public void flush() throws Exception {
+		// Streaming responses are not compressed
+		assertEquals(CompressionFilterTest.RECORD, flush(ModelService.APPLICATION_NDJSON, 0));
+
+		// Responses that are flushed before they reach the minimum size are not compressed
+		assertEquals(CompressionFilterTest.RECORD, flush("text/plain", 1024));
+
+		// Compressed responses are sync-flushed
+		assertEquals(CompressionFilterTest.RECORD, flush("text/plain", 0));
+	}
+
+	/**
+	 * Writes two records, and reads back the first one before writing the second one.
+	 *
+	 * @return The content that the client received after the first record was flushed.
+	 */
+	static
+	private String flush(final String contentType, int minSize) throws Exception {
+		final
+		Map<String, Object> outcome = new LinkedHashMap<String, Object>();
+
+		Filter filter = new Filter(){
+
+			@Override
+			public void init(FilterConfig config){
+			}
+
+			@Override
+			public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException {
+				response.setContentType(contentType);
+
+				OutputStream os = response.getOutputStream();
+
+				os.write(CompressionFilterTest.RECORD.getBytes("UTF-8"));
+				os.flush();
+
+				outcome.put("flushed", decodeFlushed((String)outcome.get("Content-Encoding"), ((ByteArrayOutputStream)outcome.get("body")).toByteArray()));
+
+				os.write(CompressionFilterTest.RECORD.getBytes("UTF-8"));
+			}
+
+			@Override
+			public void destroy(){
+			}
+		};
+
+		CompressionFilter compressionFilter = new CompressionFilter(filter, 1, minSize, 0);
+		compressionFilter.doFilter(createRequest(CompressionFilterTest.GZIP_RESPONSE, new byte[0]), createResponse(outcome), null);
+
+		InputStream is = new ByteArrayInputStream(((ByteArrayOutputStream)outcome.get("body")).toByteArray());
+
+		if(("gzip").equals(outcome.get("Content-Encoding"))){
+			is = new GZIPInputStream(is);
+		}
+
+		assertEquals(CompressionFilterTest.RECORD + CompressionFilterTest.RECORD, new String(ByteStreams.toByteArray(is), "UTF-8"));
+
+		return (String)outcome.get("flushed");
+	}
+
+	/**
+	 * Decodes a response body that has been flushed, but not finished.
+	 */
+	static
+	private String decodeFlushed(String contentEncoding, byte[] body) throws IOException {
+
+		if(contentEncoding == null){
+			return new String(body, "UTF-8");
+		}
+
+		assertEquals("gzip", contentEncoding);
+
+		Inflater inflater = new Inflater(true);
+
+		try {
+			// Skip the gzip header
+			inflater.setInput(body, 10, body.length - 10);
+
+			byte[] buffer = new byte[1024];
+
+			int length = inflater.inflate(buffer);
+
+			return new String(buffer, 0, length, "UTF-8");
+		} catch(DataFormatException dfe){
+			throw new IOException(dfe);
+		} finally {
+			inflater.end();
+		}
+	}
+
+	static
+	private byte[] gzip(int size) throws IOException {
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+
+		GZIPOutputStream gzipOs = new GZIPOutputStream(os);
+		gzipOs.write(new byte[size]);
+		gzipOs.close();
+
+		return os.toByteArray();
+	}
+
+	static
+	private HttpServletRequest createRequest(final Map<String, String> headers, byte[] body){
+		final
+		ByteArrayInputStream is = new ByteArrayInputStream(body);
+
+		InvocationHandler handler = new InvocationHandler(){
+
+			@Override
+			public Object invoke(Object proxy, Method invokedMethod, Object[] args){
+				String name = invokedMethod.getName();
+
+				if(("getHeader").equals(name)){
+					return headers.get(args[0]);
+				} else
+
+				if(("getInputStream").equals(name)){
+					return new ServletInputStream(){
+
+						@Override
+						public int read(){
+							return is.read();
+						}
+					};
+				}
+
+				throw new UnsupportedOperationException(name);
+			}
+		};
+
+		return (HttpServletRequest)Proxy.newProxyInstance(CompressionFilterTest.class.getClassLoader(), new Class<?>[]{HttpServletRequest.class}, handler);
+	}
+
+	/**
+	 * @param response A map that records the status, the headers and the body of the response.
+	 */
+	static
+	private HttpServletResponse createResponse(final Map<String, Object> response){
+		final
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+
+		response.put("body", body);
+
+		final
+		ServletOutputStream os = new ServletOutputStream(){
+
+			@Override
+			public void write(int b){
+				body.write(b);
+			}
+		};
+
+		InvocationHandler handler = new InvocationHandler(){
+
+			@Override
+			public Object invoke(Object proxy, Method invokedMethod, Object[] args){
+				String name = invokedMethod.getName();
+
+				if(("isCommitted").equals(name)){
+					return Boolean.FALSE;
+				} else
+
+				if(("reset").equals(name)){
+					response.remove("status");
+
+					return null;
+				} else
+
+				if(("sendError").equals(name)){
+					response.put("status", args[0]);
+
+					return null;
+				} else
+
+				if(("setContentLength").equals(name)){
+					response.put("Content-Length", args[0]);
+
+					return null;
+				} else
+
+				if(("setContentType").equals(name)){
+					response.put("Content-Type", args[0]);
+
+					return null;
+				} else
+
+				if(("getContentType").equals(name)){
+					return response.get("Content-Type");
+				} else
+
+				if(("setHeader").equals(name) || ("addHeader").equals(name)){
+					response.put((String)args[0], args[1]);
+
+					return null;
+				} else
+
+				if(("getOutputStream").equals(name)){
+					return os;
+				}
+
+				throw new UnsupportedOperationException(name);
+			}
+		};
+
+		return (HttpServletResponse)Proxy.newProxyInstance(CompressionFilterTest.class.getClassLoader(), new Class<?>[]{HttpServletResponse.class}, handler);
+	}
+
+	/**
+	 * Reads the request body like a resource does, and reports its size as the content length of the response.
+	 */
+	static
+	private class ReadingFilter implements Filter {
+
+		private boolean propagate = false;
+
+
+		private ReadingFilter(boolean propagate){
+			this.propagate = propagate;
+		}
+
+		@Override
+		public void init(FilterConfig config){
+		}
+
+		@Override
+		public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException {
+			InputStream is = request.getInputStream();
+
+			int count = 0;
+
+			try {
+				byte[] buffer = new byte[512];
+
+				while(true){
+					int length = is.read(buffer);
+					if(length < 0){
+						break;
+					}
+
+					count += length;
+				}
+			} catch(IOException ioe){
+
+				if(this.propagate){
+					throw ioe;
+				}
+
+				((HttpServletResponse)response).sendError(HttpServletResponse.SC_BAD_REQUEST);
+
+				return;
+			}
+
+			response.setContentLength(count);
+		}
+
+		@Override
+		public void destroy(){
+		}
+	}
+
+	private static final Map<String, String> GZIP_REQUEST = Collections.singletonMap("Content-Encoding", "gzip");
+
+	private static final Map<String, String> GZIP_RESPONSE = Collections.singletonMap("Accept-Encoding", "gzip");
+
+	private static final String RECORD = "{\"id\":\"1\",\"result\":{\"Species\":\"setosa\"}}\n";
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright (c) 2014 Villu Ruusmann
+ *
+ * This file is part of Openscoring
+ *
+ * Openscoring is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Openscoring is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Openscoring.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openscoring.service;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.openscoring.common.*;
+
+import com.google.common.base.*;
+import com.google.common.collect.*;
+import com.google.common.util.concurrent.*;
+import com.google.inject.*;
+
+@Singleton
+public class BatchExecutor {
+
+	private ExecutorService executor = null;
+
+	private int parallelism = 1;
+
+	private int minChunkSize = 1;
+
+
+	// Evaluates all requests on the calling thread
+	public BatchExecutor(){
+	}
+
+	public BatchExecutor(int threads, int minChunkSize){
+		this(threads, minChunkSize, Executors.defaultThreadFactory());
+	}
+
+	public BatchExecutor(int threads, int minChunkSize, ThreadFactory backingThreadFactory){
+
+		if(threads < 1 || minChunkSize < 1){
+			throw new IllegalArgumentException();
+		}
+
+		ThreadFactory threadFactory = new ThreadFactoryBuilder()
+			.setThreadFactory(backingThreadFactory)
+			.setNameFormat("batch-executor-%d")
+			.setDaemon(true)
+			.build();
+
+		// When the queue is full, the chunk is evaluated on the calling thread
+		this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(4 * threads), threadFactory, new ThreadPoolExecutor.CallerRunsPolicy());
+
+		// The calling thread evaluates the first chunk
+		this.parallelism = threads + 1;
+		this.minChunkSize = minChunkSize;
+	}
+
+	public List<EvaluationResponse> evaluate(final ModelEntry entry, List<EvaluationRequest> requests) throws Exception {
+		Function<EvaluationRequest, EvaluationResponse> function = new Function<EvaluationRequest, EvaluationResponse>(){
+
+			@Override
+			public EvaluationResponse apply(EvaluationRequest request){
+				return ModelService.evaluate(entry, request);
+			}
+		};
+
+		return execute(requests, function);
+	}
+
+	public <S, T> List<T> execute(List<S> items, final Function<S, T> function) throws Exception {
+		int chunkSize = Math.max(this.minChunkSize, (items.size() + (this.parallelism - 1)) / this.parallelism);
+
+		if(this.executor == null || items.size() <= chunkSize){
+			return executeChunk(items, function);
+		}
+
+		List<List<S>> chunks = Lists.partition(items, chunkSize);
+
+		List<Future<List<T>>> futures = Lists.newArrayListWithCapacity(chunks.size() - 1);
+
+		try {
+			for(final List<S> chunk : chunks.subList(1, chunks.size())){
+				Callable<List<T>> task = new Callable<List<T>>(){
+
+					@Override
+					public List<T> call(){
+						return executeChunk(chunk, function);
+					}
+				};
+
+				futures.add(this.executor.submit(task));
+			}
+
+			// The order of results must match the order of items
+			List<T> results = Lists.newArrayListWithCapacity(items.size());
+			results.addAll(executeChunk(chunks.get(0), function));
+
+			for(Future<List<T>> future : futures){
+
+				try {
+					results.addAll(future.get());
+				} catch(ExecutionException ee){
+					Throwable cause = ee.getCause();
+
+					if(cause instanceof Exception){
+						throw (Exception)cause;
+					}
+
+					throw ee;
+				}
+			}
+
+			return results;
+		} finally {
+
+			for(Future<List<T>> future : futures){
+				future.cancel(false);
+			}
+		}
+	}
+
+	public void shutdown(){
+
+		if(this.executor != null){
+			this.executor.shutdown();
+		}
+	}
+
+	static
+	private <S, T> List<T> executeChunk(List<S> items, Function<S, T> function){
+		List<T> results = Lists.newArrayListWithCapacity(items.size());
+
+		for(S item : items){
+			results.add(function.apply(item));
+		}
+
+		return results;
+	}
+}
\ No newline at end of file
@@ -25,6 +25,7 @@ import org.openscoring.common.*;
 
 import com.google.common.collect.*;
 
+import org.supercsv.encoder.*;
 import org.supercsv.io.*;
 import org.supercsv.prefs.*;
 
@@ -33,113 +34,549 @@ public class CsvUtil {
 	private CsvUtil(){
 	}
 
+	/**
+	 * @see CsvFormatUtil#getFormat(BufferedReader)
+	 */
 	static
 	public CsvPreference getFormat(BufferedReader reader) throws IOException {
-		reader.mark(10 * 1024);
+		return CsvFormatUtil.getFormat(reader);
+	}
+
+	static
+	public List<EvaluationRequest> readTable(BufferedReader reader, CsvPreference format, String idColumn) throws IOException {
+		return readTable(reader, format, idColumn, null);
+	}
 
-		CsvPreference[] formats = {CsvPreference.EXCEL_PREFERENCE, CsvPreference.EXCEL_NORTH_EUROPE_PREFERENCE, CsvPreference.TAB_PREFERENCE};
-		for(CsvPreference format : formats){
+	/**
+	 * @param columns The names of columns to read, or <code>null</code> to read all columns.
+	 */
+	static
+	public List<EvaluationRequest> readTable(BufferedReader reader, CsvPreference format, String idColumn, Collection<String> columns) throws IOException {
+		List<EvaluationRequest> requests = Lists.newArrayList();
 
-			try {
-				if(checkFormat(reader, format)){
-					return format;
-				}
-			} finally {
-				reader.reset();
+		TableReader parser = new TableReader(reader, format, idColumn, columns);
+
+		while(true){
+			EvaluationRequest request = parser.read();
+			if(request == null){
+				break;
 			}
+
+			requests.add(request);
 		}
 
-		throw new IOException("Unrecognized CSV format");
+		parser.close();
+
+		return requests;
 	}
 
 	static
-	private boolean checkFormat(BufferedReader reader, CsvPreference format) throws IOException {
-		CsvListReader parser = new CsvListReader(reader, format);
+	public void writeTable(BufferedWriter writer, CsvPreference format, String idColumn, List<EvaluationResponse> responses) throws IOException {
+		TableWriter formatter = new TableWriter(writer, format, idColumn);
 
-		int columns = 0;
+		for(EvaluationResponse response : responses){
+			formatter.write(response);
+		}
 
-		// Check the header line and the first ten lines
-		for(int line = 0; line < (1 + 10); line++){
-			List<String> row = parser.read();
-			if(row == null){
-				break;
+		formatter.flush();
+		formatter.close();
+	}
+
+	/**
+	 * The default encoder keeps its working buffer in an instance field, and the predefined preferences share a single encoder instance.
+	 * Concurrent writers must not share the encoder.
+	 */
+	static
+	private CsvPreference copyOf(CsvPreference format){
+		return new CsvPreference.Builder(format).useEncoder(new DefaultCsvEncoder()).build();
+	}
+
+	static
+	private Map<String, ?> join(Map<String, ?> left, Map<String, ?> right){
+		Map<String, Object> result = Maps.newLinkedHashMap();
+		result.putAll(left);
+		result.putAll(right);
+
+		return result;
+	}
+
+	static
+	public class TableReader implements Closeable {
+
+		private Tokenizer tokenizer = null;
+
+		private int columnCount = 0;
+
+		private int idIndex = -1;
+
+		private int[] indexes = null;
+
+		private String[] keys = null;
+
+		private Map<String, Integer> positions = null;
+
+
+		public TableReader(BufferedReader reader, CsvPreference format, String idColumn) throws IOException {
+			this(reader, format, idColumn, null);
+		}
+
+		/**
+		 * @param columns The names of columns to read, or <code>null</code> to read all columns.
+		 * Other columns are tokenized, but never converted to {@link String strings}.
+		 */
+		public TableReader(BufferedReader reader, CsvPreference format, String idColumn, Collection<String> columns) throws IOException {
+			this.tokenizer = new Tokenizer(reader, (char)format.getDelimiterChar(), (char)format.getQuoteChar());
+
+			if(!this.tokenizer.next()){
+				throw new IOException("Missing header row");
+			}
+
+			this.columnCount = this.tokenizer.size();
+
+			// Keyed by column name. If the header contains duplicate names, then the last column wins
+			Map<String, Integer> selectedIndexes = Maps.newLinkedHashMap();
+
+			for(int i = 0; i < this.columnCount; i++){
+				String name = this.tokenizer.get(i);
+
+				if(idColumn != null && (idColumn).equals(name)){
+					this.idIndex = i;
+
+					continue;
+				} // End if
+
+				if(columns == null || columns.contains(name)){
+					selectedIndexes.put(name, i);
+				}
+			}
+
+			this.indexes = new int[selectedIndexes.size()];
+			this.keys = new String[selectedIndexes.size()];
+			this.positions = Maps.newHashMap();
+
+			int position = 0;
+
+			Collection<Map.Entry<String, Integer>> entries = selectedIndexes.entrySet();
+			for(Map.Entry<String, Integer> entry : entries){
+				this.indexes[position] = entry.getValue();
+				this.keys[position] = entry.getKey();
+				this.positions.put(entry.getKey(), position);
+
+				position++;
+			}
+		}
+
+		public EvaluationRequest read() throws IOException {
+
+			if(!this.tokenizer.next()){
+				return null;
 			} // End if
 
-			if(columns == 0 || columns == row.size()){
-				columns = row.size();
-			} else
+			if(this.tokenizer.size() != this.columnCount){
+				throw new IOException("Expected " + this.columnCount + " columns, got " + this.tokenizer.size() + " columns (row " + this.tokenizer.getRow() + ")");
+			}
 
-			{
-				columns = -1;
+			String[] values = new String[this.indexes.length];
 
-				break;
+			for(int i = 0; i < this.indexes.length; i++){
+				values[i] = this.tokenizer.get(this.indexes[i]);
 			}
+
+			String id = (this.idIndex > -1 ? this.tokenizer.get(this.idIndex) : null);
+
+			EvaluationRequest request = new EvaluationRequest(id);
+			request.setArguments(new Row(this.keys, this.positions, values));
+
+			return request;
 		}
 
-		return (columns > 1);
+		@Override
+		public void close() throws IOException {
+			this.tokenizer.close();
+		}
 	}
 
+	/**
+	 * A read-only map view of a CSV row. The column names and their positions are shared between all rows of a table.
+	 */
 	static
-	public List<EvaluationRequest> readTable(BufferedReader reader, CsvPreference format, String idColumn) throws IOException {
-		List<EvaluationRequest> requests = Lists.newArrayList();
+	private class Row extends AbstractMap<String, String> {
 
-		CsvMapReader parser = new CsvMapReader(reader, format);
+		private String[] keys = null;
 
-		String[] header = parser.getHeader(true);
+		private Map<String, Integer> positions = null;
 
-		while(true){
-			Map<String, String> arguments = parser.read(header);
-			if(arguments == null){
-				break;
-			}
+		private String[] values = null;
 
-			String id = arguments.remove(idColumn);
 
-			EvaluationRequest request = new EvaluationRequest(id);
-			request.setArguments(arguments);
+		private Row(String[] keys, Map<String, Integer> positions, String[] values){
+			this.keys = keys;
+			this.positions = positions;
+			this.values = values;
+		}
 
-			requests.add(request);
+		@Override
+		public int size(){
+			return this.keys.length;
 		}
 
-		parser.close();
+		@Override
+		public boolean containsKey(Object key){
+			return this.positions.containsKey(key);
+		}
 
-		return requests;
+		@Override
+		public String get(Object key){
+			Integer position = this.positions.get(key);
+
+			return (position != null ? this.values[position] : null);
+		}
+
+		@Override
+		public Set<Map.Entry<String, String>> entrySet(){
+			return new AbstractSet<Map.Entry<String, String>>(){
+
+				@Override
+				public int size(){
+					return Row.this.keys.length;
+				}
+
+				@Override
+				public Iterator<Map.Entry<String, String>> iterator(){
+					return new Iterator<Map.Entry<String, String>>(){
+
+						private int position = 0;
+
+
+						@Override
+						public boolean hasNext(){
+							return (this.position < Row.this.keys.length);
+						}
+
+						@Override
+						public Map.Entry<String, String> next(){
+
+							if(!hasNext()){
+								throw new NoSuchElementException();
+							}
+
+							Map.Entry<String, String> entry = new AbstractMap.SimpleImmutableEntry<String, String>(Row.this.keys[this.position], Row.this.values[this.position]);
+
+							this.position++;
+
+							return entry;
+						}
+
+						@Override
+						public void remove(){
+							throw new UnsupportedOperationException();
+						}
+					};
+				}
+			};
+		}
 	}
 
+	/**
+	 * A CSV tokenizer that reads into a large character buffer, and keeps the cells of the current row as slices of that buffer.
+	 *
+	 * <p>
+	 * Blank lines are skipped. An unquoted empty cell is read as <code>null</code>, like in Super CSV.
+	 * </p>
+	 */
 	static
-	public void writeTable(BufferedWriter writer, CsvPreference format, String idColumn, List<EvaluationResponse> responses) throws IOException {
-		CsvMapWriter formatter = new CsvMapWriter(writer, format);
+	class Tokenizer implements Closeable {
 
-		String[] header = null;
+		private Reader reader = null;
 
-		for(EvaluationResponse response : responses){
-			Map<String, ?> result = response.getResult();
+		private char delimiter = ',';
+
+		private char quote = '"';
+
+		private char[] buffer = new char[64 * 1024];
+
+		private int position = 0;
+
+		private int limit = 0;
+
+		private boolean eof = false;
+
+		private int row = 0;
+
+		// Cell boundaries, relative to the start of the row
+		private int[] starts = new int[16];
+
+		private int[] ends = new int[16];
+
+		private int size = 0;
+
+		private int rowStart = 0;
+
+
+		Tokenizer(Reader reader, char delimiter, char quote){
+			this.reader = reader;
+			this.delimiter = delimiter;
+			this.quote = quote;
+		}
+
+		/**
+		 * @return <code>true</code> if a row was read, <code>false</code> if the end of the stream was reached.
+		 */
+		public boolean next() throws IOException {
+			this.size = 0;
+
+			// Skip blank lines
+			while(true){
+
+				if(this.position >= this.limit && !fill()){
+					return false;
+				}
+
+				char c = this.buffer[this.position];
+				if(c != '\n' && c != '\r'){
+					break;
+				}
+
+				this.position++;
+			}
+
+			int end = findRowEnd();
+
+			this.rowStart = this.position;
+
+			boolean quoted = false;
+
+			int cellStart = this.position;
+
+			for(int i = this.position; i < end; i++){
+				char c = this.buffer[i];
+
+				if(c == this.quote){
+					quoted = !quoted;
+				} else
+
+				if(c == this.delimiter && !quoted){
+					addCell(cellStart, i);
+
+					cellStart = (i + 1);
+				}
+			}
+
+			addCell(cellStart, end);
+
+			// The line terminator is skipped when reading the next row, because refilling the buffer now would invalidate the cells of this row
+			this.position = end;
+
+			this.row++;
+
+			return true;
+		}
+
+		public int size(){
+			return this.size;
+		}
+
+		public String get(int index){
+
+			if(index < 0 || index >= this.size){
+				throw new IndexOutOfBoundsException();
+			}
 
-			if(idColumn != null){
-				result = join(Collections.<String, String>singletonMap(idColumn, response.getId()), result);
+			int start = this.rowStart + this.starts[index];
+			int end = this.rowStart + this.ends[index];
+
+			if(start == end){
+				return null;
 			} // End if
 
-			if(header == null){
-				Set<String> keys = result.keySet();
+			if(this.buffer[start] != this.quote){
+				return new String(this.buffer, start, end - start);
+			} // End if
+
+			// Fast path for quoted cells that do not contain escaped quotes
+			if((end - start) >= 2 && this.buffer[end - 1] == this.quote && indexOf(this.quote, start + 1, end - 1) < 0){
+				return new String(this.buffer, start + 1, end - start - 2);
+			}
+
+			StringBuilder sb = new StringBuilder(end - start);
+
+			boolean quoted = false;
+
+			for(int i = start; i < end; i++){
+				char c = this.buffer[i];
 
-				header = (keys).toArray(new String[keys.size()]);
+				if(c == this.quote){
 
-				formatter.writeHeader(header);
+					// An escaped quote
+					if(quoted && (i + 1) < end && this.buffer[i + 1] == this.quote){
+						sb.append(c);
+
+						i++;
+
+						continue;
+					}
+
+					quoted = !quoted;
+
+					continue;
+				}
+
+				sb.append(c);
 			}
 
-			formatter.write(result, header);
+			return sb.toString();
 		}
 
-		formatter.flush();
-		formatter.close();
+		public int getRow(){
+			return this.row;
+		}
+
+		@Override
+		public void close() throws IOException {
+			this.reader.close();
+		}
+
+		private void addCell(int start, int end){
+
+			if(this.size == this.starts.length){
+				this.starts = Arrays.copyOf(this.starts, this.size * 2);
+				this.ends = Arrays.copyOf(this.ends, this.size * 2);
+			}
+
+			this.starts[this.size] = (start - this.position);
+			this.ends[this.size] = (end - this.position);
+
+			this.size++;
+		}
+
+		/**
+		 * Makes sure that the whole row is in the buffer.
+		 *
+		 * @return The end position of the row, exclusive of the line terminator.
+		 */
+		private int findRowEnd() throws IOException {
+			boolean quoted = false;
+
+			int i = this.position;
+
+			while(true){
+
+				if(i >= this.limit){
+					int offset = (i - this.position);
+
+					if(!fill()){
+						return this.limit;
+					}
+
+					i = this.position + offset;
+
+					continue;
+				}
+
+				char c = this.buffer[i];
+
+				if(c == this.quote){
+					quoted = !quoted;
+				} else
+
+				if((c == '\n' || c == '\r') && !quoted){
+					return i;
+				}
+
+				i++;
+			}
+		}
+
+		/**
+		 * Moves the unread part of the buffer to the beginning, and reads more characters.
+		 *
+		 * @return <code>true</code> if at least one character was read, <code>false</code> if the end of the stream was reached.
+		 */
+		private boolean fill() throws IOException {
+
+			if(this.eof){
+				return false;
+			}
+
+			int remaining = (this.limit - this.position);
+
+			if(remaining == this.buffer.length){
+				this.buffer = Arrays.copyOf(this.buffer, this.buffer.length * 2);
+			} else
+
+			if(this.position > 0){
+				System.arraycopy(this.buffer, this.position, this.buffer, 0, remaining);
+			}
+
+			this.position = 0;
+			this.limit = remaining;
+
+			int count = this.reader.read(this.buffer, this.limit, this.buffer.length - this.limit);
+			if(count < 0){
+				this.eof = true;
+
+				return false;
+			}
+
+			this.limit += count;
+
+			return true;
+		}
+
+		private int indexOf(char c, int start, int end){
+
+			for(int i = start; i < end; i++){
+
+				if(this.buffer[i] == c){
+					return i;
+				}
+			}
+
+			return -1;
+		}
 	}
 
 	static
-	private Map<String, ?> join(Map<String, ?> left, Map<String, ?> right){
-		Map<String, Object> result = Maps.newLinkedHashMap();
-		result.putAll(left);
-		result.putAll(right);
+	public class TableWriter implements Closeable, Flushable {
 
-		return result;
+		private CsvMapWriter formatter = null;
+
+		private String[] header = null;
+
+		private String idColumn = null;
+
+
+		public TableWriter(BufferedWriter writer, CsvPreference format, String idColumn){
+			this.formatter = new CsvMapWriter(writer, copyOf(format));
+			this.idColumn = idColumn;
+		}
+
+		public void write(EvaluationResponse response) throws IOException {
+			Map<String, ?> result = response.getResult();
+
+			if(this.idColumn != null){
+				result = join(Collections.<String, String>singletonMap(this.idColumn, response.getId()), result);
+			} // End if
+
+			if(this.header == null){
+				Set<String> keys = result.keySet();
+
+				this.header = (keys).toArray(new String[keys.size()]);
+
+				this.formatter.writeHeader(this.header);
+			}
+
+			this.formatter.write(result, this.header);
+		}
+
+		@Override
+		public void flush() throws IOException {
+			this.formatter.flush();
+		}
+
+		@Override
+		public void close() throws IOException {
+			this.formatter.close();
+		}
 	}
 }
\ No newline at end of file
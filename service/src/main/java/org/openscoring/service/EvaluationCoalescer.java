@@ -0,0 +1,338 @@
+/*
+ * Copyright (c) 2014 Villu Ruusmann
+ *
+ * This file is part of Openscoring
+ *
+ * Openscoring is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Openscoring is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Openscoring.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openscoring.service;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.openscoring.common.*;
+
+import com.google.common.collect.*;
+import com.google.common.util.concurrent.*;
+import com.google.inject.*;
+
+import com.codahale.metrics.*;
+import com.codahale.metrics.Timer;
+
+/**
+ * Coalesces concurrent single-record evaluation requests for the same model into batches.
+ *
+ * The first request of a batch becomes its leader. The leader waits until the batch is full or the time window has elapsed, and then closes the batch.
+ * All threads of a closed batch then score its requests together, so that the requests are still scored in parallel.
+ * Requests with identical arguments are scored only once.
+ */
+@Singleton
+public class EvaluationCoalescer {
+
+	private ConcurrentMap<ModelEntry, Batch> batches = new ConcurrentHashMap<ModelEntry, Batch>();
+
+	private int maxBatchSize = 1;
+
+	private long windowNanos = 0;
+
+	private Histogram fillRatio = null;
+
+	private Timer queueDelay = null;
+
+
+	// Evaluates all requests immediately
+	public EvaluationCoalescer(){
+	}
+
+	public EvaluationCoalescer(MetricRegistry metrics, int maxBatchSize, long window, TimeUnit unit){
+
+		if(maxBatchSize < 1 || window < 0){
+			throw new IllegalArgumentException();
+		}
+
+		this.maxBatchSize = maxBatchSize;
+		this.windowNanos = unit.toNanos(window);
+
+		this.fillRatio = metrics.histogram(MetricRegistry.name(EvaluationCoalescer.class, "fillRatio"));
+		this.queueDelay = metrics.timer(MetricRegistry.name(EvaluationCoalescer.class, "queueDelay"));
+	}
+
+	public boolean isEnabled(){
+		return (this.maxBatchSize > 1 && this.windowNanos > 0);
+	}
+
+	public EvaluationResponse evaluate(ModelEntry entry, EvaluationRequest request) throws Exception {
+
+		if(!isEnabled()){
+			return ModelService.evaluate(entry, request);
+		}
+
+		while(true){
+			boolean leader = false;
+
+			Slot slot;
+
+			Batch batch = this.batches.get(entry);
+			if(batch == null){
+				batch = new Batch(this.maxBatchSize);
+
+				// The leader takes its slot before the batch is published, so that followers cannot fill the batch without it
+				slot = batch.add(request);
+
+				leader = (this.batches.putIfAbsent(entry, batch) == null);
+				if(!leader){
+					continue;
+				}
+			} else
+
+			{
+				slot = batch.add(request);
+				if(slot == null){
+					continue;
+				}
+			} // End if
+
+			// Make room for the next batch
+			if(batch.isFull()){
+				this.batches.remove(entry, batch);
+			} // End if
+
+			if(leader){
+				batch.await(this.windowNanos);
+
+				this.batches.remove(entry, batch);
+
+				batch.close();
+
+				this.fillRatio.update((100 * batch.size()) / this.maxBatchSize);
+			} else
+
+			{
+				batch.awaitClosed();
+			}
+
+			run(entry, batch);
+
+			return slot.get();
+		}
+	}
+
+	private void run(ModelEntry entry, Batch batch){
+
+		while(true){
+			List<Slot> slots = batch.claim();
+			if(slots == null){
+				break;
+			}
+
+			Slot first = slots.get(0);
+
+			for(Slot slot : slots){
+				this.queueDelay.update(System.nanoTime() - slot.getCreated(), TimeUnit.NANOSECONDS);
+			}
+
+			try {
+				EvaluationResponse response = ModelService.evaluate(entry, first.getRequest());
+
+				first.set(response);
+
+				for(Slot slot : slots.subList(1, slots.size())){
+					EvaluationResponse duplicateResponse = new EvaluationResponse((slot.getRequest()).getId());
+					duplicateResponse.setResult(response.getResult());
+
+					slot.set(duplicateResponse);
+				}
+			} catch(Exception e){
+
+				for(Slot slot : slots){
+					slot.setException(e);
+				}
+			}
+		}
+	}
+
+	static
+	private class Batch {
+
+		private List<Slot> slots = null;
+
+		private int maxSize = 0;
+
+		private boolean closed = false;
+
+		private List<List<Slot>> groups = null;
+
+		private int next = 0;
+
+
+		public Batch(int maxSize){
+			this.slots = Lists.newArrayListWithCapacity(maxSize);
+			this.maxSize = maxSize;
+		}
+
+		synchronized
+		public Slot add(EvaluationRequest request){
+
+			if(this.closed || isFull()){
+				return null;
+			}
+
+			Slot slot = new Slot(request);
+
+			this.slots.add(slot);
+
+			if(isFull()){
+				notifyAll();
+			}
+
+			return slot;
+		}
+
+		synchronized
+		public boolean isFull(){
+			return (this.slots.size() >= this.maxSize);
+		}
+
+		synchronized
+		public void await(long timeoutNanos){
+			long deadline = System.nanoTime() + timeoutNanos;
+
+			while(!isFull()){
+				long remaining = deadline - System.nanoTime();
+				if(remaining <= 0){
+					break;
+				}
+
+				try {
+					TimeUnit.NANOSECONDS.timedWait(this, remaining);
+				} catch(InterruptedException ie){
+					// The batch must be run regardless, because other threads are waiting for it
+					Thread.currentThread().interrupt();
+
+					break;
+				}
+			}
+		}
+
+		synchronized
+		public void awaitClosed(){
+			boolean interrupted = false;
+
+			while(!this.closed){
+
+				try {
+					wait();
+				} catch(InterruptedException ie){
+					// The leader closes the batch regardless
+					interrupted = true;
+				}
+			}
+
+			if(interrupted){
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		/**
+		 * Groups the requests by arguments, and wakes up the threads that are waiting for the batch.
+		 */
+		synchronized
+		public void close(){
+			this.closed = true;
+
+			Map<Map<String, ?>, List<Slot>> groups = new LinkedHashMap<Map<String, ?>, List<Slot>>();
+
+			for(Slot slot : this.slots){
+				Map<String, ?> arguments = (slot.getRequest()).getArguments();
+
+				List<Slot> group = groups.get(arguments);
+				if(group == null){
+					group = new ArrayList<Slot>(1);
+
+					groups.put(arguments, group);
+				}
+
+				group.add(slot);
+			}
+
+			this.groups = new ArrayList<List<Slot>>(groups.values());
+
+			notifyAll();
+		}
+
+		synchronized
+		public int size(){
+			return this.slots.size();
+		}
+
+		/**
+		 * @return The next group of requests with identical arguments, or <code>null</code> if all groups have been claimed.
+		 */
+		synchronized
+		public List<Slot> claim(){
+
+			if(this.next >= this.groups.size()){
+				return null;
+			}
+
+			return this.groups.get(this.next++);
+		}
+	}
+
+	static
+	private class Slot {
+
+		private EvaluationRequest request = null;
+
+		private long created = System.nanoTime();
+
+		private SettableFuture<EvaluationResponse> future = SettableFuture.create();
+
+
+		public Slot(EvaluationRequest request){
+			this.request = request;
+		}
+
+		public EvaluationRequest getRequest(){
+			return this.request;
+		}
+
+		public long getCreated(){
+			return this.created;
+		}
+
+		public EvaluationResponse get() throws Exception {
+
+			try {
+				return this.future.get();
+			} catch(ExecutionException ee){
+				Throwable cause = ee.getCause();
+
+				if(cause instanceof Exception){
+					throw (Exception)cause;
+				}
+
+				throw ee;
+			}
+		}
+
+		public void set(EvaluationResponse response){
+			this.future.set(response);
+		}
+
+		public void setException(Exception e){
+			this.future.setException(e);
+		}
+	}
+}
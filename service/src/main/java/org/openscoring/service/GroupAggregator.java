@@ -0,0 +1,792 @@
+/*
+ * Copyright (c) 2014 Villu Ruusmann
+ *
+ * This file is part of Openscoring
+ *
+ * Openscoring is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Openscoring is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Openscoring.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openscoring.service;
+
+import java.io.*;
+import java.util.*;
+
+import org.openscoring.common.*;
+
+import com.google.common.collect.*;
+
+/**
+ * Aggregates evaluation requests that share the same value of the "group by" argument.
+ *
+ * Argument values are stored column-wise per group. Consecutive requests of the same group (ie. input that is sorted by the group key) are appended without a table lookup.
+ * When the number of groups exceeds the memory budget, partial groups are spilled to hash partitions on disk, and merged back in the order of first appearance.
+ * Partitions that hold too many groups to fit the memory budget are split recursively.
+ */
+public class GroupAggregator implements Closeable {
+
+	private String groupKey = null;
+
+	private int maxGroups = 0;
+
+	private File directory = null;
+
+	private Map<String, Integer> columnIndexes = Maps.newHashMap();
+
+	private List<String> columns = Lists.newArrayList();
+
+	// Caches the column index by argument position, because consecutive requests usually have the same layout
+	private String[] slotColumns = new String[0];
+
+	private int[] slotIndexes = new int[0];
+
+	private Map<Object, Group> groups = Maps.newLinkedHashMap();
+
+	private Group lastGroup = null;
+
+	private int rowCount = 0;
+
+	private boolean grouped = false;
+
+	private boolean finished = false;
+
+	private File[] partitionFiles = null;
+
+	private ObjectOutputStream[] partitionStreams = null;
+
+	private File[] runFiles = null;
+
+	private Iterator<Group> groupIterator = null;
+
+	private PriorityQueue<Run> runQueue = null;
+
+	private List<Closeable> closeables = Lists.newArrayList();
+
+
+	public GroupAggregator(String groupKey){
+		this(groupKey, 0, null);
+	}
+
+	/**
+	 * @param maxGroups The maximum number of groups that are kept in memory. 0 disables spilling to disk.
+	 * @param directory The directory for spill files, or <code>null</code> for the default temporary-file directory.
+	 */
+	public GroupAggregator(String groupKey, int maxGroups, File directory){
+
+		if(maxGroups < 0){
+			throw new IllegalArgumentException();
+		}
+
+		this.groupKey = groupKey;
+		this.maxGroups = maxGroups;
+		this.directory = directory;
+	}
+
+	public void add(EvaluationRequest request) throws IOException {
+
+		if(this.finished){
+			throw new IllegalStateException();
+		}
+
+		Map<String, ?> arguments = request.getArguments();
+
+		Object groupValue = arguments.get(this.groupKey);
+
+		Group group = this.lastGroup;
+
+		// Fast path for sorted input
+		if(group == null || !equals(group.getKey(), groupValue)){
+			group = this.groups.get(groupValue);
+
+			if(group == null){
+
+				if(this.maxGroups > 0 && this.groups.size() >= this.maxGroups){
+					spill();
+				}
+
+				group = new Group(groupValue, this.rowCount, request.getId());
+
+				this.groups.put(groupValue, group);
+			}
+
+			this.lastGroup = group;
+		}
+
+		group.addRow();
+
+		if(group.getRowCount() > 1){
+			this.grouped = true;
+		}
+
+		int slot = 0;
+
+		Collection<? extends Map.Entry<String, ?>> entries = arguments.entrySet();
+		for(Map.Entry<String, ?> entry : entries){
+			String column = entry.getKey();
+
+			if((this.groupKey).equals(column)){
+				continue;
+			}
+
+			group.add(getColumnIndex(slot, column), entry.getValue());
+
+			slot++;
+		}
+
+		this.rowCount++;
+	}
+
+	/**
+	 * Completes the aggregation. Aggregated requests are then available via {@link #read()}.
+	 */
+	public void finish() throws IOException {
+
+		if(this.finished){
+			throw new IllegalStateException();
+		}
+
+		this.finished = true;
+
+		if(this.partitionStreams == null){
+			this.groupIterator = (this.groups.values()).iterator();
+
+			return;
+		}
+
+		spill();
+
+		for(ObjectOutputStream os : this.partitionStreams){
+			os.close();
+		}
+
+		this.runFiles = new File[this.partitionFiles.length];
+		this.runQueue = new PriorityQueue<Run>(this.partitionFiles.length);
+
+		for(int i = 0; i < this.partitionFiles.length; i++){
+			this.runFiles[i] = createTempFile();
+
+			int count = sortPartition(this.partitionFiles[i], this.runFiles[i], 0);
+
+			this.partitionFiles[i].delete();
+
+			if(count > 0){
+				ObjectInputStream is = new ObjectInputStream(new BufferedInputStream(new FileInputStream(this.runFiles[i])));
+
+				this.closeables.add(is);
+
+				Run run = new Run(is, count);
+				run.next();
+
+				this.runQueue.add(run);
+			}
+		}
+	}
+
+	/**
+	 * @return The next aggregated request in the order of first appearance, or <code>null</code> if there are no more requests.
+	 *
+	 * @see #isGrouped()
+	 */
+	public EvaluationRequest read() throws IOException {
+		Group group;
+
+		if(this.groupIterator != null){
+
+			if(!this.groupIterator.hasNext()){
+				return null;
+			}
+
+			group = this.groupIterator.next();
+		} else
+
+		if(this.runQueue != null){
+			Run run = this.runQueue.poll();
+			if(run == null){
+				return null;
+			}
+
+			group = run.getGroup();
+
+			if(run.next()){
+				this.runQueue.add(run);
+			}
+		} else
+
+		{
+			throw new IllegalStateException();
+		}
+
+		return toRequest(group);
+	}
+
+	@Override
+	public void close() throws IOException {
+		this.groups.clear();
+
+		for(Closeable closeable : this.closeables){
+			closeable.close();
+		}
+
+		this.closeables.clear();
+
+		deleteAll(this.partitionFiles);
+		deleteAll(this.runFiles);
+	}
+
+	public int getRowCount(){
+		return this.rowCount;
+	}
+
+	/**
+	 * @return <code>true</code> if at least one group contains more than one request.
+	 * If not, then {@link #read()} returns the original requests. Only known after {@link #finish()}.
+	 */
+	public boolean isGrouped(){
+		return this.grouped;
+	}
+
+	public boolean isSpilled(){
+		return (this.partitionStreams != null);
+	}
+
+	private int getColumnIndex(int slot, String column){
+
+		if(slot < this.slotColumns.length && this.slotColumns[slot] == column){
+			return this.slotIndexes[slot];
+		}
+
+		Integer index = this.columnIndexes.get(column);
+		if(index == null){
+			index = this.columns.size();
+
+			this.columnIndexes.put(column, index);
+			this.columns.add(column);
+		} // End if
+
+		if(slot >= this.slotColumns.length){
+			this.slotColumns = Arrays.copyOf(this.slotColumns, slot + 1);
+			this.slotIndexes = Arrays.copyOf(this.slotIndexes, slot + 1);
+		}
+
+		this.slotColumns[slot] = column;
+		this.slotIndexes[slot] = index;
+
+		return index;
+	}
+
+	private EvaluationRequest toRequest(Group group){
+		Map<String, Object> arguments = Maps.newLinkedHashMap();
+
+		for(int i = 0; i < this.columns.size(); i++){
+			List<Object> values = group.getValues(i);
+
+			if(values.isEmpty()){
+				continue;
+			} // End if
+
+			if(this.grouped){
+				arguments.put(this.columns.get(i), values);
+			} else
+
+			{
+				arguments.put(this.columns.get(i), values.get(0));
+			}
+		}
+
+		// The value of the "group by" column is a single Object, not a Collection (ie. java.util.List) of Objects
+		arguments.put(this.groupKey, group.getKey());
+
+		EvaluationRequest request = new EvaluationRequest(this.grouped ? null : group.getId());
+		request.setArguments(arguments);
+
+		return request;
+	}
+
+	private void spill() throws IOException {
+
+		if(this.partitionStreams == null){
+			this.partitionFiles = new File[GroupAggregator.PARTITIONS];
+			this.partitionStreams = new ObjectOutputStream[GroupAggregator.PARTITIONS];
+
+			for(int i = 0; i < GroupAggregator.PARTITIONS; i++){
+				this.partitionFiles[i] = createTempFile();
+
+				ObjectOutputStream os = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(this.partitionFiles[i])));
+
+				this.closeables.add(os);
+
+				this.partitionStreams[i] = os;
+			}
+		}
+
+		Collection<Group> groups = this.groups.values();
+		for(Group group : groups){
+			ObjectOutputStream os = this.partitionStreams[partition(group.getKey(), 0)];
+
+			group.writeTo(os);
+		}
+
+		// Release the references that the streams hold to spilled objects
+		for(ObjectOutputStream os : this.partitionStreams){
+			os.reset();
+		}
+
+		this.groups.clear();
+
+		this.lastGroup = null;
+	}
+
+	/**
+	 * Merges the partial groups of a partition, and writes them to the run file in the order of first appearance.
+	 * A partition that holds more groups than the memory budget is split into sub-partitions, which are sorted separately and then merged.
+	 *
+	 * @return The number of groups.
+	 */
+	private int sortPartition(File partitionFile, File runFile, int depth) throws IOException {
+		Map<Object, Group> groups = Maps.newHashMap();
+
+		boolean oversized = false;
+
+		ObjectInputStream is = new ObjectInputStream(new BufferedInputStream(new FileInputStream(partitionFile)));
+
+		try {
+			while(true){
+				Group group;
+
+				try {
+					group = Group.readFrom(is);
+				} catch(EOFException eofe){
+					break;
+				}
+
+				// Partial groups are spilled in the order of appearance
+				Group previousGroup = groups.get(group.getKey());
+				if(previousGroup != null){
+					previousGroup.addAll(group);
+
+					this.grouped = true;
+				} else
+
+				{
+					// Keys that collide in all hash bits cannot be split any further
+					if(this.maxGroups > 0 && groups.size() >= this.maxGroups && depth < GroupAggregator.MAX_DEPTH){
+						oversized = true;
+
+						break;
+					}
+
+					groups.put(group.getKey(), group);
+				}
+			}
+		} finally {
+			is.close();
+		}
+
+		if(oversized){
+			groups.clear();
+
+			return splitPartition(partitionFile, runFile, depth + 1);
+		}
+
+		List<Group> sortedGroups = Lists.newArrayList(groups.values());
+
+		groups.clear();
+
+		Collections.sort(sortedGroups);
+
+		ObjectOutputStream os = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(runFile)));
+
+		try {
+			for(int i = 0; i < sortedGroups.size(); i++){
+				(sortedGroups.get(i)).writeTo(os);
+
+				if((i + 1) % GroupAggregator.RESET_INTERVAL == 0){
+					os.reset();
+				}
+			}
+		} finally {
+			os.close();
+		}
+
+		return sortedGroups.size();
+	}
+
+	/**
+	 * Re-partitions a partition by the next bits of the hash code, and merges the sorted sub-partitions into the run file.
+	 *
+	 * @return The number of groups.
+	 */
+	private int splitPartition(File partitionFile, File runFile, int depth) throws IOException {
+		File[] subPartitionFiles = new File[GroupAggregator.PARTITIONS];
+		File[] subRunFiles = new File[GroupAggregator.PARTITIONS];
+
+		List<Closeable> closeables = Lists.newArrayList();
+
+		try {
+			ObjectOutputStream[] subPartitionStreams = new ObjectOutputStream[GroupAggregator.PARTITIONS];
+
+			for(int i = 0; i < GroupAggregator.PARTITIONS; i++){
+				subPartitionFiles[i] = createTempFile();
+
+				ObjectOutputStream os = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(subPartitionFiles[i])));
+
+				closeables.add(os);
+
+				subPartitionStreams[i] = os;
+			}
+
+			ObjectInputStream is = new ObjectInputStream(new BufferedInputStream(new FileInputStream(partitionFile)));
+
+			try {
+				for(int count = 1; ; count++){
+					Group group;
+
+					try {
+						group = Group.readFrom(is);
+					} catch(EOFException eofe){
+						break;
+					}
+
+					group.writeTo(subPartitionStreams[partition(group.getKey(), depth)]);
+
+					if(count % GroupAggregator.RESET_INTERVAL == 0){
+
+						for(ObjectOutputStream os : subPartitionStreams){
+							os.reset();
+						}
+					}
+				}
+			} finally {
+				is.close();
+			}
+
+			for(ObjectOutputStream os : subPartitionStreams){
+				os.close();
+			}
+
+			closeables.clear();
+
+			PriorityQueue<Run> runQueue = new PriorityQueue<Run>(GroupAggregator.PARTITIONS);
+
+			for(int i = 0; i < GroupAggregator.PARTITIONS; i++){
+				subRunFiles[i] = createTempFile();
+
+				int count = sortPartition(subPartitionFiles[i], subRunFiles[i], depth);
+
+				subPartitionFiles[i].delete();
+
+				if(count > 0){
+					ObjectInputStream runIs = new ObjectInputStream(new BufferedInputStream(new FileInputStream(subRunFiles[i])));
+
+					closeables.add(runIs);
+
+					Run run = new Run(runIs, count);
+					run.next();
+
+					runQueue.add(run);
+				}
+			}
+
+			int result = 0;
+
+			ObjectOutputStream os = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(runFile)));
+
+			try {
+				while(true){
+					Run run = runQueue.poll();
+					if(run == null){
+						break;
+					}
+
+					(run.getGroup()).writeTo(os);
+
+					result++;
+
+					if(result % GroupAggregator.RESET_INTERVAL == 0){
+						os.reset();
+					} // End if
+
+					if(run.next()){
+						runQueue.add(run);
+					}
+				}
+			} finally {
+				os.close();
+			}
+
+			return result;
+		} finally {
+
+			for(Closeable closeable : closeables){
+				closeable.close();
+			}
+
+			deleteAll(subPartitionFiles);
+			deleteAll(subRunFiles);
+		}
+	}
+
+	private File createTempFile() throws IOException {
+		File file = File.createTempFile("openscoring-", ".group", this.directory);
+		file.deleteOnExit();
+
+		return file;
+	}
+
+	/**
+	 * @return <code>true</code> if at least two requests share the same value of the "group by" argument.
+	 */
+	static
+	public boolean requiresAggregation(String groupKey, List<EvaluationRequest> requests){
+		Set<Object> groupValues = Sets.newHashSetWithExpectedSize(requests.size());
+
+		for(EvaluationRequest request : requests){
+			Object groupValue = (request.getArguments()).get(groupKey);
+
+			if(!groupValues.add(groupValue)){
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * @param depth The level of re-partitioning. Every level uses different bits of the hash code.
+	 */
+	static
+	private int partition(Object key, int depth){
+		int hash = (key != null ? key.hashCode() : 0);
+
+		hash ^= (hash >>> 16);
+
+		return (hash >>> (GroupAggregator.PARTITION_BITS * depth)) & (GroupAggregator.PARTITIONS - 1);
+	}
+
+	static
+	private boolean equals(Object left, Object right){
+		return (left != null ? left.equals(right) : (right == null));
+	}
+
+	static
+	private void deleteAll(File[] files){
+
+		if(files == null){
+			return;
+		}
+
+		for(File file : files){
+			file.delete();
+		}
+	}
+
+	static
+	private class Group implements Comparable<Group> {
+
+		private Object key = null;
+
+		private int firstRow = 0;
+
+		private String id = null;
+
+		private int rowCount = 0;
+
+		// Argument values by column index
+		private Object[][] values = new Object[0][];
+
+		private int[] sizes = new int[0];
+
+
+		private Group(Object key, int firstRow, String id){
+			this.key = key;
+			this.firstRow = firstRow;
+			this.id = id;
+		}
+
+		@Override
+		public int compareTo(Group that){
+			return (this.firstRow < that.firstRow ? -1 : (this.firstRow == that.firstRow ? 0 : 1));
+		}
+
+		public Object getKey(){
+			return this.key;
+		}
+
+		public String getId(){
+			return this.id;
+		}
+
+		public int getRowCount(){
+			return this.rowCount;
+		}
+
+		public void addRow(){
+			this.rowCount++;
+		}
+
+		public void add(int column, Object value){
+			ensureColumn(column);
+
+			Object[] columnValues = this.values[column];
+
+			int size = this.sizes[column];
+
+			if(size == columnValues.length){
+				columnValues = Arrays.copyOf(columnValues, Math.max(4, size + (size >> 1)));
+
+				this.values[column] = columnValues;
+			}
+
+			columnValues[size] = value;
+
+			this.sizes[column] = size + 1;
+		}
+
+		public void addAll(Group group){
+			this.rowCount += group.rowCount;
+
+			for(int column = 0; column < group.values.length; column++){
+				Object[] columnValues = group.values[column];
+
+				for(int i = 0; i < group.sizes[column]; i++){
+					add(column, columnValues[i]);
+				}
+			}
+		}
+
+		public List<Object> getValues(int column){
+
+			if(column >= this.values.length || this.sizes[column] == 0){
+				return Collections.emptyList();
+			}
+
+			return Arrays.asList(Arrays.copyOf(this.values[column], this.sizes[column]));
+		}
+
+		public void writeTo(ObjectOutputStream os) throws IOException {
+			os.writeObject(this.key);
+			os.writeInt(this.firstRow);
+			os.writeObject(this.id);
+			os.writeInt(this.rowCount);
+
+			os.writeInt(this.values.length);
+
+			for(int column = 0; column < this.values.length; column++){
+				Object[] columnValues = this.values[column];
+
+				os.writeInt(this.sizes[column]);
+
+				for(int i = 0; i < this.sizes[column]; i++){
+					os.writeObject(columnValues[i]);
+				}
+			}
+		}
+
+		private void ensureColumn(int column){
+
+			if(column < this.values.length){
+				return;
+			}
+
+			int length = this.values.length;
+
+			this.values = Arrays.copyOf(this.values, column + 1);
+			this.sizes = Arrays.copyOf(this.sizes, column + 1);
+
+			for(int i = length; i < this.values.length; i++){
+				this.values[i] = new Object[0];
+			}
+		}
+
+		static
+		public Group readFrom(ObjectInputStream is) throws IOException {
+
+			try {
+				Group group = new Group(is.readObject(), is.readInt(), (String)is.readObject());
+				group.rowCount = is.readInt();
+
+				int columns = is.readInt();
+
+				group.values = new Object[columns][];
+				group.sizes = new int[columns];
+
+				for(int column = 0; column < columns; column++){
+					int size = is.readInt();
+
+					Object[] columnValues = new Object[size];
+
+					for(int i = 0; i < size; i++){
+						columnValues[i] = is.readObject();
+					}
+
+					group.values[column] = columnValues;
+					group.sizes[column] = size;
+				}
+
+				return group;
+			} catch(ClassNotFoundException cnfe){
+				throw new IOException(cnfe);
+			}
+		}
+	}
+
+	static
+	private class Run implements Comparable<Run> {
+
+		private ObjectInputStream is = null;
+
+		private int remaining = 0;
+
+		private Group group = null;
+
+
+		private Run(ObjectInputStream is, int remaining){
+			this.is = is;
+			this.remaining = remaining;
+		}
+
+		@Override
+		public int compareTo(Run that){
+			return (this.group).compareTo(that.group);
+		}
+
+		public Group getGroup(){
+			return this.group;
+		}
+
+		public boolean next() throws IOException {
+
+			if(this.remaining == 0){
+				this.group = null;
+
+				this.is.close();
+
+				return false;
+			}
+
+			this.group = Group.readFrom(this.is);
+
+			this.remaining--;
+
+			return true;
+		}
+	}
+
+	private static final int PARTITION_BITS = 5;
+
+	private static final int PARTITIONS = 1 << PARTITION_BITS;
+
+	// The hash code has 32 bits, which are enough for the top level and five levels of re-partitioning
+	private static final int MAX_DEPTH = 5;
+
+	private static final int RESET_INTERVAL = 1024;
+}
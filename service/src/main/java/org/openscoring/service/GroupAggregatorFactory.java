@@ -0,0 +1,50 @@
+/*
+ * Copyright (c) 2014 Villu Ruusmann
+ *
+ * This file is part of Openscoring
+ *
+ * Openscoring is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Openscoring is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Openscoring.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openscoring.service;
+
+import java.io.*;
+
+import com.google.inject.*;
+
+@Singleton
+public class GroupAggregatorFactory {
+
+	private int maxGroups = 0;
+
+	private File directory = null;
+
+
+	// Groups are kept in memory
+	public GroupAggregatorFactory(){
+	}
+
+	public GroupAggregatorFactory(int maxGroups, File directory){
+
+		if(maxGroups < 1){
+			throw new IllegalArgumentException();
+		}
+
+		this.maxGroups = maxGroups;
+		this.directory = directory;
+	}
+
+	public GroupAggregator create(String groupKey){
+		return new GroupAggregator(groupKey, this.maxGroups, this.directory);
+	}
+}
@@ -0,0 +1,212 @@
+/*
+ * Copyright (c) 2014 Villu Ruusmann
+ *
+ * This file is part of Openscoring
+ *
+ * Openscoring is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Openscoring is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Openscoring.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openscoring.service;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.HdrHistogram.*;
+import org.HdrHistogram.Histogram;
+
+import com.codahale.metrics.*;
+
+/**
+ * A reservoir that records every value into a high dynamic range histogram, which keeps high percentiles (p99.9 and above) accurate to a fixed number of significant digits.
+ *
+ * Snapshots cover the values that were recorded during the current and the previous time window.
+ * Recorded values are collected, and a new snapshot is taken, at most once per refresh interval. Reads in between return the same snapshot,
+ * so that frequent metrics reads (eg. scrapes of hundreds of models) do not copy a full histogram every time.
+ */
+public class HdrHistogramReservoir implements Reservoir {
+
+	private Recorder recorder = null;
+
+	private long window = 0;
+
+	private long interval = 0;
+
+	private Histogram intervalHistogram = null;
+
+	private Histogram currentHistogram = null;
+
+	private Histogram previousHistogram = null;
+
+	private long windowStart = 0;
+
+	private Snapshot snapshot = null;
+
+	private long snapshotTime = 0;
+
+
+	public HdrHistogramReservoir(){
+		this(1, TimeUnit.MINUTES, 5, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * @param window The length of a time window.
+	 * @param interval The refresh interval of snapshots. Must not be longer than the time window.
+	 */
+	public HdrHistogramReservoir(long window, TimeUnit windowUnit, long interval, TimeUnit intervalUnit){
+		this.recorder = new Recorder(HdrHistogramReservoir.SIGNIFICANT_DIGITS);
+
+		this.window = windowUnit.toNanos(window);
+		this.interval = intervalUnit.toNanos(interval);
+
+		if(this.interval < 0 || this.interval > this.window){
+			throw new IllegalArgumentException();
+		}
+
+		this.currentHistogram = new Histogram(HdrHistogramReservoir.SIGNIFICANT_DIGITS);
+		this.previousHistogram = new Histogram(HdrHistogramReservoir.SIGNIFICANT_DIGITS);
+
+		this.windowStart = System.nanoTime();
+	}
+
+	@Override
+	public int size(){
+		return getSnapshot().size();
+	}
+
+	@Override
+	public void update(long value){
+		// Negative values cannot be recorded
+		this.recorder.recordValue(Math.max(value, 0));
+	}
+
+	@Override
+	public synchronized Snapshot getSnapshot(){
+		long now = System.nanoTime();
+
+		if(this.snapshot != null && now - this.snapshotTime < this.interval){
+			return this.snapshot;
+		}
+
+		this.intervalHistogram = this.recorder.getIntervalHistogram(this.intervalHistogram);
+
+		if(now - this.windowStart >= this.window){
+			Histogram histogram = this.previousHistogram;
+
+			// There may have been no activity during the previous window
+			if(now - this.windowStart >= 2 * this.window){
+				this.currentHistogram.reset();
+			}
+
+			this.previousHistogram = this.currentHistogram;
+
+			this.currentHistogram = histogram;
+			this.currentHistogram.reset();
+
+			this.windowStart = now;
+		}
+
+		this.currentHistogram.add(this.intervalHistogram);
+
+		Histogram histogram = this.currentHistogram.copy();
+		histogram.add(this.previousHistogram);
+
+		this.snapshot = new HistogramSnapshot(histogram);
+		this.snapshotTime = now;
+
+		return this.snapshot;
+	}
+
+	static
+	private class HistogramSnapshot extends Snapshot {
+
+		private Histogram histogram = null;
+
+
+		public HistogramSnapshot(Histogram histogram){
+			super(new long[0]);
+
+			this.histogram = histogram;
+		}
+
+		@Override
+		public double getValue(double quantile){
+
+			if(quantile < 0d || quantile > 1d || Double.isNaN(quantile)){
+				throw new IllegalArgumentException(quantile + " is not in [0..1]");
+			}
+
+			return this.histogram.getValueAtPercentile(quantile * 100d);
+		}
+
+		@Override
+		public int size(){
+			return (int)Math.min(this.histogram.getTotalCount(), Integer.MAX_VALUE);
+		}
+
+		/**
+		 * @return The distinct recorded values (ie. one value per histogram bucket).
+		 */
+		@Override
+		public long[] getValues(){
+			List<Long> values = new ArrayList<Long>();
+
+			for(HistogramIterationValue value : this.histogram.recordedValues()){
+				values.add(value.getValueIteratedTo());
+			}
+
+			long[] result = new long[values.size()];
+
+			for(int i = 0; i < values.size(); i++){
+				result[i] = values.get(i);
+			}
+
+			return result;
+		}
+
+		@Override
+		public long getMax(){
+			return (this.histogram.getTotalCount() > 0 ? this.histogram.getMaxValue() : 0);
+		}
+
+		@Override
+		public long getMin(){
+			return (this.histogram.getTotalCount() > 0 ? this.histogram.getMinValue() : 0);
+		}
+
+		@Override
+		public double getMean(){
+			return (this.histogram.getTotalCount() > 0 ? this.histogram.getMean() : 0d);
+		}
+
+		@Override
+		public double getStdDev(){
+			return (this.histogram.getTotalCount() > 1 ? this.histogram.getStdDeviation() : 0d);
+		}
+
+		@Override
+		public void dump(OutputStream os){
+			PrintWriter writer = new PrintWriter(new OutputStreamWriter(os));
+
+			try {
+				for(HistogramIterationValue value : this.histogram.recordedValues()){
+					writer.printf("%d\t%d%n", value.getValueIteratedTo(), value.getCountAtValueIteratedTo());
+				}
+			} finally {
+				writer.close();
+			}
+		}
+	}
+
+	private static final int SIGNIFICANT_DIGITS = 3;
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright (c) 2014 Villu Ruusmann
+ *
+ * This file is part of Openscoring
+ *
+ * Openscoring is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Openscoring is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Openscoring.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openscoring.service;
+
+import javax.ws.rs.*;
+import javax.ws.rs.core.*;
+
+import com.google.inject.*;
+
+@Path("health")
+public class HealthService {
+
+	private ModelLoader loader = null;
+
+
+	@Inject
+	public HealthService(ModelLoader loader){
+		this.loader = loader;
+	}
+
+	@GET
+	@Path("live")
+	@Produces(MediaType.TEXT_PLAIN)
+	public String getLiveness(){
+		return "Live";
+	}
+
+	/**
+	 * The server is ready when all persisted models have been loaded (or have failed to load).
+	 */
+	@GET
+	@Path("ready")
+	@Produces(MediaType.TEXT_PLAIN)
+	public Response getReadiness(){
+		String counts = this.loader.getLoaded() + " persisted models loaded, " + this.loader.getFailed() + " failed";
+
+		if(!this.loader.isComplete()){
+			return Response.status(Response.Status.SERVICE_UNAVAILABLE).entity("Not ready: " + counts).build();
+		}
+
+		return Response.ok("Ready: " + counts).build();
+	}
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2014 Villu Ruusmann
+ *
+ * This file is part of Openscoring
+ *
+ * Openscoring is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Openscoring is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Openscoring.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openscoring.service;
+
+import java.io.*;
+
+import org.openscoring.common.*;
+
+import org.codehaus.jackson.*;
+import org.codehaus.jackson.map.*;
+
+public class JsonUtil {
+
+	private JsonUtil(){
+	}
+
+	static
+	public class RecordReader implements Closeable {
+
+		private JsonParser parser = null;
+
+
+		public RecordReader(InputStream is) throws IOException {
+			this.parser = JsonUtil.mapper.getJsonFactory().createJsonParser(is);
+		}
+
+		public EvaluationRequest read() throws IOException {
+			JsonToken token = this.parser.nextToken();
+			if(token == null){
+				return null;
+			} // End if
+
+			if(token != JsonToken.START_OBJECT){
+				throw new JsonParseException("Expected a JSON object", this.parser.getCurrentLocation());
+			}
+
+			return JsonUtil.mapper.readValue(this.parser, EvaluationRequest.class);
+		}
+
+		@Override
+		public void close() throws IOException {
+			this.parser.close();
+		}
+	}
+
+	static
+	public class RecordWriter implements Closeable, Flushable {
+
+		private OutputStream os = null;
+
+
+		public RecordWriter(OutputStream os){
+			this.os = new BufferedOutputStream(os);
+		}
+
+		public void write(EvaluationResponse response) throws IOException {
+			this.os.write(JsonUtil.mapper.writeValueAsBytes(response));
+			this.os.write('\n');
+		}
+
+		@Override
+		public void flush() throws IOException {
+			this.os.flush();
+		}
+
+		@Override
+		public void close() throws IOException {
+			this.os.close();
+		}
+	}
+
+	private static final ObjectMapper mapper = new ObjectMapper();
+}
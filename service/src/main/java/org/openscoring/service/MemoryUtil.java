@@ -0,0 +1,245 @@
+/*
+ * Copyright (c) 2014 Villu Ruusmann
+ *
+ * This file is part of Openscoring
+ *
+ * Openscoring is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Openscoring is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Openscoring.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openscoring.service;
+
+import java.lang.reflect.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+public class MemoryUtil {
+
+	private MemoryUtil(){
+	}
+
+	/**
+	 * Estimates the retained heap size of an object graph in bytes.
+	 *
+	 * The estimate assumes a 64-bit JVM with compressed object pointers.
+	 * Objects of JDK classes are measured shallowly, except for strings, collections and maps, whose contents are estimated as well.
+	 * Objects that are shared with other object graphs are counted in full.
+	 */
+	static
+	public long estimateSize(Object root){
+		Set<Object> visited = Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+
+		Deque<Object> pending = new ArrayDeque<Object>();
+
+		push(root, visited, pending);
+
+		long result = 0;
+
+		while(!pending.isEmpty()){
+			Object object = pending.pop();
+
+			Class<?> clazz = object.getClass();
+
+			if(clazz.isArray()){
+				Class<?> componentType = clazz.getComponentType();
+
+				int length = Array.getLength(object);
+
+				result += align(MemoryUtil.ARRAY_HEADER_SIZE + (long)length * sizeOf(componentType));
+
+				if(!componentType.isPrimitive()){
+					Object[] elements = (Object[])object;
+
+					for(Object element : elements){
+						push(element, visited, pending);
+					}
+				}
+
+				continue;
+			}
+
+			ClassInfo classInfo = getClassInfo(clazz);
+
+			result += classInfo.getSize();
+
+			if(object instanceof String){
+				String string = (String)object;
+
+				result += align(MemoryUtil.ARRAY_HEADER_SIZE + 2L * string.length());
+			} else
+
+			if(object instanceof Collection){
+				Collection<?> collection = (Collection<?>)object;
+
+				// The backing array, or the nodes of a linked structure
+				result += align(MemoryUtil.ARRAY_HEADER_SIZE + (long)collection.size() * MemoryUtil.REFERENCE_SIZE);
+
+				for(Object element : collection){
+					push(element, visited, pending);
+				}
+			} else
+
+			if(object instanceof Map){
+				Map<?, ?> map = (Map<?, ?>)object;
+
+				// The hash table, and one node per entry
+				result += align(MemoryUtil.ARRAY_HEADER_SIZE + (long)map.size() * MemoryUtil.REFERENCE_SIZE) + (long)map.size() * MemoryUtil.MAP_ENTRY_SIZE;
+
+				Collection<? extends Map.Entry<?, ?>> entries = map.entrySet();
+				for(Map.Entry<?, ?> entry : entries){
+					push(entry.getKey(), visited, pending);
+					push(entry.getValue(), visited, pending);
+				}
+			} else
+
+			{
+				List<Field> fields = classInfo.getReferenceFields();
+
+				for(Field field : fields){
+					Object value;
+
+					try {
+						value = field.get(object);
+					} catch(IllegalAccessException iae){
+						continue;
+					}
+
+					push(value, visited, pending);
+				}
+			}
+		}
+
+		return result;
+	}
+
+	static
+	private void push(Object object, Set<Object> visited, Deque<Object> pending){
+
+		if(object == null || object instanceof Class || object instanceof Enum){
+			return;
+		} // End if
+
+		if(visited.add(object)){
+			pending.push(object);
+		}
+	}
+
+	static
+	private ClassInfo getClassInfo(Class<?> clazz){
+		ClassInfo result = MemoryUtil.classInfos.get(clazz);
+
+		if(result == null){
+			result = new ClassInfo(clazz);
+
+			MemoryUtil.classInfos.putIfAbsent(clazz, result);
+		}
+
+		return result;
+	}
+
+	static
+	private boolean isSystemClass(Class<?> clazz){
+		String name = clazz.getName();
+
+		return name.startsWith("java.") || name.startsWith("javax.") || name.startsWith("sun.") || name.startsWith("com.sun.") || name.startsWith("jdk.");
+	}
+
+	static
+	private int sizeOf(Class<?> type){
+
+		if((long.class).equals(type) || (double.class).equals(type)){
+			return 8;
+		} else
+
+		if((int.class).equals(type) || (float.class).equals(type)){
+			return 4;
+		} else
+
+		if((short.class).equals(type) || (char.class).equals(type)){
+			return 2;
+		} else
+
+		if((byte.class).equals(type) || (boolean.class).equals(type)){
+			return 1;
+		}
+
+		return MemoryUtil.REFERENCE_SIZE;
+	}
+
+	static
+	private long align(long size){
+		return (size + 7) & ~7L;
+	}
+
+	static
+	private class ClassInfo {
+
+		private long size = 0;
+
+		private List<Field> referenceFields = new ArrayList<Field>();
+
+
+		private ClassInfo(Class<?> clazz){
+			boolean system = isSystemClass(clazz);
+
+			long size = MemoryUtil.OBJECT_HEADER_SIZE;
+
+			for(Class<?> current = clazz; current != null; current = current.getSuperclass()){
+				Field[] fields = current.getDeclaredFields();
+
+				for(Field field : fields){
+
+					if(Modifier.isStatic(field.getModifiers())){
+						continue;
+					}
+
+					Class<?> type = field.getType();
+
+					size += sizeOf(type);
+
+					// The internals of JDK classes are not accessible on newer Java versions
+					if(system || type.isPrimitive()){
+						continue;
+					}
+
+					try {
+						field.setAccessible(true);
+					} catch(RuntimeException re){
+						continue;
+					}
+
+					this.referenceFields.add(field);
+				}
+			}
+
+			this.size = align(size);
+		}
+
+		public long getSize(){
+			return this.size;
+		}
+
+		public List<Field> getReferenceFields(){
+			return this.referenceFields;
+		}
+	}
+
+	private static final ConcurrentMap<Class<?>, ClassInfo> classInfos = new ConcurrentHashMap<Class<?>, ClassInfo>();
+
+	private static final int OBJECT_HEADER_SIZE = 12;
+
+	private static final int ARRAY_HEADER_SIZE = 16;
+
+	private static final int REFERENCE_SIZE = 4;
+
+	private static final int MAP_ENTRY_SIZE = 32;
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright (c) 2014 Villu Ruusmann
+ *
+ * This file is part of Openscoring
+ *
+ * Openscoring is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Openscoring is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Openscoring.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openscoring.service;
+
+import java.io.*;
+
+import javax.ws.rs.*;
+import javax.ws.rs.core.*;
+
+import com.google.inject.*;
+
+import com.codahale.metrics.*;
+
+@Path("metrics")
+public class MetricsService {
+
+	private MetricRegistry metrics = null;
+
+
+	@Inject
+	public MetricsService(MetricRegistry metrics){
+		this.metrics = metrics;
+	}
+
+	@GET
+	@Produces(MetricsService.TEXT_PROMETHEUS)
+	public StreamingOutput getPrometheusMetrics(){
+		StreamingOutput result = new StreamingOutput(){
+
+			@Override
+			public void write(OutputStream os) throws IOException {
+				Writer writer = new BufferedWriter(new OutputStreamWriter(os, "UTF-8"));
+
+				MetricsUtil.writePrometheus(MetricsService.this.metrics, writer);
+			}
+		};
+
+		return result;
+	}
+
+	@GET
+	@Produces(MediaType.APPLICATION_JSON)
+	public StreamingOutput getJsonMetrics(){
+		StreamingOutput result = new StreamingOutput(){
+
+			@Override
+			public void write(OutputStream os) throws IOException {
+				MetricsUtil.writeJson(MetricsService.this.metrics, os);
+			}
+		};
+
+		return result;
+	}
+
+	public static final String TEXT_PROMETHEUS = "text/plain; version=0.0.4";
+}
@@ -0,0 +1,534 @@
+/*
+ * Copyright (c) 2014 Villu Ruusmann
+ *
+ * This file is part of Openscoring
+ *
+ * Openscoring is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Openscoring is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Openscoring.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openscoring.service;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import com.google.common.base.Function;
+import com.google.common.base.Predicate;
+import com.google.common.collect.*;
+
+import com.codahale.metrics.*;
+import com.codahale.metrics.Timer;
+
+import org.codehaus.jackson.*;
+
+public class MetricsUtil {
+
+	private MetricsUtil(){
+	}
+
+	/**
+	 * Writes all metrics in Prometheus text exposition format (version 0.0.4).
+	 *
+	 * Per-model metrics ("model.&lt;id&gt;.&lt;name&gt;") are written as "openscoring_model_&lt;name&gt;" metric families with a "model" label.
+	 *
+	 * Histograms and timers are written as summaries without the "_sum" sample.
+	 * They do not keep a running total of the recorded values, and a total that is estimated from their decaying reservoir would not be monotonic, so <code>rate()</code> over it would be meaningless.
+	 * Latencies are available as quantiles, and throughput as <code>rate()</code> over the "_total" counter of a timer.
+	 */
+	static
+	public void writePrometheus(MetricRegistry registry, Writer writer) throws IOException {
+		PrometheusWriter prometheusWriter = new PrometheusWriter(writer);
+
+		prometheusWriter.writeGauges(getGauges(registry));
+		prometheusWriter.writeCounters(registry.getCounters());
+		prometheusWriter.writeHistograms(registry.getHistograms());
+		prometheusWriter.writeMeters(registry.getMeters());
+		prometheusWriter.writeTimers(registry.getTimers());
+
+		writer.flush();
+	}
+
+	/**
+	 * Writes all metrics as a JSON object. Durations are in milliseconds, rates are per second.
+	 */
+	static
+	public void writeJson(MetricRegistry registry, OutputStream os) throws IOException {
+		JsonGenerator generator = MetricsUtil.jsonFactory.createJsonGenerator(os, JsonEncoding.UTF8);
+
+		try {
+			generator.writeStartObject();
+
+			generator.writeObjectFieldStart("gauges");
+
+			SortedMap<String, Gauge<?>> gauges = getGauges(registry);
+			for(Map.Entry<String, Gauge<?>> entry : gauges.entrySet()){
+				Object value;
+
+				try {
+					value = (entry.getValue()).getValue();
+				} catch(RuntimeException re){
+					continue;
+				}
+
+				generator.writeObjectFieldStart(entry.getKey());
+
+				if(value instanceof Number || value instanceof Boolean || value instanceof String){
+					generator.writeFieldName("value");
+					generator.writeObject(value);
+				} else
+
+				{
+					generator.writeStringField("value", String.valueOf(value));
+				}
+
+				generator.writeEndObject();
+			}
+
+			generator.writeEndObject();
+
+			generator.writeObjectFieldStart("counters");
+
+			SortedMap<String, Counter> counters = registry.getCounters();
+			for(Map.Entry<String, Counter> entry : counters.entrySet()){
+				generator.writeObjectFieldStart(entry.getKey());
+				generator.writeNumberField("count", (entry.getValue()).getCount());
+				generator.writeEndObject();
+			}
+
+			generator.writeEndObject();
+
+			generator.writeObjectFieldStart("histograms");
+
+			SortedMap<String, Histogram> histograms = registry.getHistograms();
+			for(Map.Entry<String, Histogram> entry : histograms.entrySet()){
+				Histogram histogram = entry.getValue();
+
+				generator.writeObjectFieldStart(entry.getKey());
+				generator.writeNumberField("count", histogram.getCount());
+				writeJsonSnapshot(generator, histogram.getSnapshot(), 1d);
+				generator.writeEndObject();
+			}
+
+			generator.writeEndObject();
+
+			generator.writeObjectFieldStart("meters");
+
+			SortedMap<String, Meter> meters = registry.getMeters();
+			for(Map.Entry<String, Meter> entry : meters.entrySet()){
+				generator.writeObjectFieldStart(entry.getKey());
+				writeJsonMetered(generator, entry.getValue());
+				generator.writeEndObject();
+			}
+
+			generator.writeEndObject();
+
+			generator.writeObjectFieldStart("timers");
+
+			SortedMap<String, Timer> timers = registry.getTimers();
+			for(Map.Entry<String, Timer> entry : timers.entrySet()){
+				Timer timer = entry.getValue();
+
+				generator.writeObjectFieldStart(entry.getKey());
+				writeJsonMetered(generator, timer);
+				writeJsonSnapshot(generator, timer.getSnapshot(), 1d / TimeUnit.MILLISECONDS.toNanos(1));
+				generator.writeEndObject();
+			}
+
+			generator.writeEndObject();
+
+			generator.writeEndObject();
+		} finally {
+			generator.close();
+		}
+	}
+
+	static
+	private void writeJsonMetered(JsonGenerator generator, Metered metered) throws IOException {
+		generator.writeNumberField("count", metered.getCount());
+		generator.writeNumberField("mean_rate", metered.getMeanRate());
+		generator.writeNumberField("m1_rate", metered.getOneMinuteRate());
+		generator.writeNumberField("m5_rate", metered.getFiveMinuteRate());
+		generator.writeNumberField("m15_rate", metered.getFifteenMinuteRate());
+	}
+
+	static
+	private void writeJsonSnapshot(JsonGenerator generator, Snapshot snapshot, double factor) throws IOException {
+		generator.writeNumberField("min", snapshot.getMin() * factor);
+		generator.writeNumberField("max", snapshot.getMax() * factor);
+		generator.writeNumberField("mean", snapshot.getMean() * factor);
+		generator.writeNumberField("stddev", snapshot.getStdDev() * factor);
+
+		for(int i = 0; i < MetricsUtil.QUANTILES.length; i++){
+			generator.writeNumberField(MetricsUtil.QUANTILE_NAMES[i], snapshot.getValue(MetricsUtil.QUANTILES[i]) * factor);
+		}
+	}
+
+	/**
+	 * The metric registry returns gauges as raw types.
+	 * The map is cast rather than copied, because it is read on every scrape.
+	 */
+	@SuppressWarnings (
+		value = {"rawtypes", "unchecked"}
+	)
+	static
+	private SortedMap<String, Gauge<?>> getGauges(MetricRegistry registry){
+		SortedMap gauges = registry.getGauges();
+
+		return (SortedMap<String, Gauge<?>>)gauges;
+	}
+
+	/**
+	 * Writes metrics straight from the sorted maps of the metric registry.
+	 * The samples of a per-model metric family are selected from the map in a separate pass, so that nothing is collected per model.
+	 */
+	static
+	private class PrometheusWriter {
+
+		private Writer writer = null;
+
+
+		public PrometheusWriter(Writer writer){
+			this.writer = writer;
+		}
+
+		public void writeGauges(SortedMap<String, Gauge<?>> gauges) throws IOException {
+
+			for(Map.Entry<String, Gauge<?>> entry : gauges.entrySet()){
+
+				if(!isModelMetric(entry.getKey())){
+					writeGauge(sanitize(entry.getKey()), (Collections.<String, Gauge<?>>singletonMap(null, entry.getValue())).entrySet());
+				}
+			}
+
+			for(String metric : getModelMetrics(gauges)){
+				writeGauge(MetricsUtil.MODEL_PREFIX + sanitize(metric), selectModelMetric(gauges, metric));
+			}
+		}
+
+		private void writeGauge(String family, Iterable<Map.Entry<String, Gauge<?>>> gauges) throws IOException {
+			boolean typed = false;
+
+			for(Map.Entry<String, Gauge<?>> entry : gauges){
+				double value;
+
+				try {
+					Object object = (entry.getValue()).getValue();
+
+					if(object instanceof Number){
+						value = ((Number)object).doubleValue();
+					} else
+
+					if(object instanceof Boolean){
+						value = ((Boolean)object).booleanValue() ? 1d : 0d;
+					} else
+
+					{
+						continue;
+					}
+				} catch(RuntimeException re){
+					continue;
+				}
+
+				if(!typed){
+					writeType(family, "gauge");
+
+					typed = true;
+				}
+
+				writeSample(family, entry.getKey(), null, value);
+			}
+		}
+
+		public void writeCounters(SortedMap<String, Counter> counters) throws IOException {
+
+			for(Map.Entry<String, Counter> entry : counters.entrySet()){
+
+				if(!isModelMetric(entry.getKey())){
+					writeCounter(sanitize(entry.getKey()), (Collections.singletonMap((String)null, entry.getValue())).entrySet());
+				}
+			}
+
+			for(String metric : getModelMetrics(counters)){
+				writeCounter(MetricsUtil.MODEL_PREFIX + sanitize(metric), selectModelMetric(counters, metric));
+			}
+		}
+
+		private void writeCounter(String family, Iterable<Map.Entry<String, Counter>> counters) throws IOException {
+			// Counters can be decremented
+			writeType(family, "gauge");
+
+			for(Map.Entry<String, Counter> entry : counters){
+				writeSample(family, entry.getKey(), null, (entry.getValue()).getCount());
+			}
+		}
+
+		public void writeHistograms(SortedMap<String, Histogram> histograms) throws IOException {
+
+			for(Map.Entry<String, Histogram> entry : histograms.entrySet()){
+
+				if(!isModelMetric(entry.getKey())){
+					writeHistogram(sanitize(entry.getKey()), (Collections.singletonMap((String)null, entry.getValue())).entrySet());
+				}
+			}
+
+			for(String metric : getModelMetrics(histograms)){
+				writeHistogram(MetricsUtil.MODEL_PREFIX + sanitize(metric), selectModelMetric(histograms, metric));
+			}
+		}
+
+		private void writeHistogram(String family, Iterable<Map.Entry<String, Histogram>> histograms) throws IOException {
+			writeType(family, "summary");
+
+			for(Map.Entry<String, Histogram> entry : histograms){
+				Histogram histogram = entry.getValue();
+
+				writeSummary(family, entry.getKey(), histogram.getSnapshot(), histogram.getCount(), 1d);
+			}
+		}
+
+		public void writeMeters(SortedMap<String, Meter> meters) throws IOException {
+
+			for(Map.Entry<String, Meter> entry : meters.entrySet()){
+
+				if(!isModelMetric(entry.getKey())){
+					writeMetered(sanitize(entry.getKey()), (Collections.singletonMap((String)null, entry.getValue())).entrySet());
+				}
+			}
+
+			for(String metric : getModelMetrics(meters)){
+				writeMetered(MetricsUtil.MODEL_PREFIX + sanitize(metric), selectModelMetric(meters, metric));
+			}
+		}
+
+		private void writeMetered(String family, Iterable<? extends Map.Entry<String, ? extends Metered>> metereds) throws IOException {
+			writeType(family + "_total", "counter");
+
+			for(Map.Entry<String, ? extends Metered> entry : metereds){
+				writeSample(family + "_total", entry.getKey(), null, (entry.getValue()).getCount());
+			}
+
+			writeType(family + "_m1_rate", "gauge");
+
+			for(Map.Entry<String, ? extends Metered> entry : metereds){
+				writeSample(family + "_m1_rate", entry.getKey(), null, (entry.getValue()).getOneMinuteRate());
+			}
+		}
+
+		public void writeTimers(SortedMap<String, Timer> timers) throws IOException {
+
+			for(Map.Entry<String, Timer> entry : timers.entrySet()){
+
+				if(!isModelMetric(entry.getKey())){
+					writeTimer(sanitize(entry.getKey()), (Collections.singletonMap((String)null, entry.getValue())).entrySet());
+				}
+			}
+
+			for(String metric : getModelMetrics(timers)){
+				writeTimer(MetricsUtil.MODEL_PREFIX + sanitize(metric), selectModelMetric(timers, metric));
+			}
+		}
+
+		private void writeTimer(String family, Iterable<Map.Entry<String, Timer>> timers) throws IOException {
+			writeType(family + "_seconds", "summary");
+
+			for(Map.Entry<String, Timer> entry : timers){
+				Timer timer = entry.getValue();
+
+				writeSummary(family + "_seconds", entry.getKey(), timer.getSnapshot(), timer.getCount(), 1d / TimeUnit.SECONDS.toNanos(1));
+			}
+
+			writeMetered(family, timers);
+		}
+
+		private void writeSummary(String family, String model, Snapshot snapshot, long count, double factor) throws IOException {
+
+			// The "_sum" sample is omitted (see above)
+
+			for(int i = 0; i < MetricsUtil.QUANTILES.length; i++){
+				writeSample(family, model, MetricsUtil.QUANTILE_LABELS[i], snapshot.getValue(MetricsUtil.QUANTILES[i]) * factor);
+			}
+
+			writeSample(family + "_count", model, null, count);
+		}
+
+		private void writeType(String family, String type) throws IOException {
+			this.writer.write("# TYPE ");
+			this.writer.write(family);
+			this.writer.write(' ');
+			this.writer.write(type);
+			this.writer.write('\n');
+		}
+
+		private void writeSample(String family, String model, String quantile, double value) throws IOException {
+			this.writer.write(family);
+
+			if(model != null || quantile != null){
+				this.writer.write('{');
+
+				if(model != null){
+					this.writer.write("model=\"");
+					writeLabelValue(model);
+					this.writer.write('\"');
+				} // End if
+
+				if(quantile != null){
+
+					if(model != null){
+						this.writer.write(',');
+					}
+
+					this.writer.write("quantile=\"");
+					this.writer.write(quantile);
+					this.writer.write('\"');
+				}
+
+				this.writer.write('}');
+			}
+
+			this.writer.write(' ');
+
+			if(Double.isNaN(value)){
+				this.writer.write("NaN");
+			} else
+
+			if(Double.isInfinite(value)){
+				this.writer.write(value > 0 ? "+Inf" : "-Inf");
+			} else
+
+			if(value == Math.rint(value) && Math.abs(value) < 1e15){
+				this.writer.write(Long.toString((long)value));
+			} else
+
+			{
+				this.writer.write(Double.toString(value));
+			}
+
+			this.writer.write('\n');
+		}
+
+		private void writeLabelValue(String value) throws IOException {
+
+			for(int i = 0; i < value.length(); i++){
+				char c = value.charAt(i);
+
+				switch(c){
+					case '\\':
+						this.writer.write("\\\\");
+						break;
+					case '\"':
+						this.writer.write("\\\"");
+						break;
+					case '\n':
+						this.writer.write("\\n");
+						break;
+					default:
+						this.writer.write(c);
+						break;
+				}
+			}
+		}
+	}
+
+	static
+	private boolean isModelMetric(String name){
+		int begin = ModelMetricsRegistry.PREFIX.length() + 1;
+		int end = name.lastIndexOf('.');
+
+		return (name.startsWith(ModelMetricsRegistry.PREFIX + ".") && end >= begin);
+	}
+
+	/**
+	 * @return The names of per-model metrics (ie. the "&lt;name&gt;" part of "model.&lt;id&gt;.&lt;name&gt;").
+	 */
+	static
+	private SortedSet<String> getModelMetrics(SortedMap<String, ?> metrics){
+		SortedSet<String> result = new TreeSet<String>();
+
+		for(String name : (getModelRange(metrics)).keySet()){
+
+			if(isModelMetric(name)){
+				result.add(name.substring(name.lastIndexOf('.') + 1));
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * @return A view of the per-model metric, which maps model ids to metrics in model id order.
+	 */
+	static
+	private <M extends Metric> Iterable<Map.Entry<String, M>> selectModelMetric(SortedMap<String, M> metrics, final String metric){
+		Predicate<Map.Entry<String, M>> predicate = new Predicate<Map.Entry<String, M>>(){
+
+			@Override
+			public boolean apply(Map.Entry<String, M> entry){
+				String name = entry.getKey();
+
+				int end = name.lastIndexOf('.');
+
+				return isModelMetric(name) && (name.length() - (end + 1)) == metric.length() && name.startsWith(metric, end + 1);
+			}
+		};
+
+		Function<Map.Entry<String, M>, Map.Entry<String, M>> function = new Function<Map.Entry<String, M>, Map.Entry<String, M>>(){
+
+			@Override
+			public Map.Entry<String, M> apply(Map.Entry<String, M> entry){
+				String name = entry.getKey();
+
+				return Maps.immutableEntry(name.substring(ModelMetricsRegistry.PREFIX.length() + 1, name.lastIndexOf('.')), entry.getValue());
+			}
+		};
+
+		return Iterables.transform(Iterables.filter((getModelRange(metrics)).entrySet(), predicate), function);
+	}
+
+	/**
+	 * Per-model metrics are contiguous in the sorted map, because they share the same prefix.
+	 */
+	static
+	private <M> SortedMap<String, M> getModelRange(SortedMap<String, M> metrics){
+		// The character '/' follows the character '.'
+		return metrics.subMap(ModelMetricsRegistry.PREFIX + ".", ModelMetricsRegistry.PREFIX + "/");
+	}
+
+	static
+	private String sanitize(String name){
+		StringBuilder sb = new StringBuilder(name.length());
+
+		for(int i = 0; i < name.length(); i++){
+			char c = name.charAt(i);
+
+			if((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9' && i > 0) || c == '_' || c == ':'){
+				sb.append(c);
+			} else
+
+			{
+				sb.append('_');
+			}
+		}
+
+		return sb.toString();
+	}
+
+	private static final JsonFactory jsonFactory = new JsonFactory();
+
+	private static final String MODEL_PREFIX = "openscoring_model_";
+
+	private static final double[] QUANTILES = {0.5d, 0.75d, 0.95d, 0.98d, 0.99d, 0.999d};
+
+	private static final String[] QUANTILE_LABELS = {"0.5", "0.75", "0.95", "0.98", "0.99", "0.999"};
+
+	private static final String[] QUANTILE_NAMES = {"p50", "p75", "p95", "p98", "p99", "p999"};
+}
@@ -0,0 +1,228 @@
+/*
+ * Copyright (c) 2014 Villu Ruusmann
+ *
+ * This file is part of Openscoring
+ *
+ * Openscoring is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Openscoring is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Openscoring.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openscoring.service;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.*;
+
+import org.openscoring.common.*;
+
+import com.google.common.util.concurrent.*;
+import com.google.inject.*;
+
+/**
+ * Runs model deployments on a bounded pool of deploy threads, so that parsing and compiling large models does not hold up request threads.
+ */
+@Singleton
+public class ModelDeployer {
+
+	private ThreadPoolExecutor executor = null;
+
+	// Keyed by normalized id. Holds the status of the latest deployment
+	private ConcurrentMap<String, DeploymentStatusResponse> statuses = new ConcurrentHashMap<String, DeploymentStatusResponse>();
+
+	// Keyed by normalized id
+	private Striped<Lock> locks = Striped.lock(64);
+
+	// Keyed by normalized id. Holds the deploy and undeploy requests that are in progress
+	private Map<String, Sequence> sequences = new HashMap<String, Sequence>();
+
+	private long counter = 0L;
+
+
+	// Models are deployed on request threads
+	public ModelDeployer(){
+	}
+
+	public ModelDeployer(int threads, int queueSize){
+		ThreadFactory threadFactory = new ThreadFactoryBuilder()
+			.setNameFormat("model-deployer-%d")
+			.setDaemon(true)
+			.build();
+
+		this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(queueSize), threadFactory, new ThreadPoolExecutor.AbortPolicy());
+	}
+
+	public boolean isAsynchronous(){
+		return (this.executor != null);
+	}
+
+	/**
+	 * Returns the lock that orders the persisting and publishing (or unpublishing) of the model.
+	 * Deploys and undeploys of the same model must hold it while they update the model store and the model registry.
+	 */
+	public Lock getLock(String id){
+		return this.locks.get(normalize(id));
+	}
+
+	/**
+	 * Registers a deploy or undeploy request of the model.
+	 * Every call must be paired with a call to {@link #end(String, long)}.
+	 *
+	 * @return The sequence number of the request.
+	 */
+	public long begin(String id){
+		String key = normalize(id);
+
+		synchronized(this.sequences){
+			Sequence sequence = this.sequences.get(key);
+
+			if(sequence == null){
+				sequence = new Sequence();
+
+				this.sequences.put(key, sequence);
+			}
+
+			sequence.latest = ++this.counter;
+			sequence.active++;
+
+			return sequence.latest;
+		}
+	}
+
+	/**
+	 * Must be called while holding the lock of the model.
+	 *
+	 * @return <code>true</code> if a newer request of the same model has been completed already, <code>false</code> otherwise.
+	 *
+	 * @see #getLock(String)
+	 */
+	public boolean isSuperseded(String id, long sequence){
+
+		synchronized(this.sequences){
+			return (sequence < (this.sequences.get(normalize(id))).completed);
+		}
+	}
+
+	/**
+	 * Must be called while holding the lock of the model, after the request has updated the model store and the model registry.
+	 *
+	 * @see #getLock(String)
+	 */
+	public void complete(String id, long sequence){
+
+		synchronized(this.sequences){
+			(this.sequences.get(normalize(id))).completed = sequence;
+		}
+	}
+
+	public void end(String id, long sequence){
+		String key = normalize(id);
+
+		synchronized(this.sequences){
+			Sequence value = this.sequences.get(key);
+
+			// Requests that are not in progress cannot be superseded
+			if(--value.active == 0){
+				this.sequences.remove(key);
+			}
+		}
+	}
+
+	public DeploymentStatusResponse getStatus(String id){
+		return this.statuses.get(normalize(id));
+	}
+
+	/**
+	 * Forgets the status of the model, unless a newer request of the same model has been registered.
+	 */
+	public void removeStatus(String id, long sequence){
+		String key = normalize(id);
+
+		synchronized(this.sequences){
+			Sequence value = this.sequences.get(key);
+
+			if(value != null && value.latest > sequence){
+				return;
+			}
+
+			this.statuses.remove(key);
+		}
+	}
+
+	/**
+	 * @throws RejectedExecutionException If the deploy queue is full.
+	 */
+	public DeploymentStatusResponse submit(String id, final Callable<?> task){
+		final
+		String key = normalize(id);
+
+		final
+		DeploymentStatusResponse pending = new DeploymentStatusResponse(id, DeploymentStatusResponse.Status.PENDING);
+
+		final
+		DeploymentStatusResponse deploying = new DeploymentStatusResponse(id, DeploymentStatusResponse.Status.DEPLOYING);
+
+		Runnable runnable = new Runnable(){
+
+			@Override
+			public void run(){
+				update(key, pending, deploying);
+
+				try {
+					task.call();
+
+					update(key, deploying, new DeploymentStatusResponse(deploying.getId(), DeploymentStatusResponse.Status.DEPLOYED));
+				} catch(Exception e){
+					update(key, deploying, new DeploymentStatusResponse(deploying.getId(), DeploymentStatusResponse.Status.FAILED, String.valueOf(e)));
+				}
+			}
+		};
+
+		this.statuses.put(key, pending);
+
+		try {
+			this.executor.execute(runnable);
+		} catch(RejectedExecutionException ree){
+			this.statuses.remove(key, pending);
+
+			throw ree;
+		}
+
+		return pending;
+	}
+
+	public void shutdown(){
+
+		if(this.executor != null){
+			this.executor.shutdown();
+		}
+	}
+
+	private void update(String key, DeploymentStatusResponse expectedStatus, DeploymentStatusResponse status){
+		// A newer deployment of the same model owns the status
+		this.statuses.replace(key, expectedStatus, status);
+	}
+
+	static
+	private String normalize(String id){
+		return id.toLowerCase(Locale.ROOT);
+	}
+
+	static
+	private class Sequence {
+
+		private long latest = 0L;
+
+		private long completed = 0L;
+
+		private int active = 0;
+	}
+}
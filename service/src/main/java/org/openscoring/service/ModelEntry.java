@@ -0,0 +1,210 @@
+/*
+ * Copyright (c) 2014 Villu Ruusmann
+ *
+ * This file is part of Openscoring
+ *
+ * Openscoring is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Openscoring is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Openscoring.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openscoring.service;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.openscoring.common.*;
+
+import org.jpmml.evaluator.*;
+import org.jpmml.manager.*;
+
+import org.dmg.pmml.*;
+
+public class ModelEntry {
+
+	private String id = null;
+
+	private int version = 0;
+
+	private PMML pmml = null;
+
+	private Evaluator evaluator = null;
+
+	private List<FieldName> activeFields = null;
+
+	private List<FieldName> groupFields = null;
+
+	private List<FieldName> targetFields = null;
+
+	private List<FieldName> outputFields = null;
+
+	private ResultCache cache = null;
+
+	private BinaryCodec codec = null;
+
+	private ModelMetrics metrics = null;
+
+	private long heapSize = 0;
+
+	private volatile long accessTime = 0;
+
+
+	private ModelEntry(){
+	}
+
+	public ModelEntry(PMML pmml){
+		this(pmml, null);
+	}
+
+	public ModelEntry(PMML pmml, ResultCache cache){
+		this(pmml, cache, null);
+	}
+
+	public ModelEntry(PMML pmml, ResultCache cache, ModelMetrics metrics){
+		PMMLManager pmmlManager = new PMMLManager(pmml);
+
+		Evaluator evaluator = (Evaluator)pmmlManager.getModelManager(null, ModelEvaluatorFactory.getInstance());
+
+		this.pmml = pmml;
+		this.evaluator = evaluator;
+
+		// The evaluator recomputes field lists from the mining schema on every call
+		this.activeFields = Collections.unmodifiableList(new ArrayList<FieldName>(evaluator.getActiveFields()));
+		this.groupFields = Collections.unmodifiableList(new ArrayList<FieldName>(evaluator.getGroupFields()));
+		this.targetFields = Collections.unmodifiableList(new ArrayList<FieldName>(evaluator.getTargetFields()));
+		this.outputFields = Collections.unmodifiableList(new ArrayList<FieldName>(evaluator.getOutputFields()));
+
+		List<String> argumentFields = new ArrayList<String>();
+		argumentFields.addAll(toValueList(this.activeFields));
+		argumentFields.addAll(toValueList(this.groupFields));
+
+		List<String> resultFields = new ArrayList<String>();
+		resultFields.addAll(toValueList(this.targetFields));
+		resultFields.addAll(toValueList(this.outputFields));
+
+		this.codec = new BinaryCodec(argumentFields, resultFields);
+
+		this.cache = cache;
+		this.metrics = metrics;
+	}
+
+	public String getId(){
+		return this.id;
+	}
+
+	void setId(String id){
+		this.id = id;
+	}
+
+	public int getVersion(){
+		return this.version;
+	}
+
+	void setVersion(int version){
+		this.version = version;
+	}
+
+	public PMML getPMML(){
+		return this.pmml;
+	}
+
+	public Evaluator getEvaluator(){
+		return this.evaluator;
+	}
+
+	public List<FieldName> getActiveFields(){
+		return this.activeFields;
+	}
+
+	public List<FieldName> getGroupFields(){
+		return this.groupFields;
+	}
+
+	public List<FieldName> getTargetFields(){
+		return this.targetFields;
+	}
+
+	public List<FieldName> getOutputFields(){
+		return this.outputFields;
+	}
+
+	public ResultCache getCache(){
+		return this.cache;
+	}
+
+	public BinaryCodec getCodec(){
+		return this.codec;
+	}
+
+	public ModelMetrics getMetrics(){
+		return this.metrics;
+	}
+
+	/**
+	 * @return The estimated retained heap size of the model in bytes.
+	 */
+	public long getHeapSize(){
+		return this.heapSize;
+	}
+
+	void setHeapSize(long heapSize){
+		this.heapSize = heapSize;
+	}
+
+	long getAccessTime(){
+		return this.accessTime;
+	}
+
+	void setAccessTime(long accessTime){
+		this.accessTime = accessTime;
+	}
+
+	void touch(long time){
+
+		// Hot models are accessed by many threads at once, so most accesses should not write to this field
+		if(time - this.accessTime > ModelEntry.TOUCH_INTERVAL){
+			this.accessTime = time;
+		}
+	}
+
+	/**
+	 * @return A copy of this entry that does not hold on to the model and the evaluator.
+	 */
+	ModelEntry detach(){
+		ModelEntry result = new ModelEntry();
+		result.id = this.id;
+		result.version = this.version;
+		result.activeFields = this.activeFields;
+		result.groupFields = this.groupFields;
+		result.targetFields = this.targetFields;
+		result.outputFields = this.outputFields;
+		result.cache = this.cache;
+		result.codec = this.codec;
+		result.metrics = this.metrics;
+		result.heapSize = this.heapSize;
+		result.accessTime = this.accessTime;
+
+		return result;
+	}
+
+	static
+	private List<String> toValueList(List<FieldName> names){
+		List<String> result = new ArrayList<String>(names.size());
+
+		for(FieldName name : names){
+			result.add(name.getValue());
+		}
+
+		return result;
+	}
+
+	private static final long TOUCH_INTERVAL = TimeUnit.MILLISECONDS.toNanos(1);
+}
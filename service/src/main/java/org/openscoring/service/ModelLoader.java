@@ -0,0 +1,189 @@
+/*
+ * Copyright (c) 2014 Villu Ruusmann
+ *
+ * This file is part of Openscoring
+ *
+ * Openscoring is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Openscoring is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Openscoring.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openscoring.service;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.*;
+import java.util.logging.*;
+
+import com.google.common.util.concurrent.*;
+import com.google.inject.*;
+
+/**
+ * Restores persisted models into the registry.
+ *
+ * Models are loaded in parallel, and every model becomes available for evaluation as soon as it has been loaded.
+ */
+@Singleton
+public class ModelLoader {
+
+	private ModelRegistry registry = null;
+
+	private ModelStore store = null;
+
+	private ResultCacheFactory cacheFactory = null;
+
+	private ModelWarmer warmer = null;
+
+	private ModelDeployer deployer = null;
+
+	private ModelMetricsRegistry metricsRegistry = null;
+
+	private AtomicInteger loaded = new AtomicInteger(0);
+
+	private AtomicInteger failed = new AtomicInteger(0);
+
+	private CountDownLatch completion = new CountDownLatch(1);
+
+
+	@Inject
+	public ModelLoader(ModelRegistry registry, ModelStore store, ResultCacheFactory cacheFactory, ModelWarmer warmer, ModelDeployer deployer, ModelMetricsRegistry metricsRegistry){
+		this.registry = registry;
+		this.store = store;
+		this.cacheFactory = cacheFactory;
+		this.warmer = warmer;
+		this.deployer = deployer;
+		this.metricsRegistry = metricsRegistry;
+	}
+
+	/**
+	 * Loads all persisted models in the background.
+	 */
+	public void start(int threads){
+		final
+		List<File> files = this.store.listFiles();
+
+		if(files.isEmpty()){
+			this.completion.countDown();
+
+			return;
+		}
+
+		ThreadFactory threadFactory = new ThreadFactoryBuilder()
+			.setNameFormat("model-loader-%d")
+			.setDaemon(true)
+			.build();
+
+		final
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, files.size())), threadFactory);
+
+		final
+		CountDownLatch remaining = new CountDownLatch(files.size());
+
+		for(final File file : files){
+			Runnable task = new Runnable(){
+
+				@Override
+				public void run(){
+
+					try {
+						load(file);
+					} finally {
+						remaining.countDown();
+					}
+				}
+			};
+
+			executor.execute(task);
+		}
+
+		executor.shutdown();
+
+		Runnable monitor = new Runnable(){
+
+			@Override
+			public void run(){
+
+				try {
+					remaining.await();
+				} catch(InterruptedException ie){
+					Thread.currentThread().interrupt();
+
+					return;
+				}
+
+				ModelLoader.this.completion.countDown();
+			}
+		};
+
+		threadFactory.newThread(monitor).start();
+	}
+
+	public boolean isComplete(){
+		return (this.completion.getCount() == 0);
+	}
+
+	public boolean await(long timeout, TimeUnit unit) throws InterruptedException {
+		return this.completion.await(timeout, unit);
+	}
+
+	public int getLoaded(){
+		return this.loaded.get();
+	}
+
+	public int getFailed(){
+		return this.failed.get();
+	}
+
+	private void load(File file){
+
+		try {
+			ModelStore.StoredModel model = this.store.load(file);
+
+			String id = model.getId();
+
+			long sequence = this.deployer.begin(id);
+
+			try {
+				ModelMetrics metrics = this.metricsRegistry.create(id);
+
+				ModelEntry entry = new ModelEntry(model.getPMML(), this.cacheFactory.create(metrics), metrics);
+
+				this.warmer.warmUp(entry);
+
+				Lock lock = this.deployer.getLock(id);
+
+				lock.lock();
+
+				try {
+
+					// A model that was (re-)deployed or undeployed while loading takes precedence over the persisted one
+					if(!this.deployer.isSuperseded(id, sequence) && this.registry.putIfAbsent(id, entry)){
+						this.metricsRegistry.register(id, entry.getMetrics());
+					}
+				} finally {
+					lock.unlock();
+				}
+			} finally {
+				this.deployer.end(id, sequence);
+			}
+
+			this.loaded.incrementAndGet();
+		} catch(Exception e){
+			this.failed.incrementAndGet();
+
+			logger.log(Level.WARNING, "Failed to load model from " + file.getAbsolutePath(), e);
+		}
+	}
+
+	private static final Logger logger = Logger.getLogger(ModelLoader.class.getName());
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright (c) 2014 Villu Ruusmann
+ *
+ * This file is part of Openscoring
+ *
+ * Openscoring is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Openscoring is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Openscoring.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openscoring.service;
+
+import java.util.concurrent.*;
+
+import com.codahale.metrics.*;
+import com.codahale.metrics.Timer;
+
+/**
+ * Metrics of a single model.
+ */
+public class ModelMetrics {
+
+	private Timer requests = null;
+
+	private Meter records = null;
+
+	private Histogram batchSize = null;
+
+	private Counter errors = null;
+
+	private Timer warmUp = null;
+
+	private volatile long warmUpColdLatency = 0;
+
+	private volatile long warmUpWarmLatency = 0;
+
+	private volatile long heapSize = 0;
+
+	private Counter evictions = null;
+
+	private Timer reload = null;
+
+	private Counter cacheHits = null;
+
+	private Counter cacheMisses = null;
+
+	private Counter cacheEvictions = null;
+
+
+	public ModelMetrics(){
+		this.requests = new Timer(new HdrHistogramReservoir());
+		this.records = new Meter();
+		this.batchSize = new Histogram(new HdrHistogramReservoir());
+		this.errors = new Counter();
+		this.warmUp = new Timer(new HdrHistogramReservoir());
+		this.evictions = new Counter();
+		this.reload = new Timer(new HdrHistogramReservoir());
+		this.cacheHits = new Counter();
+		this.cacheMisses = new Counter();
+		this.cacheEvictions = new Counter();
+	}
+
+	public Timer.Context time(){
+		return this.requests.time();
+	}
+
+	/**
+	 * @param records The number of records that were evaluated for a single request.
+	 */
+	public void update(int records){
+		this.records.mark(records);
+		this.batchSize.update(records);
+	}
+
+	public void error(){
+		this.errors.inc();
+	}
+
+	/**
+	 * @param duration The duration of the warm-up phase in nanoseconds.
+	 * @param coldLatency The mean latency of the first evaluations in nanoseconds.
+	 * @param warmLatency The mean latency of the last evaluations in nanoseconds.
+	 */
+	public void warmUp(long duration, long coldLatency, long warmLatency){
+		this.warmUp.update(duration, TimeUnit.NANOSECONDS);
+
+		this.warmUpColdLatency = coldLatency;
+		this.warmUpWarmLatency = warmLatency;
+	}
+
+	/**
+	 * @param heapSize The estimated retained heap size of the model in bytes.
+	 */
+	public void setHeapSize(long heapSize){
+		this.heapSize = heapSize;
+	}
+
+	public void evict(){
+		this.evictions.inc();
+	}
+
+	/**
+	 * @param duration The time it took to reload an evicted model in nanoseconds.
+	 */
+	public void reload(long duration){
+		this.reload.update(duration, TimeUnit.NANOSECONDS);
+	}
+
+	public Timer getRequests(){
+		return this.requests;
+	}
+
+	public Meter getRecords(){
+		return this.records;
+	}
+
+	public Histogram getBatchSize(){
+		return this.batchSize;
+	}
+
+	public Counter getErrors(){
+		return this.errors;
+	}
+
+	public Timer getWarmUp(){
+		return this.warmUp;
+	}
+
+	public Gauge<Long> getWarmUpColdLatency(){
+		return new Gauge<Long>(){
+
+			@Override
+			public Long getValue(){
+				return ModelMetrics.this.warmUpColdLatency;
+			}
+		};
+	}
+
+	public Gauge<Long> getWarmUpWarmLatency(){
+		return new Gauge<Long>(){
+
+			@Override
+			public Long getValue(){
+				return ModelMetrics.this.warmUpWarmLatency;
+			}
+		};
+	}
+
+	public Gauge<Long> getHeapSize(){
+		return new Gauge<Long>(){
+
+			@Override
+			public Long getValue(){
+				return ModelMetrics.this.heapSize;
+			}
+		};
+	}
+
+	public Counter getEvictions(){
+		return this.evictions;
+	}
+
+	public Timer getReload(){
+		return this.reload;
+	}
+
+	public Counter getCacheHits(){
+		return this.cacheHits;
+	}
+
+	public Counter getCacheMisses(){
+		return this.cacheMisses;
+	}
+
+	public Counter getCacheEvictions(){
+		return this.cacheEvictions;
+	}
+}
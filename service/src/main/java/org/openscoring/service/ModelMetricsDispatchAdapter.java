@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2014 Villu Ruusmann
+ *
+ * This file is part of Openscoring
+ *
+ * Openscoring is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Openscoring is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Openscoring.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openscoring.service;
+
+import javax.ws.rs.*;
+import javax.ws.rs.ext.*;
+import javax.ws.rs.ext.Provider;
+
+import com.google.inject.*;
+
+import com.sun.jersey.api.core.*;
+import com.sun.jersey.api.model.*;
+import com.sun.jersey.spi.container.*;
+import com.sun.jersey.spi.dispatch.*;
+
+import com.codahale.metrics.*;
+
+/**
+ * Times evaluation requests, and counts failed evaluation requests, per model.
+ */
+@Provider
+@Singleton
+public class ModelMetricsDispatchAdapter implements ResourceMethodDispatchAdapter {
+
+	private ModelMetricsRegistry metricsRegistry = null;
+
+
+	@Inject
+	public ModelMetricsDispatchAdapter(ModelMetricsRegistry metricsRegistry){
+		this.metricsRegistry = metricsRegistry;
+	}
+
+	@Override
+	public ResourceMethodDispatchProvider adapt(final ResourceMethodDispatchProvider provider){
+		ResourceMethodDispatchProvider result = new ResourceMethodDispatchProvider(){
+
+			@Override
+			public RequestDispatcher create(AbstractResourceMethod method){
+				RequestDispatcher dispatcher = provider.create(method);
+
+				// Evaluation requests are POST requests to a model
+				if(dispatcher == null || !(HttpMethod.POST).equals(method.getHttpMethod())){
+					return dispatcher;
+				}
+
+				return new ModelRequestDispatcher(dispatcher);
+			}
+		};
+
+		return result;
+	}
+
+	private class ModelRequestDispatcher implements RequestDispatcher {
+
+		private RequestDispatcher dispatcher = null;
+
+
+		public ModelRequestDispatcher(RequestDispatcher dispatcher){
+			this.dispatcher = dispatcher;
+		}
+
+		@Override
+		public void dispatch(Object resource, HttpContext context){
+			String id = ((context.getUriInfo()).getPathParameters()).getFirst("id");
+
+			ModelMetrics metrics = (id != null ? ModelMetricsDispatchAdapter.this.metricsRegistry.get(id) : null);
+			if(metrics == null){
+				this.dispatcher.dispatch(resource, context);
+
+				return;
+			}
+
+			Timer.Context timerContext = metrics.time();
+
+			try {
+				this.dispatcher.dispatch(resource, context);
+			} catch(RuntimeException re){
+				metrics.error();
+
+				throw re;
+			} finally {
+				timerContext.stop();
+			}
+		}
+	}
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright (c) 2014 Villu Ruusmann
+ *
+ * This file is part of Openscoring
+ *
+ * Openscoring is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Openscoring is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Openscoring.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openscoring.service;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import com.google.inject.*;
+
+import com.codahale.metrics.*;
+
+/**
+ * Registers the metrics of deployed models with the {@link MetricRegistry}.
+ *
+ * The metrics of a model are named "model.&lt;id&gt;.requests", "model.&lt;id&gt;.records", "model.&lt;id&gt;.batchSize" and "model.&lt;id&gt;.errors".
+ * Models that are warmed up before publication additionally have "model.&lt;id&gt;.warmUp", "model.&lt;id&gt;.warmUpColdLatency" and "model.&lt;id&gt;.warmUpWarmLatency".
+ * The estimated heap size of a model is "model.&lt;id&gt;.heapSize", and its evictions to disk and reloads are "model.&lt;id&gt;.evictions" and "model.&lt;id&gt;.reload".
+ * The hits, misses and evictions of its result cache are "model.&lt;id&gt;.cacheHits", "model.&lt;id&gt;.cacheMisses" and "model.&lt;id&gt;.cacheEvictions".
+ * They are kept across re-deployments, and removed when the model is undeployed.
+ *
+ * Metrics are registered only after the model has been published, so that failed deployments do not leave metrics behind.
+ */
+@Singleton
+public class ModelMetricsRegistry {
+
+	private MetricRegistry metrics = null;
+
+	// Keyed by normalized id
+	private ConcurrentMap<String, ModelMetrics> modelMetrics = new ConcurrentHashMap<String, ModelMetrics>();
+
+
+	// Per-model metrics are not collected
+	public ModelMetricsRegistry(){
+	}
+
+	public ModelMetricsRegistry(MetricRegistry metrics){
+		this.metrics = metrics;
+	}
+
+	public boolean isEnabled(){
+		return (this.metrics != null);
+	}
+
+	public ModelMetrics get(String id){
+		return this.modelMetrics.get(normalize(id));
+	}
+
+	/**
+	 * Gets the metrics for a new version of the model.
+	 *
+	 * @return The registered metrics of the model, or new unregistered metrics if the model does not have any. <code>null</code> if per-model metrics are not collected.
+	 *
+	 * @see #register(String, ModelMetrics)
+	 */
+	public ModelMetrics create(String id){
+
+		if(!isEnabled()){
+			return null;
+		}
+
+		ModelMetrics result = this.modelMetrics.get(normalize(id));
+		if(result != null){
+			return result;
+		}
+
+		return new ModelMetrics();
+	}
+
+	/**
+	 * @return The metrics of the model, or <code>null</code> if per-model metrics are not collected.
+	 */
+	public ModelMetrics register(String id){
+		ModelMetrics result = create(id);
+
+		if(result != null){
+			register(id, result);
+		}
+
+		return result;
+	}
+
+	/**
+	 * Registers the metrics of a model that has been published.
+	 * Metrics that were registered for the same model earlier are replaced.
+	 */
+	public void register(String id, ModelMetrics modelMetrics){
+
+		if(!isEnabled() || modelMetrics == null){
+			return;
+		}
+
+		String key = normalize(id);
+
+		if(this.modelMetrics.get(key) == modelMetrics){
+			return;
+		}
+
+		// Registration and unregistration are rare, and must not interleave
+		synchronized(this){
+			ModelMetrics result = this.modelMetrics.get(key);
+
+			if(result != modelMetrics){
+
+				if(result != null){
+					unregister(id);
+				}
+
+				result = modelMetrics;
+
+				this.modelMetrics.put(key, result);
+
+				this.metrics.register(MetricRegistry.name(ModelMetricsRegistry.PREFIX, key, "requests"), result.getRequests());
+				this.metrics.register(MetricRegistry.name(ModelMetricsRegistry.PREFIX, key, "records"), result.getRecords());
+				this.metrics.register(MetricRegistry.name(ModelMetricsRegistry.PREFIX, key, "batchSize"), result.getBatchSize());
+				this.metrics.register(MetricRegistry.name(ModelMetricsRegistry.PREFIX, key, "errors"), result.getErrors());
+				this.metrics.register(MetricRegistry.name(ModelMetricsRegistry.PREFIX, key, "warmUp"), result.getWarmUp());
+				this.metrics.register(MetricRegistry.name(ModelMetricsRegistry.PREFIX, key, "warmUpColdLatency"), result.getWarmUpColdLatency());
+				this.metrics.register(MetricRegistry.name(ModelMetricsRegistry.PREFIX, key, "warmUpWarmLatency"), result.getWarmUpWarmLatency());
+				this.metrics.register(MetricRegistry.name(ModelMetricsRegistry.PREFIX, key, "heapSize"), result.getHeapSize());
+				this.metrics.register(MetricRegistry.name(ModelMetricsRegistry.PREFIX, key, "evictions"), result.getEvictions());
+				this.metrics.register(MetricRegistry.name(ModelMetricsRegistry.PREFIX, key, "reload"), result.getReload());
+				this.metrics.register(MetricRegistry.name(ModelMetricsRegistry.PREFIX, key, "cacheHits"), result.getCacheHits());
+				this.metrics.register(MetricRegistry.name(ModelMetricsRegistry.PREFIX, key, "cacheMisses"), result.getCacheMisses());
+				this.metrics.register(MetricRegistry.name(ModelMetricsRegistry.PREFIX, key, "cacheEvictions"), result.getCacheEvictions());
+			}
+		}
+	}
+
+	synchronized
+	public void unregister(String id){
+
+		if(!isEnabled()){
+			return;
+		}
+
+		String key = normalize(id);
+
+		ModelMetrics modelMetrics = this.modelMetrics.remove(key);
+		if(modelMetrics != null){
+			this.metrics.remove(MetricRegistry.name(ModelMetricsRegistry.PREFIX, key, "requests"));
+			this.metrics.remove(MetricRegistry.name(ModelMetricsRegistry.PREFIX, key, "records"));
+			this.metrics.remove(MetricRegistry.name(ModelMetricsRegistry.PREFIX, key, "batchSize"));
+			this.metrics.remove(MetricRegistry.name(ModelMetricsRegistry.PREFIX, key, "errors"));
+			this.metrics.remove(MetricRegistry.name(ModelMetricsRegistry.PREFIX, key, "warmUp"));
+			this.metrics.remove(MetricRegistry.name(ModelMetricsRegistry.PREFIX, key, "warmUpColdLatency"));
+			this.metrics.remove(MetricRegistry.name(ModelMetricsRegistry.PREFIX, key, "warmUpWarmLatency"));
+			this.metrics.remove(MetricRegistry.name(ModelMetricsRegistry.PREFIX, key, "heapSize"));
+			this.metrics.remove(MetricRegistry.name(ModelMetricsRegistry.PREFIX, key, "evictions"));
+			this.metrics.remove(MetricRegistry.name(ModelMetricsRegistry.PREFIX, key, "reload"));
+			this.metrics.remove(MetricRegistry.name(ModelMetricsRegistry.PREFIX, key, "cacheHits"));
+			this.metrics.remove(MetricRegistry.name(ModelMetricsRegistry.PREFIX, key, "cacheMisses"));
+			this.metrics.remove(MetricRegistry.name(ModelMetricsRegistry.PREFIX, key, "cacheEvictions"));
+		}
+	}
+
+	static
+	private String normalize(String id){
+		return id.toLowerCase(Locale.ROOT);
+	}
+
+	static final String PREFIX = "model";
+}
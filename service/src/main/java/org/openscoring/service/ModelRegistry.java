@@ -18,38 +18,386 @@
  */
 package org.openscoring.service;
 
+import java.io.*;
 import java.util.*;
-
-import org.dmg.pmml.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.logging.*;
 
 import com.google.common.collect.*;
 import com.google.inject.*;
 
+import com.codahale.metrics.*;
+
+/**
+ * Keeps track of deployed models.
+ *
+ * The registry estimates the heap size of every model. If it has been given a heap budget, then the least recently used models are evicted to a swap store
+ * whenever the estimated heap size of resident models exceeds it. An evicted model is reloaded from the swap store when it is next requested.
+ */
 @Singleton
 public class ModelRegistry {
 
-	private Map<String, PMML> models = Maps.<String, String, PMML>newTreeMap(new Comparator<String>(){
+	// Keyed by normalized id. Entries are not modified after they have been published, so readers do not need to lock
+	private ConcurrentMap<String, ModelEntry> models = new ConcurrentHashMap<String, ModelEntry>();
+
+	// Keyed by normalized id. Detached entries of evicted models
+	private ConcurrentMap<String, ModelEntry> evictedModels = new ConcurrentHashMap<String, ModelEntry>();
+
+	// Keyed by normalized id. The versions of models that are present in the swap store
+	private ConcurrentMap<String, Integer> swappedVersions = new ConcurrentHashMap<String, Integer>();
+
+	private AtomicInteger versionSequence = new AtomicInteger(0);
+
+	private AtomicLong heapSize = new AtomicLong(0);
+
+	private long maxHeapSize = 0;
+
+	private ModelStore swapStore = null;
+
+	private Object evictionLock = new Object();
+
+
+	public ModelRegistry(){
+	}
+
+	public ModelRegistry(MetricRegistry metrics){
+		Gauge<Long> heapSize = new Gauge<Long>(){
+
+			@Override
+			public Long getValue(){
+				return ModelRegistry.this.heapSize.get();
+			}
+		};
 
-		@Override
-		public int compare(String left, String right){
-			return (left).compareToIgnoreCase(right);
+		Gauge<Integer> evicted = new Gauge<Integer>(){
+
+			@Override
+			public Integer getValue(){
+				return ModelRegistry.this.evictedModels.size();
+			}
+		};
+
+		metrics.register(MetricRegistry.name(ModelRegistry.class, "heapSize"), heapSize);
+		metrics.register(MetricRegistry.name(ModelRegistry.class, "evicted"), evicted);
+	}
+
+	/**
+	 * @param maxHeapSize The maximum estimated heap size of resident models in bytes.
+	 * @param swapStore The store for evicted models. It must not be the store of deployed models.
+	 */
+	public ModelRegistry(MetricRegistry metrics, long maxHeapSize, ModelStore swapStore){
+		this(metrics);
+
+		if(maxHeapSize <= 0 || !swapStore.isEnabled()){
+			throw new IllegalArgumentException();
 		}
-	});
 
+		this.maxHeapSize = maxHeapSize;
+		this.swapStore = swapStore;
+	}
+
+	public boolean isBounded(){
+		return (this.swapStore != null);
+	}
+
+	/**
+	 * @return The estimated heap size of resident models in bytes.
+	 */
+	public long getHeapSize(){
+		return this.heapSize.get();
+	}
 
 	public Set<String> idSet(){
-		return Collections.unmodifiableSet(this.models.keySet());
+		Set<String> result = Sets.newTreeSet(String.CASE_INSENSITIVE_ORDER);
+
+		Collection<ModelEntry> entries = this.models.values();
+		for(ModelEntry entry : entries){
+			result.add(entry.getId());
+		}
+
+		Collection<ModelEntry> evictedEntries = this.evictedModels.values();
+		for(ModelEntry evictedEntry : evictedEntries){
+			result.add(evictedEntry.getId());
+		}
+
+		return Collections.unmodifiableSet(result);
+	}
+
+	/**
+	 * @throws IllegalStateException If the model was evicted, and cannot be reloaded.
+	 */
+	public ModelEntry get(String id){
+		ModelEntry entry = lookup(normalize(id));
+
+		if(entry != null && isBounded()){
+			entry.touch(System.nanoTime());
+		}
+
+		return entry;
+	}
+
+	public ModelEntry put(String id, ModelEntry entry){
+		String key = normalize(id);
+
+		prepare(entry);
+
+		ModelEntry previousEntry;
+
+		// Publications and removals are rare, and must not interleave.
+		// The version number is taken under the same lock, so that published version numbers always increase
+		synchronized(this){
+			entry.setId(id);
+			entry.setVersion(this.versionSequence.incrementAndGet());
+
+			previousEntry = this.models.put(key, entry);
+
+			this.heapSize.addAndGet(entry.getHeapSize() - (previousEntry != null ? previousEntry.getHeapSize() : 0));
+
+			ModelEntry evictedEntry = this.evictedModels.remove(key);
+			if(previousEntry == null){
+				previousEntry = evictedEntry;
+			}
+		}
+
+		evict(key);
+
+		return previousEntry;
+	}
+
+	/**
+	 * @return <code>true</code> if the entry was published, <code>false</code> if there already was an entry with the same id.
+	 */
+	public boolean putIfAbsent(String id, ModelEntry entry){
+		String key = normalize(id);
+
+		prepare(entry);
+
+		synchronized(this){
+
+			if(this.models.containsKey(key) || this.evictedModels.containsKey(key)){
+				return false;
+			}
+
+			entry.setId(id);
+			entry.setVersion(this.versionSequence.incrementAndGet());
+
+			this.models.put(key, entry);
+
+			this.heapSize.addAndGet(entry.getHeapSize());
+		}
+
+		evict(key);
+
+		return true;
+	}
+
+	/**
+	 * @return The removed entry. The entry of an evicted model does not hold on to the model and the evaluator.
+	 */
+	public ModelEntry remove(String id){
+		String key = normalize(id);
+
+		ModelEntry entry;
+
+		synchronized(this){
+			entry = this.models.remove(key);
+
+			if(entry != null){
+				this.heapSize.addAndGet(-entry.getHeapSize());
+			}
+
+			ModelEntry evictedEntry = this.evictedModels.remove(key);
+			if(entry == null){
+				entry = evictedEntry;
+			}
+		}
+
+		if(isBounded()){
+
+			synchronized(this.evictionLock){
+
+				// The model may have been re-deployed and evicted again in the meantime
+				if(!this.models.containsKey(key) && !this.evictedModels.containsKey(key) && this.swappedVersions.remove(key) != null){
+
+					try {
+						this.swapStore.delete(key);
+					} catch(IOException ioe){
+						// Ignored
+					}
+				}
+			}
+		}
+
+		return entry;
 	}
 
-	public PMML get(String id){
-		return this.models.get(id);
+	private ModelEntry lookup(String key){
+		ModelEntry entry = this.models.get(key);
+
+		if(entry == null && isBounded()){
+			ModelEntry evictedEntry = this.evictedModels.get(key);
+
+			// Entries are published before their evicted counterparts are discarded, so a second look finds an entry that was published in the meantime
+			entry = (evictedEntry != null ? reload(key, evictedEntry) : this.models.get(key));
+		}
+
+		return entry;
 	}
 
-	public PMML put(String id, PMML pmml){
-		return this.models.put(id, pmml);
+	private void prepare(ModelEntry entry){
+		entry.setHeapSize(MemoryUtil.estimateSize(entry.getPMML()));
+		entry.setAccessTime(System.nanoTime());
+
+		ModelMetrics metrics = entry.getMetrics();
+		if(metrics != null){
+			metrics.setHeapSize(entry.getHeapSize());
+		}
 	}
 
-	public PMML remove(String id){
-		return this.models.remove(id);
+	/**
+	 * Evicts least recently used models until the estimated heap size of resident models is within the budget.
+	 *
+	 * @param retainedKey The key of the model that was just published. It is never evicted.
+	 */
+	private void evict(String retainedKey){
+
+		if(!isBounded()){
+			return;
+		}
+
+		// Only one thread at a time writes to the swap store
+		synchronized(this.evictionLock){
+
+			while(this.heapSize.get() > this.maxHeapSize){
+				String key = null;
+				ModelEntry entry = null;
+
+				Set<Map.Entry<String, ModelEntry>> candidates = this.models.entrySet();
+				for(Map.Entry<String, ModelEntry> candidate : candidates){
+
+					if((candidate.getKey()).equals(retainedKey)){
+						continue;
+					} // End if
+
+					if(entry == null || (candidate.getValue()).getAccessTime() - entry.getAccessTime() < 0){
+						key = candidate.getKey();
+						entry = candidate.getValue();
+					}
+				}
+
+				if(entry == null){
+					break;
+				}
+
+				Integer swappedVersion = this.swappedVersions.get(key);
+
+				// A model that was reloaded, and has not been re-deployed since, is still present in the swap store
+				if(swappedVersion == null || swappedVersion.intValue() != entry.getVersion()){
+					this.swappedVersions.remove(key);
+
+					try {
+						this.swapStore.store(entry.getId(), entry.getPMML());
+					} catch(IOException ioe){
+						logger.log(Level.WARNING, "Failed to evict model " + entry.getId(), ioe);
+
+						break;
+					}
+
+					this.swappedVersions.put(key, entry.getVersion());
+				}
+
+				ModelEntry evictedEntry = entry.detach();
+
+				synchronized(this){
+
+					// Readers that miss the entry must find its evicted counterpart
+					this.evictedModels.put(key, evictedEntry);
+
+					if(!this.models.remove(key, entry)){
+						this.evictedModels.remove(key, evictedEntry);
+
+						continue;
+					}
+
+					this.heapSize.addAndGet(-entry.getHeapSize());
+				}
+
+				ResultCache cache = entry.getCache();
+				if(cache != null){
+					cache.invalidateAll();
+				}
+
+				ModelMetrics metrics = entry.getMetrics();
+				if(metrics != null){
+					metrics.evict();
+				}
+			}
+		}
+	}
+
+	private ModelEntry reload(String key, ModelEntry evictedEntry){
+		ModelEntry entry;
+
+		// Concurrent requests for the same evicted model wait for a single reload
+		synchronized(evictedEntry){
+
+			// Reloaded, removed or re-deployed in the meantime
+			if(this.evictedModels.get(key) != evictedEntry){
+				return lookup(key);
+			}
+
+			long begin = System.nanoTime();
+
+			try {
+				ModelStore.StoredModel storedModel = this.swapStore.load(key);
+
+				entry = new ModelEntry(storedModel.getPMML(), evictedEntry.getCache(), evictedEntry.getMetrics());
+			} catch(IOException ioe){
+
+				// Removed or re-deployed while loading
+				if(this.evictedModels.get(key) != evictedEntry){
+					return lookup(key);
+				}
+
+				throw new IllegalStateException("Failed to reload model " + evictedEntry.getId(), ioe);
+			}
+
+			long end = System.nanoTime();
+
+			entry.setId(evictedEntry.getId());
+			entry.setVersion(evictedEntry.getVersion());
+			entry.setHeapSize(evictedEntry.getHeapSize());
+			entry.setAccessTime(end);
+
+			synchronized(this){
+
+				if(this.evictedModels.get(key) != evictedEntry){
+					return this.models.get(key);
+				}
+
+				this.models.put(key, entry);
+
+				this.evictedModels.remove(key);
+
+				this.heapSize.addAndGet(entry.getHeapSize());
+			}
+
+			ModelMetrics metrics = entry.getMetrics();
+			if(metrics != null){
+				metrics.reload(end - begin);
+			}
+		}
+
+		evict(key);
+
+		return entry;
 	}
-}
\ No newline at end of file
+
+	static
+	private String normalize(String id){
+		return id.toLowerCase(Locale.ROOT);
+	}
+
+	private static final Logger logger = Logger.getLogger(ModelRegistry.class.getName());
+}
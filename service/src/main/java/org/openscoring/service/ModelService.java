@@ -19,20 +19,22 @@
 package org.openscoring.service;
 
 import java.io.*;
+import java.net.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.*;
 
 import javax.servlet.http.*;
 import javax.ws.rs.*;
 import javax.ws.rs.core.*;
-import javax.xml.transform.*;
 
 import org.openscoring.common.*;
 
 import org.jpmml.evaluator.*;
-import org.jpmml.manager.*;
-import org.jpmml.model.*;
 
+import com.google.common.base.Function;
 import com.google.common.collect.*;
+import com.google.common.io.*;
 import com.google.inject.*;
 
 import com.sun.jersey.api.*;
@@ -41,8 +43,6 @@ import org.dmg.pmml.*;
 
 import org.supercsv.prefs.*;
 
-import org.xml.sax.*;
-
 import com.codahale.metrics.annotation.*;
 
 @Path("model")
@@ -50,10 +50,38 @@ public class ModelService {
 
 	private ModelRegistry registry = null;
 
+	private BatchExecutor executor = null;
+
+	private EvaluationCoalescer coalescer = null;
+
+	private ResultCacheFactory cacheFactory = null;
+
+	private GroupAggregatorFactory aggregatorFactory = null;
+
+	private ModelStore store = null;
+
+	private ModelDeployer deployer = null;
+
+	private ModelWarmer warmer = null;
+
+	private ModelMetricsRegistry metricsRegistry = null;
+
 
-	@Inject
 	public ModelService(ModelRegistry registry){
+		this(registry, new BatchExecutor(), new EvaluationCoalescer(), new ResultCacheFactory(), new GroupAggregatorFactory(), new ModelStore(), new ModelDeployer(), new ModelWarmer(), new ModelMetricsRegistry());
+	}
+
+	@Inject
+	public ModelService(ModelRegistry registry, BatchExecutor executor, EvaluationCoalescer coalescer, ResultCacheFactory cacheFactory, GroupAggregatorFactory aggregatorFactory, ModelStore store, ModelDeployer deployer, ModelWarmer warmer, ModelMetricsRegistry metricsRegistry){
 		this.registry = registry;
+		this.executor = executor;
+		this.coalescer = coalescer;
+		this.cacheFactory = cacheFactory;
+		this.aggregatorFactory = aggregatorFactory;
+		this.store = store;
+		this.deployer = deployer;
+		this.warmer = warmer;
+		this.metricsRegistry = metricsRegistry;
 	}
 
 	@PUT
@@ -62,26 +90,144 @@ public class ModelService {
 	@Path("{id}")
 	@Consumes({MediaType.APPLICATION_XML, MediaType.TEXT_XML})
 	@Produces(MediaType.TEXT_PLAIN)
-	public String deploy(@PathParam("id") String id, @Context HttpServletRequest request){
-		PMML pmml;
+	public Response deploy(@PathParam("id") final String id, @Context HttpServletRequest request, @Context UriInfo uriInfo){
+		// Deploys of the same model may complete in any order, but only the latest one gets published
+		final
+		long sequence = this.deployer.begin(id);
+
+		if(!this.deployer.isAsynchronous()){
+
+			try {
+				PMML pmml;
+
+				try {
+					InputStream is = request.getInputStream();
+
+					try {
+						pmml = PMMLUtil.unmarshal(is);
+					} finally {
+						is.close();
+					}
+				} catch(Exception e){
+					throw new WebApplicationException(e, Response.Status.BAD_REQUEST);
+				}
+
+				boolean published;
+
+				try {
+					published = publish(id, sequence, pmml);
+				} catch(IOException ioe){
+					throw new WebApplicationException(ioe, Response.Status.INTERNAL_SERVER_ERROR);
+				} catch(Exception e){
+					throw new WebApplicationException(e, Response.Status.BAD_REQUEST);
+				}
+
+				if(!published){
+					throw new WebApplicationException(Response.Status.CONFLICT);
+				}
+			} finally {
+				this.deployer.end(id, sequence);
+			}
+
+			return Response.ok("Model " + id + " deployed successfully").build();
+		}
+
+		// Spool the upload to a temporary file, and leave the heavy lifting to a deploy thread.
+		// The previous version of the model keeps serving until the new version has been published
+		final
+		File file;
 
 		try {
-			InputStream is = request.getInputStream();
+			file = File.createTempFile("deploy-", ".pmml");
 
 			try {
-				Source source = ImportFilter.apply(new InputSource(is));
+				InputStream is = request.getInputStream();
+
+				try {
+					OutputStream os = new FileOutputStream(file);
+
+					try {
+						ByteStreams.copy(is, os);
+					} finally {
+						os.close();
+					}
+				} finally {
+					is.close();
+				}
+			} catch(IOException ioe){
+				file.delete();
+
+				throw ioe;
+			}
+		} catch(IOException ioe){
+			this.deployer.end(id, sequence);
 
-				pmml = JAXBUtil.unmarshalPMML(source);
-			} finally {
-				is.close();
+			throw new WebApplicationException(ioe, Response.Status.INTERNAL_SERVER_ERROR);
+		}
+
+		Callable<Void> task = new Callable<Void>(){
+
+			@Override
+			public Void call() throws Exception {
+
+				try {
+					PMML pmml;
+
+					InputStream is = new BufferedInputStream(new FileInputStream(file));
+
+					try {
+						pmml = PMMLUtil.unmarshal(is);
+					} finally {
+						is.close();
+					}
+
+					if(!publish(id, sequence, pmml)){
+						throw new IllegalStateException("Superseded by a newer deployment");
+					}
+				} finally {
+					file.delete();
+
+					ModelService.this.deployer.end(id, sequence);
+				}
+
+				return null;
 			}
-		} catch(Exception e){
-			throw new WebApplicationException(e, Response.Status.BAD_REQUEST);
+		};
+
+		try {
+			this.deployer.submit(id, task);
+		} catch(RejectedExecutionException ree){
+			file.delete();
+
+			this.deployer.end(id, sequence);
+
+			throw new WebApplicationException(ree, Response.Status.SERVICE_UNAVAILABLE);
 		}
 
-		this.registry.put(id, pmml);
+		URI location = (uriInfo.getAbsolutePathBuilder()).path("status").build();
+
+		return Response.status(Response.Status.ACCEPTED).location(location).entity("Model " + id + " deployment accepted").build();
+	}
+
+	@GET
+	@Timed(name="getDeploymentStatus.timer")
+	@Metered(name="getDeploymentStatus.meter")
+	@Path("{id}/status")
+	@Produces(MediaType.APPLICATION_JSON)
+	public DeploymentStatusResponse getDeploymentStatus(@PathParam("id") String id){
+		DeploymentStatusResponse status = this.deployer.getStatus(id);
+
+		if(status == null){
+			ModelEntry entry = getEntry(id);
+			if(entry == null){
+				throw new NotFoundException();
+			}
+
+			// Deployed synchronously, or restored from the model store
+			status = new DeploymentStatusResponse(entry.getId(), DeploymentStatusResponse.Status.DEPLOYED);
+		}
 
-		return "Model " + id + " deployed successfully";
+		return status;
 	}
 
 	@GET
@@ -100,25 +246,16 @@ public class ModelService {
 	@Path("{id}")
 	@Produces(MediaType.APPLICATION_JSON)
 	public SummaryResponse getSummary(@PathParam("id") String id){
-		PMML pmml = this.registry.get(id);
-		if(pmml == null){
+		ModelEntry entry = getEntry(id);
+		if(entry == null){
 			throw new NotFoundException();
 		}
 
 		SummaryResponse response = new SummaryResponse();
-
-		try {
-			PMMLManager pmmlManager = new PMMLManager(pmml);
-
-			Evaluator evaluator = (Evaluator)pmmlManager.getModelManager(null, ModelEvaluatorFactory.getInstance());
-
-			response.setActiveFields(toValueList(evaluator.getActiveFields()));
-			response.setGroupFields(toValueList(evaluator.getGroupFields()));
-			response.setTargetFields(toValueList(evaluator.getTargetFields()));
-			response.setOutputFields(toValueList(evaluator.getOutputFields()));
-		} catch(Exception e){
-			throw new WebApplicationException(e, Response.Status.INTERNAL_SERVER_ERROR);
-		}
+		response.setActiveFields(toValueList(entry.getActiveFields()));
+		response.setGroupFields(toValueList(entry.getGroupFields()));
+		response.setTargetFields(toValueList(entry.getTargetFields()));
+		response.setOutputFields(toValueList(entry.getOutputFields()));
 
 		return response;
 	}
@@ -130,13 +267,58 @@ public class ModelService {
 	@Consumes(MediaType.APPLICATION_JSON)
 	@Produces(MediaType.APPLICATION_JSON)
 	public EvaluationResponse evaluate(@PathParam("id") String id, EvaluationRequest request){
+		ModelEntry entry = getEntry(id);
+		if(entry == null){
+			throw new NotFoundException();
+		}
+
+		List<FieldName> groupFields = entry.getGroupFields();
+
+		// Requests of group field models must not be aggregated with the requests of other callers
+		if(this.coalescer.isEnabled() && groupFields.isEmpty()){
+
+			try {
+				EvaluationResponse response = this.coalescer.evaluate(entry, request);
+
+				updateMetrics(entry, 1);
+
+				return response;
+			} catch(Exception e){
+				throw new WebApplicationException(e, Response.Status.INTERNAL_SERVER_ERROR);
+			}
+		}
+
 		List<EvaluationRequest> requests = Collections.singletonList(request);
 
-		List<EvaluationResponse> responses = evaluateBatch(id, requests);
+		List<EvaluationResponse> responses = evaluateBatch(entry, requests);
 
 		return responses.get(0);
 	}
 
+	@POST
+	@Timed(name="evaluateBinary.timer")
+	@Metered(name="evaluateBinary.meter")
+	@Path("{id}")
+	@Consumes(BinaryCodec.MEDIA_TYPE)
+	@Produces(BinaryCodec.MEDIA_TYPE)
+	public void evaluateBinary(@PathParam("id") String id, @Context HttpServletRequest request, @Context HttpServletResponse response){
+		ModelEntry entry = getEntry(id);
+		if(entry == null){
+			throw new NotFoundException();
+		}
+
+		BinaryCodec codec = entry.getCodec();
+
+		List<EvaluationRequest> requests = readBinary(codec, request);
+		if(requests.size() != 1){
+			throw new WebApplicationException(Response.Status.BAD_REQUEST);
+		}
+
+		EvaluationResponse evaluationResponse = evaluate(id, requests.get(0));
+
+		writeBinary(codec, Collections.singletonList(evaluationResponse), response);
+	}
+
 	@POST
 	@Timed(name="evaluateBatch.timer")
 	@Metered(name="evaluateBatch.meter")
@@ -144,19 +326,21 @@ public class ModelService {
 	@Consumes(MediaType.APPLICATION_JSON)
 	@Produces(MediaType.APPLICATION_JSON)
 	public List<EvaluationResponse> evaluateBatch(@PathParam("id") String id, List<EvaluationRequest> requests){
-		PMML pmml = this.registry.get(id);
-		if(pmml == null){
+		ModelEntry entry = getEntry(id);
+		if(entry == null){
 			throw new NotFoundException();
 		}
 
-		List<EvaluationResponse> responses = new ArrayList<EvaluationResponse>();
+		return evaluateBatch(entry, requests);
+	}
 
-		try {
-			PMMLManager pmmlManager = new PMMLManager(pmml);
+	private List<EvaluationResponse> evaluateBatch(ModelEntry entry, List<EvaluationRequest> requests){
+		List<EvaluationResponse> responses;
 
-			Evaluator evaluator = (Evaluator)pmmlManager.getModelManager(null, ModelEvaluatorFactory.getInstance());
+		updateMetrics(entry, requests.size());
 
-			List<FieldName> groupFields = evaluator.getGroupFields();
+		try {
+			List<FieldName> groupFields = entry.getGroupFields();
 			if(groupFields.size() == 1){
 				FieldName groupField = groupFields.get(0);
 
@@ -167,16 +351,248 @@ public class ModelService {
 				throw new EvaluationException();
 			}
 
-			for(EvaluationRequest request : requests){
-				EvaluationResponse response = evaluate(evaluator, request);
+			responses = this.executor.evaluate(entry, requests);
+		} catch(Exception e){
+			throw new WebApplicationException(e, Response.Status.INTERNAL_SERVER_ERROR);
+		}
+
+		return responses;
+	}
+
+	@POST
+	@Timed(name="evaluateBatchBinary.timer")
+	@Metered(name="evaluateBatchBinary.meter")
+	@Path("{id}/batch")
+	@Consumes(BinaryCodec.MEDIA_TYPE)
+	@Produces(BinaryCodec.MEDIA_TYPE)
+	public void evaluateBatchBinary(@PathParam("id") String id, @Context HttpServletRequest request, @Context HttpServletResponse response){
+		ModelEntry entry = getEntry(id);
+		if(entry == null){
+			throw new NotFoundException();
+		}
 
-				responses.add(response);
+		BinaryCodec codec = entry.getCodec();
+
+		List<EvaluationRequest> requests = readBinary(codec, request);
+
+		List<EvaluationResponse> responses = evaluateBatch(entry, requests);
+
+		writeBinary(codec, responses, response);
+	}
+
+	@POST
+	@Timed(name="evaluateTable.timer")
+	@Metered(name="evaluateTable.meter")
+	@Path("{id}/table")
+	@Consumes(MediaType.APPLICATION_JSON)
+	@Produces(MediaType.APPLICATION_JSON)
+	public TableEvaluationResponse evaluateTable(@PathParam("id") String id, TableEvaluationRequest request){
+		ModelEntry entry = getEntry(id);
+		if(entry == null){
+			throw new NotFoundException();
+		}
+
+		List<String> ids = request.getIds();
+		List<String> columns = request.getColumns();
+		List<List<Object>> rows = request.getRows();
+
+		if(columns == null || rows == null || (ids != null && ids.size() != rows.size())){
+			throw new WebApplicationException(Response.Status.BAD_REQUEST);
+		}
+
+		for(List<Object> row : rows){
+
+			if(row.size() != columns.size()){
+				throw new WebApplicationException(Response.Status.BAD_REQUEST);
 			}
+		}
+
+		List<FieldName> groupFields = entry.getGroupFields();
+
+		// The aggregation of rows changes the number and the identity of rows
+		if(groupFields.size() > 0){
+			List<EvaluationRequest> requests = Lists.newArrayListWithCapacity(rows.size());
+
+			for(int i = 0; i < rows.size(); i++){
+				EvaluationRequest evaluationRequest = new EvaluationRequest(ids != null ? ids.get(i) : null);
+				evaluationRequest.setArguments(toMap(columns, rows.get(i)));
+
+				requests.add(evaluationRequest);
+			}
+
+			List<EvaluationResponse> responses = evaluateBatch(entry, requests);
+
+			return toTableResponse(entry, responses);
+		}
+
+		final
+		ModelEntry evaluationEntry = entry;
+
+		final
+		List<FieldName> activeFields = entry.getActiveFields();
+
+		final
+		List<String> resultColumns = getResultColumns(entry);
+
+		// Map active fields to column positions once, instead of binding every row by field name
+		final
+		int[] positions = new int[activeFields.size()];
+
+		for(int i = 0; i < activeFields.size(); i++){
+			FieldName activeField = activeFields.get(i);
+
+			positions[i] = columns.indexOf(activeField.getValue());
+		}
+
+		Function<List<Object>, List<Object>> function = new Function<List<Object>, List<Object>>(){
+
+			@Override
+			public List<Object> apply(List<Object> row){
+				Evaluator evaluator = evaluationEntry.getEvaluator();
+
+				Map<FieldName, Object> arguments = new LinkedHashMap<FieldName, Object>(2 * positions.length);
+
+				for(int i = 0; i < positions.length; i++){
+					FieldName activeField = activeFields.get(i);
+
+					Object value = (positions[i] > -1 ? row.get(positions[i]) : null);
+
+					arguments.put(activeField, EvaluatorUtil.prepare(evaluator, activeField, value));
+				}
+
+				Map<String, ?> result = evaluate(evaluationEntry, arguments);
+
+				return toRow(resultColumns, result);
+			}
+		};
+
+		updateMetrics(entry, rows.size());
+
+		TableEvaluationResponse response = new TableEvaluationResponse();
+		response.setIds(ids);
+		response.setColumns(resultColumns);
+
+		try {
+			response.setRows(this.executor.execute(rows, function));
 		} catch(Exception e){
 			throw new WebApplicationException(e, Response.Status.INTERNAL_SERVER_ERROR);
 		}
 
-		return responses;
+		return response;
+	}
+
+	@POST
+	@Timed(name="evaluateStream.timer")
+	@Metered(name="evaluateStream.meter")
+	@Path("{id}/batch")
+	@Consumes(ModelService.APPLICATION_NDJSON)
+	@Produces(ModelService.APPLICATION_NDJSON)
+	public void evaluateStream(@PathParam("id") String id, @Context HttpServletRequest request, @Context HttpServletResponse response){
+		ModelEntry entry = getEntry(id);
+		if(entry == null){
+			throw new NotFoundException();
+		}
+
+		response.setContentType(ModelService.APPLICATION_NDJSON);
+
+		InputStream is;
+		OutputStream os;
+
+		try {
+			is = request.getInputStream();
+			os = response.getOutputStream();
+		} catch(IOException ioe){
+			throw new WebApplicationException(ioe, Response.Status.INTERNAL_SERVER_ERROR);
+		}
+
+		evaluateStream(entry, is, os);
+	}
+
+	void evaluateStream(ModelEntry entry, InputStream is, OutputStream os){
+		List<FieldName> groupFields = entry.getGroupFields();
+
+		try {
+			JsonUtil.RecordReader parser;
+
+			try {
+				parser = new JsonUtil.RecordReader(is);
+			} catch(IOException ioe){
+				throw new WebApplicationException(ioe, Response.Status.BAD_REQUEST);
+			}
+
+			try {
+				JsonUtil.RecordWriter formatter = new JsonUtil.RecordWriter(os);
+
+				try {
+					// The aggregation of records requires the whole batch
+					if(groupFields.size() > 0){
+						GroupAggregator aggregator = createAggregator(entry);
+
+						try {
+							while(true){
+								EvaluationRequest evaluationRequest = readRecord(parser);
+								if(evaluationRequest == null){
+									break;
+								}
+
+								aggregator.add(evaluationRequest);
+							}
+
+							aggregator.finish();
+
+							while(true){
+								List<EvaluationRequest> requests = readChunk(aggregator, ModelService.GROUP_CHUNK_SIZE);
+								if(requests.isEmpty()){
+									break;
+								}
+
+								List<EvaluationResponse> responses = this.executor.evaluate(entry, requests);
+								for(EvaluationResponse evaluationResponse : responses){
+									formatter.write(evaluationResponse);
+								}
+
+								formatter.flush();
+							}
+
+							updateMetrics(entry, aggregator.getRowCount());
+						} finally {
+							aggregator.close();
+						}
+					} else
+
+					{
+						int count = 0;
+
+						// Score and write every record as soon as it has been parsed
+						while(true){
+							EvaluationRequest evaluationRequest = readRecord(parser);
+							if(evaluationRequest == null){
+								break;
+							}
+
+							EvaluationResponse evaluationResponse = evaluate(entry, evaluationRequest);
+
+							formatter.write(evaluationResponse);
+
+							// The client may be waiting for this result before it sends the next record
+							formatter.flush();
+
+							count++;
+						}
+
+						updateMetrics(entry, count);
+					}
+				} finally {
+					formatter.close();
+				}
+			} finally {
+				parser.close();
+			}
+		} catch(WebApplicationException wae){
+			throw wae;
+		} catch(Exception e){
+			throw new WebApplicationException(e, Response.Status.INTERNAL_SERVER_ERROR);
+		}
 	}
 
 	@POST
@@ -186,34 +602,150 @@ public class ModelService {
 	@Consumes(MediaType.TEXT_PLAIN)
 	@Produces(MediaType.TEXT_PLAIN)
 	public void evaluateCsv(@PathParam("id") String id, @Context HttpServletRequest request, @QueryParam("idColumn") String idColumn, @Context HttpServletResponse response){
-		CsvPreference format;
+		ModelEntry entry = getEntry(id);
+		if(entry == null){
+			throw new NotFoundException();
+		}
 
-		List<EvaluationRequest> requests;
+		List<FieldName> groupFields = entry.getGroupFields();
+
+		// The aggregation of rows requires the whole table
+		if(groupFields.size() > 0){
+			evaluateCsvTable(entry, request, idColumn, response);
+		} else
+
+		{
+			evaluateCsvStream(entry, request, idColumn, response);
+		}
+	}
+
+	private void evaluateCsvTable(ModelEntry entry, HttpServletRequest request, String idColumn, HttpServletResponse response){
 
 		try {
-			BufferedReader reader = new BufferedReader(new InputStreamReader(request.getInputStream(), "UTF-8")); // XXX
+			GroupAggregator aggregator = createAggregator(entry);
 
 			try {
-				format = CsvUtil.getFormat(reader);
+				CsvPreference format;
 
-				requests = CsvUtil.readTable(reader, format, idColumn);
+				BufferedReader reader = new BufferedReader(new InputStreamReader(request.getInputStream(), "UTF-8")); // XXX
+
+				try {
+					CsvUtil.TableReader parser;
+
+					try {
+						format = CsvUtil.getFormat(reader);
+
+						parser = new CsvUtil.TableReader(reader, format, idColumn, getArgumentColumns(entry));
+					} catch(Exception e){
+						throw new WebApplicationException(e, Response.Status.BAD_REQUEST);
+					}
+
+					// Rows are handed over to the aggregator as soon as they have been parsed
+					while(true){
+						List<EvaluationRequest> requests = readChunk(parser, ModelService.CSV_CHUNK_SIZE);
+						if(requests.isEmpty()){
+							break;
+						}
+
+						for(EvaluationRequest evaluationRequest : requests){
+							aggregator.add(evaluationRequest);
+						}
+					}
+				} finally {
+					reader.close();
+				}
+
+				aggregator.finish();
+
+				BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(response.getOutputStream(), "UTF-8")); // XXX
+
+				try {
+					// Aggregated requests do not have ids
+					CsvUtil.TableWriter formatter = new CsvUtil.TableWriter(writer, format, (aggregator.isGrouped() ? null : idColumn));
+
+					while(true){
+						List<EvaluationRequest> requests = readChunk(aggregator, ModelService.GROUP_CHUNK_SIZE);
+						if(requests.isEmpty()){
+							break;
+						}
+
+						List<EvaluationResponse> responses = this.executor.evaluate(entry, requests);
+						for(EvaluationResponse evaluationResponse : responses){
+							formatter.write(evaluationResponse);
+						}
+
+						formatter.flush();
+					}
+
+					formatter.close();
+
+					updateMetrics(entry, aggregator.getRowCount());
+				} finally {
+					writer.close();
+				}
 			} finally {
-				reader.close();
+				aggregator.close();
 			}
+		} catch(WebApplicationException wae){
+			throw wae;
 		} catch(Exception e){
-			throw new WebApplicationException(e, Response.Status.BAD_REQUEST);
+			throw new WebApplicationException(e, Response.Status.INTERNAL_SERVER_ERROR);
 		}
+	}
 
-		List<EvaluationResponse> responses = evaluateBatch(id, requests);
+	private void evaluateCsvStream(ModelEntry entry, HttpServletRequest request, String idColumn, HttpServletResponse response){
 
 		try {
-			BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(response.getOutputStream(), "UTF-8")); // XXX
+			BufferedReader reader = new BufferedReader(new InputStreamReader(request.getInputStream(), "UTF-8")); // XXX
 
 			try {
-				CsvUtil.writeTable(writer, format, ((requests.size() == responses.size()) ? idColumn : null), responses);
+				CsvPreference format;
+
+				CsvUtil.TableReader parser;
+
+				try {
+					format = CsvUtil.getFormat(reader);
+
+					parser = new CsvUtil.TableReader(reader, format, idColumn, getArgumentColumns(entry));
+				} catch(Exception e){
+					throw new WebApplicationException(e, Response.Status.BAD_REQUEST);
+				}
+
+				BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(response.getOutputStream(), "UTF-8")); // XXX
+
+				try {
+					CsvUtil.TableWriter formatter = new CsvUtil.TableWriter(writer, format, idColumn);
+
+					int count = 0;
+
+					// Keep at most one chunk of rows in memory
+					while(true){
+						List<EvaluationRequest> requests = readChunk(parser, ModelService.CSV_CHUNK_SIZE);
+						if(requests.isEmpty()){
+							break;
+						}
+
+						List<EvaluationResponse> responses = this.executor.evaluate(entry, requests);
+						for(EvaluationResponse evaluationResponse : responses){
+							formatter.write(evaluationResponse);
+						}
+
+						formatter.flush();
+
+						count += requests.size();
+					}
+
+					formatter.close();
+
+					updateMetrics(entry, count);
+				} finally {
+					writer.close();
+				}
 			} finally {
-				writer.close();
+				reader.close();
 			}
+		} catch(WebApplicationException wae){
+			throw wae;
 		} catch(Exception e){
 			throw new WebApplicationException(e, Response.Status.INTERNAL_SERVER_ERROR);
 		}
@@ -225,78 +757,336 @@ public class ModelService {
 	@Path("{id}")
 	@Produces(MediaType.TEXT_PLAIN)
 	public String undeploy(@PathParam("id") String id){
-		PMML pmml = this.registry.remove(id);
-		if(pmml == null){
-			throw new NotFoundException();
+		long sequence = this.deployer.begin(id);
+
+		Lock lock = this.deployer.getLock(id);
+
+		lock.lock();
+
+		try {
+
+			if(this.deployer.isSuperseded(id, sequence)){
+				throw new WebApplicationException(Response.Status.CONFLICT);
+			}
+
+			ModelEntry entry = this.registry.remove(id);
+			if(entry == null){
+				throw new NotFoundException();
+			}
+
+			// Deploys that were accepted earlier but are still in progress must not bring the model back
+			this.deployer.complete(id, sequence);
+			this.deployer.removeStatus(id, sequence);
+
+			release(entry);
+
+			this.metricsRegistry.unregister(id);
+
+			try {
+				this.store.delete(id);
+			} catch(IOException ioe){
+				throw new WebApplicationException(ioe, Response.Status.INTERNAL_SERVER_ERROR);
+			}
+		} finally {
+			lock.unlock();
+
+			this.deployer.end(id, sequence);
 		}
 
 		return "Model " + id + " undeployed successfully";
 	}
 
 	static
-	protected EvaluationResponse evaluate(Evaluator evaluator, EvaluationRequest request){
+	protected EvaluationResponse evaluate(ModelEntry entry, EvaluationRequest request){
 		EvaluationResponse response = new EvaluationResponse(request.getId());
 
+		Evaluator evaluator = entry.getEvaluator();
+
 		Map<FieldName, Object> arguments = Maps.newLinkedHashMap();
 
-		List<FieldName> activeFields = evaluator.getActiveFields();
+		List<FieldName> activeFields = entry.getActiveFields();
 		for(FieldName activeField : activeFields){
 			Object value = request.getArgument(activeField.getValue());
 
 			arguments.put(activeField, EvaluatorUtil.prepare(evaluator, activeField, value));
 		}
 
-		Map<FieldName, ?> result = evaluator.evaluate(arguments);
-
-		response.setResult(EvaluatorUtil.decode(result));
+		response.setResult(evaluate(entry, arguments));
 
 		return response;
 	}
 
 	static
-	protected List<EvaluationRequest> aggregateRequests(String groupKey, List<EvaluationRequest> requests){
-		Map<Object, ListMultimap<String, Object>> groupedArguments = Maps.newLinkedHashMap();
+	protected Map<String, ?> evaluate(ModelEntry entry, Map<FieldName, ?> arguments){
+		Evaluator evaluator = entry.getEvaluator();
 
-		for(EvaluationRequest request : requests){
-			Map<String, ?> arguments = request.getArguments();
+		ResultCache cache = entry.getCache();
 
-			Object groupValue = arguments.get(groupKey);
+		Map<String, ?> result = (cache != null ? cache.get(arguments) : null);
+		if(result == null){
+			result = EvaluatorUtil.decode(evaluator.evaluate(arguments));
 
-			ListMultimap<String, Object> groupedArgumentMap = groupedArguments.get(groupValue);
-			if(groupedArgumentMap == null){
-				groupedArgumentMap = ArrayListMultimap.create();
+			if(cache != null){
+				cache.put(arguments, result);
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * @return The entry of the model, or <code>null</code> if the model is not deployed.
+	 */
+	private ModelEntry getEntry(String id){
+
+		try {
+			return this.registry.get(id);
+		} catch(IllegalStateException ise){
+			// The model was evicted, and the swap store cannot give it back at the moment
+			throw new WebApplicationException(ise, Response.Status.SERVICE_UNAVAILABLE);
+		}
+	}
+
+	/**
+	 * @return <code>true</code> if the model was published, <code>false</code> if a newer deploy or undeploy of the same model has been completed already.
+	 */
+	private boolean publish(String id, long sequence, PMML pmml) throws Exception {
+		ModelMetrics metrics = this.metricsRegistry.create(id);
+
+		ModelEntry entry = new ModelEntry(pmml, this.cacheFactory.create(metrics), metrics);
+
+		this.warmer.warmUp(entry);
 
-				groupedArguments.put(groupValue, groupedArgumentMap);
+		// The model store and the model registry must agree about the latest version of the model
+		Lock lock = this.deployer.getLock(id);
+
+		lock.lock();
+
+		try {
+
+			if(this.deployer.isSuperseded(id, sequence)){
+				return false;
 			}
 
-			Collection<? extends Map.Entry<String, ?>> entries = arguments.entrySet();
-			for(Map.Entry<String, ?> entry : entries){
-				groupedArgumentMap.put(entry.getKey(), entry.getValue());
+			// The model must be persisted before it is published
+			this.store.store(id, pmml);
+
+			ModelEntry previousEntry = this.registry.put(id, entry);
+			if(previousEntry != null){
+				release(previousEntry);
 			}
+
+			// The metrics of a model become visible only after the model has been published
+			this.metricsRegistry.register(id, entry.getMetrics());
+
+			this.deployer.complete(id, sequence);
+		} finally {
+			lock.unlock();
 		}
 
+		return true;
+	}
+
+	static
+	private void updateMetrics(ModelEntry entry, int records){
+		ModelMetrics metrics = entry.getMetrics();
+
+		if(metrics != null){
+			metrics.update(records);
+		}
+	}
+
+	static
+	private void release(ModelEntry entry){
+		ResultCache cache = entry.getCache();
+
+		if(cache != null){
+			cache.invalidateAll();
+		}
+	}
+
+	static
+	private List<EvaluationRequest> readChunk(CsvUtil.TableReader parser, int size){
+		List<EvaluationRequest> requests = Lists.newArrayListWithCapacity(size);
+
+		try {
+			while(requests.size() < size){
+				EvaluationRequest request = parser.read();
+				if(request == null){
+					break;
+				}
+
+				requests.add(request);
+			}
+		} catch(Exception e){
+			throw new WebApplicationException(e, Response.Status.BAD_REQUEST);
+		}
+
+		return requests;
+	}
+
+	static
+	private List<EvaluationRequest> readChunk(GroupAggregator aggregator, int size) throws IOException {
+		List<EvaluationRequest> requests = Lists.newArrayListWithCapacity(size);
+
+		while(requests.size() < size){
+			EvaluationRequest request = aggregator.read();
+			if(request == null){
+				break;
+			}
+
+			requests.add(request);
+		}
+
+		return requests;
+	}
+
+	static
+	private List<EvaluationRequest> readBinary(BinaryCodec codec, HttpServletRequest request){
+
+		try {
+			InputStream is = request.getInputStream();
+
+			try {
+				return codec.readRequests(is);
+			} finally {
+				is.close();
+			}
+		} catch(Exception e){
+			throw new WebApplicationException(e, Response.Status.BAD_REQUEST);
+		}
+	}
+
+	static
+	private void writeBinary(BinaryCodec codec, List<EvaluationResponse> responses, HttpServletResponse response){
+		response.setContentType(BinaryCodec.MEDIA_TYPE);
+
+		try {
+			OutputStream os = response.getOutputStream();
+
+			try {
+				codec.writeResponses(os, responses);
+			} finally {
+				os.close();
+			}
+		} catch(Exception e){
+			throw new WebApplicationException(e, Response.Status.INTERNAL_SERVER_ERROR);
+		}
+	}
+
+	static
+	private EvaluationRequest readRecord(JsonUtil.RecordReader parser){
+
+		try {
+			return parser.read();
+		} catch(Exception e){
+			throw new WebApplicationException(e, Response.Status.BAD_REQUEST);
+		}
+	}
+
+	private GroupAggregator createAggregator(ModelEntry entry) throws EvaluationException {
+		List<FieldName> groupFields = entry.getGroupFields();
+
+		if(groupFields.size() != 1){
+			throw new EvaluationException();
+		}
+
+		FieldName groupField = groupFields.get(0);
+
+		return this.aggregatorFactory.create(groupField.getValue());
+	}
+
+	static
+	public List<EvaluationRequest> aggregateRequests(String groupKey, List<EvaluationRequest> requests) throws IOException {
+
 		// Only continue with request modification if there is a clear need to do so
-		if(groupedArguments.size() == requests.size()){
+		if(!GroupAggregator.requiresAggregation(groupKey, requests)){
 			return requests;
 		}
 
-		List<EvaluationRequest> resultRequests = Lists.newArrayList();
+		GroupAggregator aggregator = new GroupAggregator(groupKey);
+
+		try {
+			for(EvaluationRequest request : requests){
+				aggregator.add(request);
+			}
+
+			aggregator.finish();
+
+			List<EvaluationRequest> resultRequests = Lists.newArrayList();
+
+			while(true){
+				EvaluationRequest resultRequest = aggregator.read();
+				if(resultRequest == null){
+					break;
+				}
+
+				resultRequests.add(resultRequest);
+			}
+
+			return resultRequests;
+		} finally {
+			aggregator.close();
+		}
+	}
+
+	static
+	private TableEvaluationResponse toTableResponse(ModelEntry entry, List<EvaluationResponse> responses){
+		List<String> ids = Lists.newArrayListWithCapacity(responses.size());
+		List<String> columns = getResultColumns(entry);
+		List<List<Object>> rows = Lists.newArrayListWithCapacity(responses.size());
+
+		for(EvaluationResponse response : responses){
+			ids.add(response.getId());
+			rows.add(toRow(columns, response.getResult()));
+		}
+
+		TableEvaluationResponse response = new TableEvaluationResponse();
+		response.setIds(ids);
+		response.setColumns(columns);
+		response.setRows(rows);
+
+		return response;
+	}
+
+	static
+	private List<String> getArgumentColumns(ModelEntry entry){
+		List<String> result = Lists.newArrayList();
+		result.addAll(toValueList(entry.getActiveFields()));
+		result.addAll(toValueList(entry.getGroupFields()));
+
+		return result;
+	}
+
+	static
+	private List<String> getResultColumns(ModelEntry entry){
+		List<String> result = Lists.newArrayList();
+		result.addAll(toValueList(entry.getTargetFields()));
+		result.addAll(toValueList(entry.getOutputFields()));
+
+		return result;
+	}
+
+	static
+	private Map<String, Object> toMap(List<String> columns, List<Object> row){
+		Map<String, Object> result = new LinkedHashMap<String, Object>(2 * columns.size());
 
-		Collection<Map.Entry<Object, ListMultimap<String, Object>>> entries = groupedArguments.entrySet();
-		for(Map.Entry<Object, ListMultimap<String, Object>> entry : entries){
-			Map<String, Object> arguments = Maps.newLinkedHashMap();
-			arguments.putAll((entry.getValue()).asMap());
+		for(int i = 0; i < columns.size(); i++){
+			result.put(columns.get(i), row.get(i));
+		}
 
-			// The value of the "group by" column is a single Object, not a Collection (ie. java.util.List) of Objects
-			arguments.put(groupKey, entry.getKey());
+		return result;
+	}
 
-			EvaluationRequest resultRequest = new EvaluationRequest();
-			resultRequest.setArguments(arguments);
+	static
+	private List<Object> toRow(List<String> columns, Map<String, ?> result){
+		List<Object> row = Lists.newArrayListWithCapacity(columns.size());
 
-			resultRequests.add(resultRequest);
+		for(String column : columns){
+			row.add(result.get(column));
 		}
 
-		return resultRequests;
+		return row;
 	}
 
 	static
@@ -309,4 +1099,94 @@ public class ModelService {
 
 		return result;
 	}
-}
+
+	/**
+	 * Builds a service from a model registry, using the defaults of all other components unless they are set explicitly.
+	 *
+	 * Guice injects the service through the full constructor instead.
+	 */
+	static
+	public class Builder {
+
+		private ModelRegistry registry = null;
+
+		private BatchExecutor executor = new BatchExecutor();
+
+		private EvaluationCoalescer coalescer = new EvaluationCoalescer();
+
+		private ResultCacheFactory cacheFactory = new ResultCacheFactory();
+
+		private GroupAggregatorFactory aggregatorFactory = new GroupAggregatorFactory();
+
+		private ModelStore store = new ModelStore();
+
+		private ModelDeployer deployer = new ModelDeployer();
+
+		private ModelWarmer warmer = new ModelWarmer();
+
+		private ModelMetricsRegistry metricsRegistry = new ModelMetricsRegistry();
+
+
+		public Builder(ModelRegistry registry){
+			this.registry = registry;
+		}
+
+		public Builder setExecutor(BatchExecutor executor){
+			this.executor = executor;
+
+			return this;
+		}
+
+		public Builder setCoalescer(EvaluationCoalescer coalescer){
+			this.coalescer = coalescer;
+
+			return this;
+		}
+
+		public Builder setCacheFactory(ResultCacheFactory cacheFactory){
+			this.cacheFactory = cacheFactory;
+
+			return this;
+		}
+
+		public Builder setAggregatorFactory(GroupAggregatorFactory aggregatorFactory){
+			this.aggregatorFactory = aggregatorFactory;
+
+			return this;
+		}
+
+		public Builder setStore(ModelStore store){
+			this.store = store;
+
+			return this;
+		}
+
+		public Builder setDeployer(ModelDeployer deployer){
+			this.deployer = deployer;
+
+			return this;
+		}
+
+		public Builder setWarmer(ModelWarmer warmer){
+			this.warmer = warmer;
+
+			return this;
+		}
+
+		public Builder setMetricsRegistry(ModelMetricsRegistry metricsRegistry){
+			this.metricsRegistry = metricsRegistry;
+
+			return this;
+		}
+
+		public ModelService build(){
+			return new ModelService(this.registry, this.executor, this.coalescer, this.cacheFactory, this.aggregatorFactory, this.store, this.deployer, this.warmer, this.metricsRegistry);
+		}
+	}
+
+	public static final String APPLICATION_NDJSON = "application/x-ndjson";
+
+	private static final int CSV_CHUNK_SIZE = 4096;
+
+	private static final int GROUP_CHUNK_SIZE = 1024;
+}
\ No newline at end of file
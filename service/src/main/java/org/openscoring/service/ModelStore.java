@@ -0,0 +1,205 @@
+/*
+ * Copyright (c) 2014 Villu Ruusmann
+ *
+ * This file is part of Openscoring
+ *
+ * Openscoring is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Openscoring is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Openscoring.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openscoring.service;
+
+import java.io.*;
+import java.net.*;
+import java.util.*;
+
+import com.google.inject.*;
+
+import org.dmg.pmml.*;
+
+import org.xml.sax.*;
+
+/**
+ * Persists deployed models in a local directory.
+ *
+ * Models are stored in Java serialized form, which is several times faster to load than PMML markup.
+ */
+@Singleton
+public class ModelStore {
+
+	private File directory = null;
+
+
+	// Models are not persisted
+	public ModelStore(){
+	}
+
+	public ModelStore(File directory) throws IOException {
+
+		if(!directory.isDirectory() && !directory.mkdirs()){
+			throw new IOException("Cannot create directory " + directory.getAbsolutePath());
+		}
+
+		this.directory = directory;
+	}
+
+	public boolean isEnabled(){
+		return (this.directory != null);
+	}
+
+	public List<File> listFiles(){
+
+		if(!isEnabled()){
+			return Collections.emptyList();
+		}
+
+		FileFilter filter = new FileFilter(){
+
+			@Override
+			public boolean accept(File file){
+				return file.isFile() && (file.getName()).endsWith(ModelStore.SUFFIX);
+			}
+		};
+
+		return Arrays.asList(this.directory.listFiles(filter));
+	}
+
+	public void store(String id, PMML pmml) throws IOException {
+
+		if(!isEnabled()){
+			return;
+		}
+
+		File file = getFile(id);
+
+		// Write the complete model into a temporary file, and then move it into place.
+		// Every store gets a temporary file of its own, so that concurrent stores of the same model do not overwrite each other's data
+		File tmpFile = File.createTempFile(file.getName() + "-", ".tmp", this.directory);
+
+		try {
+			FileOutputStream os = new FileOutputStream(tmpFile);
+
+			try {
+				ObjectOutputStream output = new ModelOutputStream(new BufferedOutputStream(os));
+
+				output.writeUTF(id);
+				output.writeObject(pmml);
+				output.flush();
+
+				os.getFD().sync();
+			} finally {
+				os.close();
+			}
+		} catch(IOException ioe){
+			tmpFile.delete();
+
+			throw ioe;
+		}
+
+		if(!tmpFile.renameTo(file)){
+			tmpFile.delete();
+
+			throw new IOException("Cannot move " + tmpFile.getAbsolutePath() + " to " + file.getAbsolutePath());
+		}
+	}
+
+	public StoredModel load(String id) throws IOException {
+		return load(getFile(id));
+	}
+
+	public StoredModel load(File file) throws IOException {
+		InputStream is = new FileInputStream(file);
+
+		try {
+			ObjectInputStream input = new ObjectInputStream(new BufferedInputStream(is));
+
+			String id = input.readUTF();
+
+			PMML pmml;
+
+			try {
+				pmml = (PMML)input.readObject();
+			} catch(ClassNotFoundException cnfe){
+				throw (IOException)new InvalidClassException(cnfe.getMessage()).initCause(cnfe);
+			}
+
+			return new StoredModel(id, pmml);
+		} finally {
+			is.close();
+		}
+	}
+
+	public void delete(String id) throws IOException {
+
+		if(!isEnabled()){
+			return;
+		}
+
+		File file = getFile(id);
+
+		if(file.exists() && !file.delete()){
+			throw new IOException("Cannot delete " + file.getAbsolutePath());
+		}
+	}
+
+	private File getFile(String id) throws IOException {
+		// Model ids are case insensitive
+		String name = URLEncoder.encode(id.toLowerCase(Locale.ROOT), "UTF-8");
+
+		return new File(this.directory, name + ModelStore.SUFFIX);
+	}
+
+	static
+	public class StoredModel {
+
+		private String id = null;
+
+		private PMML pmml = null;
+
+
+		public StoredModel(String id, PMML pmml){
+			this.id = id;
+			this.pmml = pmml;
+		}
+
+		public String getId(){
+			return this.id;
+		}
+
+		public PMML getPMML(){
+			return this.pmml;
+		}
+	}
+
+	static
+	private class ModelOutputStream extends ObjectOutputStream {
+
+		public ModelOutputStream(OutputStream os) throws IOException {
+			super(os);
+
+			enableReplaceObject(true);
+		}
+
+		@Override
+		protected Object replaceObject(Object object){
+
+			// SAX locators that were recorded during unmarshalling are not serializable
+			if(object instanceof Locator){
+				return null;
+			}
+
+			return object;
+		}
+	}
+
+	private static final String SUFFIX = ".model";
+}
@@ -0,0 +1,364 @@
+/*
+ * Copyright (c) 2014 Villu Ruusmann
+ *
+ * This file is part of Openscoring
+ *
+ * Openscoring is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Openscoring is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Openscoring.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openscoring.service;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import javax.xml.bind.*;
+
+import org.jpmml.evaluator.*;
+import org.jpmml.manager.*;
+
+import com.google.common.collect.*;
+import com.google.inject.*;
+
+import org.dmg.pmml.*;
+
+import org.w3c.dom.Element;
+
+/**
+ * Runs newly compiled models through a number of evaluations before they are published, so that the first real requests do not run in the interpreter.
+ *
+ * The inputs are replayed from the <code>ModelVerification</code> element of the model if there is one, and generated from the data dictionary and the mining schema otherwise.
+ */
+@Singleton
+public class ModelWarmer {
+
+	private int maxRecords = 0;
+
+	private long maxTimeNanos = 0;
+
+
+	// Warm-up is disabled
+	public ModelWarmer(){
+	}
+
+	/**
+	 * @param maxRecords The number of evaluations per model.
+	 * @param maxTime The time limit per model.
+	 */
+	public ModelWarmer(int maxRecords, long maxTime, TimeUnit unit){
+
+		if(maxRecords < 1 || maxTime < 1){
+			throw new IllegalArgumentException();
+		}
+
+		this.maxRecords = maxRecords;
+		this.maxTimeNanos = unit.toNanos(maxTime);
+	}
+
+	public boolean isEnabled(){
+		return (this.maxRecords > 0);
+	}
+
+	/**
+	 * @return The number of evaluations.
+	 */
+	public int warmUp(ModelEntry entry){
+
+		if(!isEnabled()){
+			return 0;
+		}
+
+		List<Map<FieldName, ?>> sample = getVerificationSample(entry);
+		if(sample.isEmpty()){
+			sample = generateSample(entry, ModelWarmer.SAMPLE_SIZE, new Random(42L));
+		}
+
+		// The mean latency of the first and the last window of evaluations
+		long[] window = new long[Math.max(1, Math.min(this.maxRecords / 10, 1000))];
+
+		long coldTime = 0;
+
+		long begin = System.nanoTime();
+		long end = begin;
+
+		int count = 0;
+
+		while(count < this.maxRecords && (end - begin) < this.maxTimeNanos){
+			Map<FieldName, ?> arguments = sample.get(count % sample.size());
+
+			long start = end;
+
+			try {
+				evaluate(entry, arguments);
+			} catch(Exception e){
+				// Generated values are not necessarily valid
+			}
+
+			end = System.nanoTime();
+
+			if(count < window.length){
+				coldTime += (end - start);
+			}
+
+			window[count % window.length] = (end - start);
+
+			count++;
+		}
+
+		int coldCount = Math.min(count, window.length);
+
+		long warmTime = 0;
+
+		for(int i = 0; i < coldCount; i++){
+			warmTime += window[i];
+		}
+
+		ModelMetrics metrics = entry.getMetrics();
+
+		if(metrics != null && count > 0){
+			metrics.warmUp(end - begin, coldTime / coldCount, warmTime / coldCount);
+		}
+
+		return count;
+	}
+
+	static
+	private Map<String, ?> evaluate(ModelEntry entry, Map<FieldName, ?> sample){
+		Evaluator evaluator = entry.getEvaluator();
+
+		Map<FieldName, Object> arguments = Maps.newLinkedHashMap();
+
+		List<FieldName> activeFields = entry.getActiveFields();
+		for(FieldName activeField : activeFields){
+			arguments.put(activeField, EvaluatorUtil.prepare(evaluator, activeField, sample.get(activeField)));
+		}
+
+		// Bypass the result cache
+		return EvaluatorUtil.decode(evaluator.evaluate(arguments));
+	}
+
+	/**
+	 * @return The input records of the <code>ModelVerification</code> element, or an empty list.
+	 */
+	static
+	List<Map<FieldName, ?>> getVerificationSample(ModelEntry entry){
+		List<Map<FieldName, ?>> result = Lists.newArrayList();
+
+		Evaluator evaluator = entry.getEvaluator();
+		if(!(evaluator instanceof ModelManager)){
+			return result;
+		}
+
+		Model model = ((ModelManager<?>)evaluator).getModel();
+
+		final
+		List<ModelVerification> modelVerifications = Lists.newArrayList();
+
+		Visitor visitor = new AbstractVisitor(){
+
+			@Override
+			public VisitorAction visit(ModelVerification modelVerification){
+				modelVerifications.add(modelVerification);
+
+				return VisitorAction.TERMINATE;
+			}
+		};
+		model.accept(visitor);
+
+		if(modelVerifications.isEmpty()){
+			return result;
+		}
+
+		ModelVerification modelVerification = modelVerifications.get(0);
+
+		Set<FieldName> argumentFields = Sets.newHashSet();
+		argumentFields.addAll(entry.getActiveFields());
+		argumentFields.addAll(entry.getGroupFields());
+
+		// Maps column names to field names
+		Map<String, FieldName> fields = Maps.newLinkedHashMap();
+
+		VerificationFields verificationFields = modelVerification.getVerificationFields();
+		for(VerificationField verificationField : verificationFields){
+			FieldName field = new FieldName(verificationField.getField());
+
+			if(argumentFields.contains(field)){
+				String column = verificationField.getColumn();
+
+				fields.put(column != null ? column : field.getValue(), field);
+			}
+		}
+
+		InlineTable inlineTable = modelVerification.getInlineTable();
+		if(inlineTable == null){
+			return result;
+		}
+
+		List<Row> rows = inlineTable.getRows();
+		for(Row row : rows){
+			Map<FieldName, Object> record = Maps.newLinkedHashMap();
+
+			List<Object> cells = row.getContent();
+			for(Object cell : cells){
+				String column;
+				Object value;
+
+				if(cell instanceof Element){
+					Element element = (Element)cell;
+
+					column = (element.getLocalName() != null ? element.getLocalName() : element.getNodeName());
+					value = element.getTextContent();
+				} else
+
+				if(cell instanceof JAXBElement){
+					JAXBElement<?> element = (JAXBElement<?>)cell;
+
+					column = (element.getName()).getLocalPart();
+					value = element.getValue();
+				} else
+
+				{
+					continue;
+				}
+
+				FieldName field = fields.get(column);
+				if(field != null){
+					record.put(field, value);
+				}
+			}
+
+			result.add(record);
+		}
+
+		return result;
+	}
+
+	static
+	List<Map<FieldName, ?>> generateSample(ModelEntry entry, int size, Random random){
+		List<Map<FieldName, ?>> result = Lists.newArrayListWithCapacity(size);
+
+		Evaluator evaluator = entry.getEvaluator();
+
+		// Models with a "group by" field expect a collection of values per active field
+		boolean grouped = !(entry.getGroupFields()).isEmpty();
+
+		List<FieldName> activeFields = entry.getActiveFields();
+
+		for(int i = 0; i < size; i++){
+			Map<FieldName, Object> record = Maps.newLinkedHashMap();
+
+			for(FieldName activeField : activeFields){
+				DataField dataField = evaluator.getDataField(activeField);
+				MiningField miningField = evaluator.getMiningField(activeField);
+
+				if(grouped){
+					List<Object> values = Lists.newArrayList();
+
+					for(int j = random.nextInt(5); j >= 0; j--){
+						values.add(generateValue(dataField, miningField, random));
+					}
+
+					record.put(activeField, values);
+				} else
+
+				{
+					record.put(activeField, generateValue(dataField, miningField, random));
+				}
+			}
+
+			result.add(record);
+		}
+
+		return result;
+	}
+
+	static
+	private Object generateValue(DataField dataField, MiningField miningField, Random random){
+
+		if(dataField == null || random.nextInt(20) == 0){
+			return null;
+		}
+
+		List<String> validValues = Lists.newArrayList();
+
+		List<Value> values = dataField.getValues();
+		for(Value value : values){
+			Value.Property property = value.getProperty();
+
+			if(property == null || (Value.Property.VALID).equals(property)){
+				validValues.add(value.getValue());
+			}
+		}
+
+		if(validValues.size() > 0){
+			return validValues.get(random.nextInt(validValues.size()));
+		}
+
+		DataType dataType = dataField.getDataType();
+
+		switch(dataType){
+			case STRING:
+				return ("value-" + random.nextInt(10));
+			case BOOLEAN:
+				return Boolean.valueOf(random.nextBoolean());
+			case INTEGER:
+			case FLOAT:
+			case DOUBLE:
+				break;
+			default:
+				return null;
+		}
+
+		double value;
+
+		List<Interval> intervals = dataField.getIntervals();
+		if(intervals.size() > 0){
+			Interval interval = intervals.get(random.nextInt(intervals.size()));
+
+			value = generateDouble(interval.getLeftMargin(), interval.getRightMargin(), random);
+		} else
+
+		if(miningField != null){
+			value = generateDouble(miningField.getLowValue(), miningField.getHighValue(), random);
+		} else
+
+		{
+			value = generateDouble(null, null, random);
+		} // End if
+
+		if((DataType.INTEGER).equals(dataType)){
+			return Long.valueOf(Math.round(value));
+		}
+
+		return Double.valueOf(value);
+	}
+
+	static
+	private double generateDouble(Double low, Double high, Random random){
+
+		if(low != null && high != null){
+			return low + (high - low) * random.nextDouble();
+		} else
+
+		if(low != null){
+			return low + Math.abs(random.nextGaussian()) * Math.max(1d, Math.abs(low));
+		} else
+
+		if(high != null){
+			return high - Math.abs(random.nextGaussian()) * Math.max(1d, Math.abs(high));
+		}
+
+		return random.nextGaussian() * 10d;
+	}
+
+	private static final int SAMPLE_SIZE = 1000;
+}
@@ -0,0 +1,191 @@
+/*
+ * Copyright (c) 2014 Villu Ruusmann
+ *
+ * This file is part of Openscoring
+ *
+ * Openscoring is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Openscoring is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Openscoring.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openscoring.service;
+
+import java.io.*;
+import java.util.*;
+
+import javax.xml.transform.*;
+import javax.xml.transform.sax.*;
+
+import org.jpmml.model.*;
+
+import org.dmg.pmml.*;
+
+import org.xml.sax.*;
+import org.xml.sax.helpers.*;
+
+public class PMMLUtil {
+
+	private PMMLUtil(){
+	}
+
+	/**
+	 * Unmarshals a PMML document in a single streaming pass.
+	 *
+	 * SAX events flow from the parser through the import filter straight into the JAXB unmarshaller, so the document is never buffered as a whole.
+	 * Repeated attribute values (field names, operators, split values, scores) are shared between elements,
+	 * and SAX source locations are dropped once the model object graph is complete.
+	 */
+	static
+	public PMML unmarshal(InputStream is) throws Exception {
+		XMLReader reader = XMLReaderFactory.createXMLReader();
+
+		XMLFilter filter = new ValueSharingFilter(new ImportFilter(reader));
+
+		Source source = new SAXSource(filter, new InputSource(is));
+
+		PMML pmml = JAXBUtil.unmarshalPMML(source);
+
+		pmml.accept(new SourceLocationNullifier());
+
+		return pmml;
+	}
+
+	static
+	private class ValueSharingFilter extends XMLFilterImpl {
+
+		private Map<String, String> values = new HashMap<String, String>();
+
+		private SharedAttributes attributes = new SharedAttributes();
+
+
+		private ValueSharingFilter(XMLReader parent){
+			super(parent);
+		}
+
+		@Override
+		public void startElement(String uri, String localName, String qName, Attributes attributes) throws SAXException {
+
+			if(attributes.getLength() == 0){
+				super.startElement(uri, localName, qName, attributes);
+
+				return;
+			}
+
+			// The unmarshaller consumes attribute values before this method returns, so the same holder can be refilled for every element
+			this.attributes.reset(attributes);
+
+			for(int i = 0; i < attributes.getLength(); i++){
+				String value = attributes.getValue(i);
+
+				String sharedValue = this.values.get(value);
+				if(sharedValue == null){
+					this.values.put(value, value);
+
+					sharedValue = value;
+				}
+
+				this.attributes.setValue(i, sharedValue);
+			}
+
+			super.startElement(uri, localName, qName, this.attributes);
+		}
+	}
+
+	/**
+	 * Overrides attribute values without copying names and types like {@link AttributesImpl} does.
+	 */
+	static
+	private class SharedAttributes implements Attributes {
+
+		private Attributes attributes = null;
+
+		private String[] values = new String[16];
+
+
+		public void reset(Attributes attributes){
+			this.attributes = attributes;
+
+			int length = attributes.getLength();
+			if(length > this.values.length){
+				this.values = new String[Math.max(length, 2 * this.values.length)];
+			}
+		}
+
+		public void setValue(int index, String value){
+			this.values[index] = value;
+		}
+
+		@Override
+		public int getLength(){
+			return this.attributes.getLength();
+		}
+
+		@Override
+		public String getURI(int index){
+			return this.attributes.getURI(index);
+		}
+
+		@Override
+		public String getLocalName(int index){
+			return this.attributes.getLocalName(index);
+		}
+
+		@Override
+		public String getQName(int index){
+			return this.attributes.getQName(index);
+		}
+
+		@Override
+		public String getType(int index){
+			return this.attributes.getType(index);
+		}
+
+		@Override
+		public String getType(String uri, String localName){
+			return this.attributes.getType(uri, localName);
+		}
+
+		@Override
+		public String getType(String qName){
+			return this.attributes.getType(qName);
+		}
+
+		@Override
+		public String getValue(int index){
+
+			if(index < 0 || index >= getLength()){
+				return null;
+			}
+
+			return this.values[index];
+		}
+
+		@Override
+		public String getValue(String uri, String localName){
+			return getValue(getIndex(uri, localName));
+		}
+
+		@Override
+		public String getValue(String qName){
+			return getValue(getIndex(qName));
+		}
+
+		@Override
+		public int getIndex(String uri, String localName){
+			return this.attributes.getIndex(uri, localName);
+		}
+
+		@Override
+		public int getIndex(String qName){
+			return this.attributes.getIndex(qName);
+		}
+	}
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright (c) 2014 Villu Ruusmann
+ *
+ * This file is part of Openscoring
+ *
+ * Openscoring is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Openscoring is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Openscoring.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openscoring.service;
+
+import java.util.*;
+
+import org.jpmml.evaluator.*;
+import org.jpmml.evaluator.FieldValue;
+
+import com.google.common.cache.*;
+
+import org.dmg.pmml.*;
+
+import com.codahale.metrics.*;
+
+public class ResultCache {
+
+	private Cache<List<Object>, Map<String, ?>> cache = null;
+
+	private Counter hits = null;
+
+	private Counter misses = null;
+
+
+	ResultCache(Cache<List<Object>, Map<String, ?>> cache, Counter hits, Counter misses){
+		this.cache = cache;
+		this.hits = hits;
+		this.misses = misses;
+	}
+
+	public Map<String, ?> get(Map<FieldName, ?> arguments){
+		Map<String, ?> result = this.cache.getIfPresent(createKey(arguments));
+
+		if(result != null){
+			this.hits.inc();
+		} else
+
+		{
+			this.misses.inc();
+		}
+
+		return result;
+	}
+
+	public void put(Map<FieldName, ?> arguments, Map<String, ?> result){
+		this.cache.put(createKey(arguments), Collections.unmodifiableMap(result));
+	}
+
+	public void invalidateAll(){
+		this.cache.invalidateAll();
+	}
+
+	static
+	private List<Object> createKey(Map<FieldName, ?> arguments){
+		Object[] values = new Object[arguments.size()];
+
+		// The iteration order of prepared arguments follows the order of active fields, which is fixed for the lifetime of a model entry
+		int i = 0;
+
+		Collection<?> argumentValues = arguments.values();
+		for(Object argumentValue : argumentValues){
+			values[i++] = FieldValueUtil.getValue((FieldValue)argumentValue);
+		}
+
+		return Arrays.asList(values);
+	}
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) 2014 Villu Ruusmann
+ *
+ * This file is part of Openscoring
+ *
+ * Openscoring is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Openscoring is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Openscoring.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openscoring.service;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import com.google.common.cache.*;
+import com.google.inject.*;
+
+import com.codahale.metrics.*;
+
+@Singleton
+public class ResultCacheFactory {
+
+	private long maximumSize = 0;
+
+	private long ttlNanos = 0;
+
+
+	// Result caching is disabled
+	public ResultCacheFactory(){
+	}
+
+	public ResultCacheFactory(long maximumSize, long ttl, TimeUnit unit){
+
+		if(maximumSize < 1 || ttl < 1){
+			throw new IllegalArgumentException();
+		}
+
+		this.maximumSize = maximumSize;
+		this.ttlNanos = unit.toNanos(ttl);
+	}
+
+	public boolean isEnabled(){
+		return (this.maximumSize > 0);
+	}
+
+	/**
+	 * @param metrics The metrics of the model that the cache belongs to, or <code>null</code> if per-model metrics are not collected.
+	 *
+	 * @return A new empty cache, or <code>null</code> if result caching is disabled.
+	 */
+	public ResultCache create(ModelMetrics metrics){
+
+		if(!isEnabled()){
+			return null;
+		}
+
+		Counter hits = (metrics != null ? metrics.getCacheHits() : new Counter());
+		Counter misses = (metrics != null ? metrics.getCacheMisses() : new Counter());
+
+		final
+		Counter evictions = (metrics != null ? metrics.getCacheEvictions() : new Counter());
+
+		RemovalListener<List<Object>, Map<String, ?>> removalListener = new RemovalListener<List<Object>, Map<String, ?>>(){
+
+			@Override
+			public void onRemoval(RemovalNotification<List<Object>, Map<String, ?>> notification){
+
+				if(notification.wasEvicted()){
+					evictions.inc();
+				}
+			}
+		};
+
+		Cache<List<Object>, Map<String, ?>> cache = CacheBuilder.newBuilder()
+			.maximumSize(this.maximumSize)
+			.expireAfterWrite(this.ttlNanos, TimeUnit.NANOSECONDS)
+			.removalListener(removalListener)
+			.build();
+
+		return new ResultCache(cache, hits, misses);
+	}
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 2014 Villu Ruusmann
+ *
+ * This file is part of Openscoring
+ *
+ * Openscoring is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Openscoring is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Openscoring.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openscoring.service;
+
+import java.lang.reflect.*;
+import java.util.concurrent.*;
+
+/**
+ * Creates virtual threads on Java 21 and newer.
+ *
+ * The project is compiled against older Java versions, so the virtual thread API is accessed reflectively.
+ */
+public class VirtualThreads {
+
+	private VirtualThreads(){
+	}
+
+	static
+	public boolean isSupported(){
+		return (FACTORY != null);
+	}
+
+	/**
+	 * @throws UnsupportedOperationException If the Java runtime does not support virtual threads.
+	 */
+	static
+	public ThreadFactory getThreadFactory(){
+
+		if(FACTORY == null){
+			throw new UnsupportedOperationException("Virtual threads require Java 21 or newer");
+		}
+
+		return FACTORY;
+	}
+
+	/**
+	 * Creates an executor that starts a new virtual thread for every task.
+	 *
+	 * @throws UnsupportedOperationException If the Java runtime does not support virtual threads.
+	 */
+	static
+	public ExecutorService newThreadPerTaskExecutor(){
+		ThreadFactory threadFactory = getThreadFactory();
+
+		try {
+			Method executorMethod = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+
+			return (ExecutorService)executorMethod.invoke(null, threadFactory);
+		} catch(Exception e){
+			throw new UnsupportedOperationException(e);
+		}
+	}
+
+	static
+	private ThreadFactory createThreadFactory(){
+
+		try {
+			Object builder = (Thread.class.getMethod("ofVirtual")).invoke(null);
+
+			Method factoryMethod = (Class.forName("java.lang.Thread$Builder")).getMethod("factory");
+
+			return (ThreadFactory)factoryMethod.invoke(builder);
+		} catch(Exception e){
+			return null;
+		}
+	}
+
+	private static final ThreadFactory FACTORY = createThreadFactory();
+}
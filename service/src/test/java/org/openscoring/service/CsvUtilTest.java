@@ -0,0 +1,181 @@
+/*
+ * Copyright (c) 2014 Villu Ruusmann
+ *
+ * This file is part of Openscoring
+ *
+ * Openscoring is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Openscoring is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Openscoring.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openscoring.service;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.openscoring.common.*;
+
+import com.google.common.collect.*;
+
+import org.junit.*;
+
+import org.supercsv.io.*;
+import org.supercsv.prefs.*;
+
+import static org.junit.Assert.*;
+
+public class CsvUtilTest {
+
+	@Test
+	public void getFormat() throws Exception {
+		assertSame(CsvPreference.EXCEL_PREFERENCE, getFormat("a,b\n1,2\n"));
+		assertSame(CsvPreference.EXCEL_NORTH_EUROPE_PREFERENCE, getFormat("a;b\r\n1,5;2,5\r\n"));
+		assertSame(CsvPreference.TAB_PREFERENCE, getFormat("a\tb\n1\t2"));
+
+		// Delimiters and line breaks inside quoted cells
+		assertSame(CsvPreference.EXCEL_PREFERENCE, getFormat("a,b\n\"1;\n2\",3\n\n4,5\n"));
+
+		try {
+			getFormat("a\n1\n");
+
+			fail();
+		} catch(IOException ioe){
+			// Ignored
+		}
+	}
+
+	@Test
+	public void readTable() throws Exception {
+		String csv = "Id,a,b,c\r\n1,x,\"y,\"\"z\"\"\",\r\n\r\n2,,\"\",\"multi\nline\"\r\n";
+
+		List<EvaluationRequest> requests = CsvUtil.readTable(new BufferedReader(new StringReader(csv)), CsvPreference.EXCEL_PREFERENCE, "Id");
+		assertEquals(2, requests.size());
+
+		EvaluationRequest first = requests.get(0);
+		assertEquals("1", first.getId());
+		assertEquals(Arrays.asList("a", "b", "c"), new ArrayList<String>((first.getArguments()).keySet()));
+		assertEquals("x", first.getArgument("a"));
+		assertEquals("y,\"z\"", first.getArgument("b"));
+		assertNull(first.getArgument("c"));
+
+		EvaluationRequest second = requests.get(1);
+		assertEquals("2", second.getId());
+		assertNull(second.getArgument("a"));
+		assertEquals("", second.getArgument("b"));
+		assertEquals("multi\nline", second.getArgument("c"));
+
+		requests = CsvUtil.readTable(new BufferedReader(new StringReader(csv)), CsvPreference.EXCEL_PREFERENCE, "Id", Arrays.asList("c", "d"));
+
+		first = requests.get(0);
+		assertEquals(Collections.singleton("c"), (first.getArguments()).keySet());
+	}
+
+	@Test
+	public void readTableLongRow() throws Exception {
+		StringBuilder sb = new StringBuilder();
+
+		for(int i = 0; i < 100 * 1024; i++){
+			sb.append('x');
+		}
+
+		String value = sb.toString();
+
+		String csv = "a,b\n\"" + value + "\"," + value + "\n1,2";
+
+		List<EvaluationRequest> requests = CsvUtil.readTable(new BufferedReader(new StringReader(csv)), CsvPreference.EXCEL_PREFERENCE, null);
+		assertEquals(2, requests.size());
+
+		assertEquals(value, (requests.get(0)).getArgument("a"));
+		assertEquals(value, (requests.get(0)).getArgument("b"));
+		assertEquals("2", (requests.get(1)).getArgument("b"));
+	}
+
+	@Test
+	public void readTableLikeSuperCsv() throws Exception {
+		String[] ids = {"Iris", "Shopping"};
+
+		for(String id : ids){
+			List<EvaluationRequest> requests = ModelServiceTest.loadRequest(id);
+
+			BufferedReader reader = new BufferedReader(new InputStreamReader(CsvUtilTest.class.getResourceAsStream("/csv/" + id + ".csv"), "UTF-8"));
+
+			try {
+				CsvMapReader parser = new CsvMapReader(reader, CsvPreference.TAB_PREFERENCE);
+
+				String[] header = parser.getHeader(true);
+
+				for(EvaluationRequest request : requests){
+					Map<String, String> row = parser.read(header);
+
+					assertEquals(row.remove("Id"), request.getId());
+					assertEquals(row, request.getArguments());
+				}
+
+				assertNull(parser.read(header));
+			} finally {
+				reader.close();
+			}
+		}
+	}
+
+	@Test
+	public void writeTableConcurrently() throws Exception {
+		final
+		List<EvaluationResponse> responses = Lists.newArrayList();
+
+		for(int i = 0; i < 1000; i++){
+			EvaluationResponse response = new EvaluationResponse("example-" + i);
+			response.setResult(Collections.singletonMap("Species", "\"setosa\", " + i));
+
+			responses.add(response);
+		}
+
+		final
+		String expected = writeTable(responses);
+
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+
+		try {
+			List<Future<String>> futures = Lists.newArrayList();
+
+			for(int i = 0; i < 16; i++){
+				futures.add(executor.submit(new Callable<String>(){
+
+					@Override
+					public String call() throws IOException {
+						return writeTable(responses);
+					}
+				}));
+			}
+
+			for(Future<String> future : futures){
+				assertEquals(expected, future.get());
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	static
+	private CsvPreference getFormat(String string) throws IOException {
+		return CsvUtil.getFormat(new BufferedReader(new StringReader(string)));
+	}
+
+	static
+	private String writeTable(List<EvaluationResponse> responses) throws IOException {
+		StringWriter writer = new StringWriter();
+
+		CsvUtil.writeTable(new BufferedWriter(writer), CsvPreference.EXCEL_PREFERENCE, "Id", responses);
+
+		return writer.toString();
+	}
+}
@@ -0,0 +1,222 @@
+/*
+ * Copyright (c) 2014 Villu Ruusmann
+ *
+ * This file is part of Openscoring
+ *
+ * Openscoring is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Openscoring is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Openscoring.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openscoring.service;
+
+import java.lang.reflect.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.openscoring.common.*;
+
+import org.junit.*;
+
+import com.codahale.metrics.*;
+import com.codahale.metrics.Timer;
+
+import static org.junit.Assert.*;
+
+public class EvaluationCoalescerTest {
+
+	@Test
+	public void evaluate() throws Exception {
+		final
+		ModelEntry entry = new ModelEntry(ModelServiceTest.loadPMML("DecisionTreeIris"));
+
+		MetricRegistry metrics = new MetricRegistry();
+
+		final
+		EvaluationCoalescer coalescer = new EvaluationCoalescer(metrics, 8, 50, TimeUnit.MILLISECONDS);
+
+		List<EvaluationRequest> requests = ModelServiceTest.loadRequest("Iris");
+
+		ExecutorService executor = Executors.newFixedThreadPool(16);
+
+		try {
+			List<Future<EvaluationResponse>> futures = new ArrayList<Future<EvaluationResponse>>();
+
+			for(final EvaluationRequest request : requests){
+				Callable<EvaluationResponse> task = new Callable<EvaluationResponse>(){
+
+					@Override
+					public EvaluationResponse call() throws Exception {
+						return coalescer.evaluate(entry, request);
+					}
+				};
+
+				futures.add(executor.submit(task));
+			}
+
+			for(int i = 0; i < requests.size(); i++){
+				EvaluationRequest request = requests.get(i);
+				EvaluationResponse response = (futures.get(i)).get();
+
+				EvaluationResponse expectedResponse = ModelService.evaluate(entry, request);
+
+				assertEquals(request.getId(), response.getId());
+				assertEquals(expectedResponse.getResult(), response.getResult());
+			}
+		} finally {
+			executor.shutdown();
+		}
+
+		Histogram fillRatio = metrics.histogram(MetricRegistry.name(EvaluationCoalescer.class, "fillRatio"));
+		Timer queueDelay = metrics.timer(MetricRegistry.name(EvaluationCoalescer.class, "queueDelay"));
+
+		assertTrue(fillRatio.getCount() < requests.size());
+		assertEquals(requests.size(), queueDelay.getCount());
+	}
+
+	@Test
+	public void evaluateDuplicates() throws Exception {
+		MetricRegistry metrics = new MetricRegistry();
+
+		ModelMetrics modelMetrics = new ModelMetrics();
+
+		ResultCacheFactory cacheFactory = new ResultCacheFactory(100, 60, TimeUnit.SECONDS);
+
+		final
+		ModelEntry entry = new ModelEntry(ModelServiceTest.loadPMML("DecisionTreeIris"), cacheFactory.create(modelMetrics), modelMetrics);
+
+		final
+		EvaluationCoalescer coalescer = new EvaluationCoalescer(metrics, 4, 10, TimeUnit.SECONDS);
+
+		EvaluationRequest template = (ModelServiceTest.loadRequest("Iris")).get(0);
+
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+
+		try {
+			List<Future<EvaluationResponse>> futures = new ArrayList<Future<EvaluationResponse>>();
+
+			for(int i = 0; i < 4; i++){
+				final
+				EvaluationRequest request = new EvaluationRequest(String.valueOf(i));
+				request.setArguments(template.getArguments());
+
+				Callable<EvaluationResponse> task = new Callable<EvaluationResponse>(){
+
+					@Override
+					public EvaluationResponse call() throws Exception {
+						return coalescer.evaluate(entry, request);
+					}
+				};
+
+				futures.add(executor.submit(task));
+			}
+
+			EvaluationResponse expectedResponse = ModelService.evaluate(new ModelEntry(entry.getPMML()), template);
+
+			for(int i = 0; i < 4; i++){
+				EvaluationResponse response = (futures.get(i)).get();
+
+				assertEquals(String.valueOf(i), response.getId());
+				assertEquals(expectedResponse.getResult(), response.getResult());
+			}
+		} finally {
+			executor.shutdown();
+		}
+
+		// The full batch was scored once
+		assertEquals(1, (modelMetrics.getCacheMisses()).getCount());
+		assertEquals(0, (modelMetrics.getCacheHits()).getCount());
+	}
+
+	@Test(timeout = 30000)
+	public void evaluateLeaderRace() throws Exception {
+		final
+		ModelEntry entry = new ModelEntry(ModelServiceTest.loadPMML("DecisionTreeIris"));
+
+		final
+		EvaluationCoalescer coalescer = new EvaluationCoalescer(new MetricRegistry(), 4, 100, TimeUnit.MILLISECONDS);
+
+		final
+		CountDownLatch published = new CountDownLatch(1);
+
+		final
+		CountDownLatch released = new CountDownLatch(1);
+
+		// Holds the leader of the first batch right after it has published the batch
+		ConcurrentMap<Object, Object> batches = new ConcurrentHashMap<Object, Object>(){
+
+			@Override
+			public Object putIfAbsent(Object key, Object value){
+				Object result = super.putIfAbsent(key, value);
+
+				if(result == null && published.getCount() > 0){
+					published.countDown();
+
+					try {
+						released.await();
+					} catch(InterruptedException ie){
+						Thread.currentThread().interrupt();
+					}
+				}
+
+				return result;
+			}
+		};
+
+		Field field = EvaluationCoalescer.class.getDeclaredField("batches");
+		field.setAccessible(true);
+		field.set(coalescer, batches);
+
+		final
+		List<EvaluationRequest> requests = ModelServiceTest.loadRequest("Iris");
+
+		ExecutorService executor = Executors.newCachedThreadPool();
+
+		try {
+			List<Future<EvaluationResponse>> futures = new ArrayList<Future<EvaluationResponse>>();
+
+			for(int i = 0; i < 1 + 4; i++){
+				final
+				EvaluationRequest request = requests.get(i);
+
+				Callable<EvaluationResponse> task = new Callable<EvaluationResponse>(){
+
+					@Override
+					public EvaluationResponse call() throws Exception {
+						return coalescer.evaluate(entry, request);
+					}
+				};
+
+				futures.add(executor.submit(task));
+
+				// The remaining requests are followers, which try to fill the batch while its leader is held
+				if(i == 0){
+					published.await();
+				}
+			}
+
+			// Give the followers time to fill the batch
+			Thread.sleep(200);
+
+			released.countDown();
+
+			for(int i = 0; i < futures.size(); i++){
+				EvaluationResponse response = (futures.get(i)).get(10, TimeUnit.SECONDS);
+
+				assertEquals((requests.get(i)).getId(), response.getId());
+			}
+		} finally {
+			released.countDown();
+
+			executor.shutdownNow();
+		}
+	}
+}
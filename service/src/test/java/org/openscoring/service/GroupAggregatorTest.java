@@ -0,0 +1,208 @@
+/*
+ * Copyright (c) 2014 Villu Ruusmann
+ *
+ * This file is part of Openscoring
+ *
+ * Openscoring is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Openscoring is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Openscoring.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openscoring.service;
+
+import java.io.*;
+import java.util.*;
+
+import org.openscoring.common.*;
+
+import com.google.common.collect.*;
+
+import org.junit.*;
+
+import static org.junit.Assert.*;
+
+public class GroupAggregatorTest {
+
+	@Test
+	public void aggregate() throws Exception {
+		List<EvaluationRequest> requests = createRequests(new String[][]{{"1", "a"}, {"2", "b"}, {"1", "c"}, {"3", null}, {"2", "d"}});
+
+		List<EvaluationRequest> aggregatedRequests = aggregate(new GroupAggregator("transaction"), requests, true);
+
+		assertEquals(3, aggregatedRequests.size());
+
+		checkGroup("1", Arrays.<Object>asList("a", "c"), aggregatedRequests.get(0));
+		checkGroup("2", Arrays.<Object>asList("b", "d"), aggregatedRequests.get(1));
+		checkGroup("3", Arrays.<Object>asList((Object)null), aggregatedRequests.get(2));
+
+		assertTrue(GroupAggregator.requiresAggregation("transaction", requests));
+
+		List<EvaluationRequest> sortedRequests = createRequests(new String[][]{{"1", "a"}, {"1", "c"}, {"2", "b"}, {"2", "d"}, {"3", null}});
+
+		assertEquals(toArguments(aggregatedRequests), toArguments(aggregate(new GroupAggregator("transaction"), sortedRequests, true)));
+	}
+
+	@Test
+	public void aggregateSpilled() throws Exception {
+		Random random = new Random(42L);
+
+		String[][] rows = new String[1000][];
+
+		for(int i = 0; i < rows.length; i++){
+			rows[i] = new String[]{String.valueOf(random.nextInt(100)), "item-" + i};
+		}
+
+		List<EvaluationRequest> requests = createRequests(rows);
+
+		assertEquals(toArguments(aggregate(new GroupAggregator("transaction"), requests, true)), toArguments(aggregateSpilled(requests, 10)));
+	}
+
+	@Test
+	public void aggregateSplit() throws Exception {
+		Random random = new Random(42L);
+
+		String[][] rows = new String[5000][];
+
+		for(int i = 0; i < rows.length; i++){
+			rows[i] = new String[]{String.valueOf(random.nextInt(2000)), "item-" + i};
+		}
+
+		List<EvaluationRequest> requests = createRequests(rows);
+
+		// Every partition holds more groups than the memory budget
+		assertEquals(toArguments(aggregate(new GroupAggregator("transaction"), requests, true)), toArguments(aggregateSpilled(requests, 2)));
+	}
+
+	@Test
+	public void aggregateCollisions() throws Exception {
+		// "Aa" and "BB" have the same hash code, and so do all their concatenations
+		String[] transactions = {"AaAaAa", "AaAaBB", "AaBBAa", "AaBBBB", "BBAaAa", "BBAaBB", "BBBBAa", "BBBBBB"};
+
+		String[][] rows = new String[100][];
+
+		for(int i = 0; i < rows.length; i++){
+			rows[i] = new String[]{transactions[(i * 3) % transactions.length], "item-" + i};
+		}
+
+		List<EvaluationRequest> requests = createRequests(rows);
+
+		assertEquals(toArguments(aggregate(new GroupAggregator("transaction"), requests, true)), toArguments(aggregateSpilled(requests, 2)));
+	}
+
+	@Test
+	public void passThrough() throws Exception {
+		List<EvaluationRequest> requests = createRequests(new String[][]{{"1", "a"}, {"3", "b"}, {"2", "c"}});
+
+		assertFalse(GroupAggregator.requiresAggregation("transaction", requests));
+
+		List<EvaluationRequest> resultRequests = aggregate(new GroupAggregator("transaction", 1, null), requests, false);
+
+		assertEquals(requests.size(), resultRequests.size());
+
+		for(int i = 0; i < requests.size(); i++){
+			EvaluationRequest request = requests.get(i);
+			EvaluationRequest resultRequest = resultRequests.get(i);
+
+			assertEquals(request.getId(), resultRequest.getId());
+			assertEquals(request.getArguments(), resultRequest.getArguments());
+		}
+	}
+
+	static
+	private List<EvaluationRequest> aggregate(GroupAggregator aggregator, List<EvaluationRequest> requests, boolean grouped) throws IOException {
+		List<EvaluationRequest> result = Lists.newArrayList();
+
+		try {
+			for(EvaluationRequest request : requests){
+				aggregator.add(request);
+			}
+
+			aggregator.finish();
+
+			assertEquals(grouped, aggregator.isGrouped());
+			assertEquals(requests.size(), aggregator.getRowCount());
+
+			while(true){
+				EvaluationRequest request = aggregator.read();
+				if(request == null){
+					break;
+				}
+
+				result.add(request);
+			}
+		} finally {
+			aggregator.close();
+		}
+
+		return result;
+	}
+
+	static
+	private List<EvaluationRequest> aggregateSpilled(List<EvaluationRequest> requests, int maxGroups) throws IOException {
+		File directory = File.createTempFile("openscoring-", "");
+		directory.delete();
+		directory.mkdir();
+
+		GroupAggregator aggregator = new GroupAggregator("transaction", maxGroups, directory);
+
+		try {
+			List<EvaluationRequest> result = aggregate(aggregator, requests, true);
+
+			assertTrue(aggregator.isSpilled());
+
+			// Spill files are deleted when the aggregator is closed
+			assertEquals(0, (directory.listFiles()).length);
+
+			return result;
+		} finally {
+			directory.delete();
+		}
+	}
+
+	static
+	private void checkGroup(String transaction, List<Object> items, EvaluationRequest request){
+		Map<String, ?> arguments = request.getArguments();
+
+		assertNull(request.getId());
+
+		assertEquals(transaction, arguments.get("transaction"));
+		assertEquals(items, arguments.get("item"));
+	}
+
+	static
+	private List<Map<String, ?>> toArguments(List<EvaluationRequest> requests){
+		List<Map<String, ?>> result = Lists.newArrayList();
+
+		for(EvaluationRequest request : requests){
+			result.add(request.getArguments());
+		}
+
+		return result;
+	}
+
+	static
+	private List<EvaluationRequest> createRequests(String[][] rows){
+		List<EvaluationRequest> result = Lists.newArrayList();
+
+		for(int i = 0; i < rows.length; i++){
+			Map<String, Object> arguments = Maps.newLinkedHashMap();
+			arguments.put("transaction", rows[i][0]);
+			arguments.put("item", rows[i][1]);
+
+			EvaluationRequest request = new EvaluationRequest(String.valueOf(i + 1));
+			request.setArguments(arguments);
+
+			result.add(request);
+		}
+
+		return result;
+	}
+}
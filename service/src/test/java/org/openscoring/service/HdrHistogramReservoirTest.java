@@ -0,0 +1,83 @@
+/*
+ * Copyright (c) 2014 Villu Ruusmann
+ *
+ * This file is part of Openscoring
+ *
+ * Openscoring is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Openscoring is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Openscoring.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openscoring.service;
+
+import java.util.concurrent.*;
+
+import com.codahale.metrics.*;
+
+import org.junit.*;
+
+import static org.junit.Assert.*;
+
+public class HdrHistogramReservoirTest {
+
+	@Test
+	public void percentiles(){
+		HdrHistogramReservoir reservoir = new HdrHistogramReservoir();
+
+		for(int i = 1; i <= 100000; i++){
+			reservoir.update(i);
+		}
+
+		Snapshot snapshot = reservoir.getSnapshot();
+
+		assertEquals(100000, snapshot.size());
+		assertEquals(1, snapshot.getMin());
+		assertEquals(100000d, snapshot.getMax(), 100000d * 0.001d);
+
+		assertEquals(50000d, snapshot.getMedian(), 50000d * 0.001d);
+		assertEquals(99000d, snapshot.get99thPercentile(), 99000d * 0.001d);
+		assertEquals(99900d, snapshot.get999thPercentile(), 99900d * 0.001d);
+
+		// Values are accumulated, not drained, by snapshots
+		assertEquals(100000, (reservoir.getSnapshot()).size());
+	}
+
+	@Test
+	public void refresh() throws Exception {
+		HdrHistogramReservoir reservoir = new HdrHistogramReservoir(1, TimeUnit.MINUTES, 50, TimeUnit.MILLISECONDS);
+
+		reservoir.update(1);
+
+		Snapshot snapshot = reservoir.getSnapshot();
+
+		assertEquals(1, snapshot.size());
+
+		reservoir.update(2);
+
+		// Reads within the refresh interval share the snapshot
+		assertSame(snapshot, reservoir.getSnapshot());
+
+		Thread.sleep(100);
+
+		assertEquals(2, (reservoir.getSnapshot()).size());
+	}
+
+	@Test
+	public void empty(){
+		HdrHistogramReservoir reservoir = new HdrHistogramReservoir();
+
+		Snapshot snapshot = reservoir.getSnapshot();
+
+		assertEquals(0, snapshot.size());
+		assertEquals(0, snapshot.getMax());
+		assertEquals(0d, snapshot.getMean(), 0d);
+	}
+}
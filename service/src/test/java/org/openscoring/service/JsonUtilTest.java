@@ -0,0 +1,72 @@
+/*
+ * Copyright (c) 2014 Villu Ruusmann
+ *
+ * This file is part of Openscoring
+ *
+ * Openscoring is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Openscoring is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Openscoring.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openscoring.service;
+
+import java.io.*;
+import java.util.*;
+
+import org.openscoring.common.*;
+
+import org.junit.*;
+
+import static org.junit.Assert.*;
+
+public class JsonUtilTest {
+
+	@Test
+	public void readRecords() throws Exception {
+		String string = "{\"id\" : \"example-001\", \"arguments\" : {\"Sepal.Length\" : 5.1}}\n{\"id\" : \"example-002\", \"arguments\" : {\"Sepal.Length\" : 7}}\n";
+
+		JsonUtil.RecordReader parser = new JsonUtil.RecordReader(new ByteArrayInputStream(string.getBytes("UTF-8")));
+
+		EvaluationRequest first = parser.read();
+		assertEquals("example-001", first.getId());
+		assertEquals(5.1d, first.getArgument("Sepal.Length"));
+
+		EvaluationRequest second = parser.read();
+		assertEquals("example-002", second.getId());
+		assertEquals(7, second.getArgument("Sepal.Length"));
+
+		assertNull(parser.read());
+
+		parser.close();
+	}
+
+	@Test
+	public void writeRecords() throws Exception {
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+
+		JsonUtil.RecordWriter formatter = new JsonUtil.RecordWriter(os);
+
+		for(int i = 0; i < 2; i++){
+			EvaluationResponse response = new EvaluationResponse("example-00" + (i + 1));
+			response.setResult(Collections.singletonMap("Species", "setosa"));
+
+			formatter.write(response);
+		}
+
+		formatter.close();
+
+		String[] lines = (os.toString("UTF-8")).split("\n");
+		assertEquals(2, lines.length);
+
+		assertEquals("{\"id\":\"example-001\",\"result\":{\"Species\":\"setosa\"}}", lines[0]);
+		assertEquals("{\"id\":\"example-002\",\"result\":{\"Species\":\"setosa\"}}", lines[1]);
+	}
+}
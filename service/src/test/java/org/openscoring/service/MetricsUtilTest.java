@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) 2014 Villu Ruusmann
+ *
+ * This file is part of Openscoring
+ *
+ * Openscoring is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Openscoring is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Openscoring.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openscoring.service;
+
+import java.io.*;
+import java.util.*;
+
+import com.codahale.metrics.*;
+
+import org.codehaus.jackson.map.*;
+
+import org.junit.*;
+
+import static org.junit.Assert.*;
+
+public class MetricsUtilTest {
+
+	@Test
+	public void writePrometheus() throws Exception {
+		MetricRegistry metrics = createMetrics();
+
+		StringWriter writer = new StringWriter();
+
+		MetricsUtil.writePrometheus(metrics, writer);
+
+		List<String> lines = Arrays.asList((writer.toString()).split("\n"));
+
+		assertTrue(lines.contains("# TYPE org_openscoring_Test_size gauge"));
+		assertTrue(lines.contains("org_openscoring_Test_size 42"));
+
+		// Per-model metrics of all models make up a single metric family
+		assertEquals(1, Collections.frequency(lines, "# TYPE openscoring_model_errors gauge"));
+		assertTrue(lines.contains("openscoring_model_errors{model=\"first\"} 1"));
+		assertTrue(lines.contains("openscoring_model_errors{model=\"second\"} 0"));
+
+		assertTrue(lines.contains("# TYPE openscoring_model_batchSize summary"));
+		assertTrue(lines.contains("openscoring_model_batchSize{model=\"first\",quantile=\"0.999\"} 10"));
+		assertTrue(lines.contains("openscoring_model_batchSize_count{model=\"first\"} 1"));
+
+		assertTrue(lines.contains("# TYPE openscoring_model_records_total counter"));
+		assertTrue(lines.contains("openscoring_model_records_total{model=\"first\"} 10"));
+
+		assertTrue(lines.contains("# TYPE openscoring_model_requests_seconds summary"));
+		assertTrue(lines.contains("openscoring_model_requests_seconds_count{model=\"second\"} 0"));
+	}
+
+	@Test
+	public void writeJson() throws Exception {
+		MetricRegistry metrics = createMetrics();
+
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+
+		MetricsUtil.writeJson(metrics, os);
+
+		ObjectMapper mapper = new ObjectMapper();
+
+		Map<?, ?> result = mapper.readValue(os.toByteArray(), Map.class);
+
+		Map<?, ?> gauges = (Map<?, ?>)result.get("gauges");
+		assertEquals(Collections.singletonMap("value", 42), gauges.get("org.openscoring.Test.size"));
+
+		Map<?, ?> histograms = (Map<?, ?>)result.get("histograms");
+		assertEquals(1, ((Map<?, ?>)histograms.get("model.first.batchSize")).get("count"));
+
+		Map<?, ?> timers = (Map<?, ?>)result.get("timers");
+		assertTrue(timers.containsKey("model.second.requests"));
+	}
+
+	static
+	private MetricRegistry createMetrics(){
+		MetricRegistry metrics = new MetricRegistry();
+
+		Gauge<Integer> gauge = new Gauge<Integer>(){
+
+			@Override
+			public Integer getValue(){
+				return 42;
+			}
+		};
+
+		metrics.register("org.openscoring.Test.size", gauge);
+
+		ModelMetricsRegistry metricsRegistry = new ModelMetricsRegistry(metrics);
+
+		ModelMetrics first = metricsRegistry.register("First");
+		first.update(10);
+		first.error();
+
+		metricsRegistry.register("Second");
+
+		return metrics;
+	}
+}
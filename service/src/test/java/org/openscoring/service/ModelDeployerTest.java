@@ -0,0 +1,136 @@
+/*
+ * Copyright (c) 2014 Villu Ruusmann
+ *
+ * This file is part of Openscoring
+ *
+ * Openscoring is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Openscoring is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Openscoring.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openscoring.service;
+
+import java.util.concurrent.*;
+
+import org.openscoring.common.*;
+
+import org.junit.*;
+
+import static org.junit.Assert.*;
+
+public class ModelDeployerTest {
+
+	@Test
+	public void submit() throws Exception {
+		ModelDeployer deployer = new ModelDeployer(1, 1);
+
+		try {
+			final
+			CountDownLatch started = new CountDownLatch(1);
+
+			final
+			CountDownLatch release = new CountDownLatch(1);
+
+			Callable<Void> blockingTask = new Callable<Void>(){
+
+				@Override
+				public Void call() throws Exception {
+					started.countDown();
+
+					release.await();
+
+					return null;
+				}
+			};
+
+			Callable<Void> failingTask = new Callable<Void>(){
+
+				@Override
+				public Void call() throws Exception {
+					throw new IllegalArgumentException("Invalid model");
+				}
+			};
+
+			deployer.submit("first", blockingTask);
+			assertTrue(started.await(5, TimeUnit.SECONDS));
+			assertEquals(DeploymentStatusResponse.Status.DEPLOYING, getStatus(deployer, "FIRST"));
+
+			deployer.submit("second", failingTask);
+			assertEquals(DeploymentStatusResponse.Status.PENDING, getStatus(deployer, "second"));
+
+			try {
+				deployer.submit("third", failingTask);
+
+				fail();
+			} catch(RejectedExecutionException ree){
+				assertNull(deployer.getStatus("third"));
+			}
+
+			release.countDown();
+
+			awaitStatus(deployer, "first", DeploymentStatusResponse.Status.DEPLOYED);
+
+			DeploymentStatusResponse status = awaitStatus(deployer, "second", DeploymentStatusResponse.Status.FAILED);
+			assertTrue((status.getMessage()).contains("Invalid model"));
+		} finally {
+			deployer.shutdown();
+		}
+	}
+
+	@Test
+	public void sequence(){
+		ModelDeployer deployer = new ModelDeployer();
+
+		long first = deployer.begin("DecisionTreeIris");
+		long second = deployer.begin("decisiontreeiris");
+
+		assertTrue(first < second);
+
+		deployer.complete("DecisionTreeIris", second);
+
+		// The older deploy completes last, and must not be published
+		assertTrue(deployer.isSuperseded("DecisionTreeIris", first));
+		assertFalse(deployer.isSuperseded("DecisionTreeIris", second));
+
+		deployer.end("DecisionTreeIris", second);
+		deployer.end("DecisionTreeIris", first);
+
+		long third = deployer.begin("DecisionTreeIris");
+
+		assertFalse(deployer.isSuperseded("DecisionTreeIris", third));
+
+		deployer.end("DecisionTreeIris", third);
+	}
+
+	static
+	private DeploymentStatusResponse.Status getStatus(ModelDeployer deployer, String id){
+		return (deployer.getStatus(id)).getStatus();
+	}
+
+	static
+	private DeploymentStatusResponse awaitStatus(ModelDeployer deployer, String id, DeploymentStatusResponse.Status expectedStatus) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 5000L;
+
+		while(true){
+			DeploymentStatusResponse status = deployer.getStatus(id);
+
+			if(status.getStatus() == expectedStatus){
+				return status;
+			} // End if
+
+			if(System.currentTimeMillis() > deadline){
+				fail("Expected " + expectedStatus + ", got " + status.getStatus());
+			}
+
+			Thread.sleep(10L);
+		}
+	}
+}
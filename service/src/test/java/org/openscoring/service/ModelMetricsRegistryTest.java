@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) 2014 Villu Ruusmann
+ *
+ * This file is part of Openscoring
+ *
+ * Openscoring is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Openscoring is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Openscoring.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openscoring.service;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.dmg.pmml.*;
+
+import com.codahale.metrics.*;
+
+import org.junit.*;
+
+import static org.junit.Assert.*;
+
+public class ModelMetricsRegistryTest {
+
+	@Test
+	public void registerAndUnregister(){
+		MetricRegistry metrics = new MetricRegistry();
+
+		ModelMetricsRegistry metricsRegistry = new ModelMetricsRegistry(metrics);
+
+		ModelMetrics modelMetrics = metricsRegistry.register("DecisionTreeIris");
+		assertSame(modelMetrics, metricsRegistry.register("decisiontreeiris"));
+		assertSame(modelMetrics, metricsRegistry.get("DECISIONTREEIRIS"));
+
+		modelMetrics.update(10);
+		modelMetrics.error();
+
+		assertEquals(10, (metrics.getMeters()).get("model.decisiontreeiris.records").getCount());
+		assertEquals(1, (metrics.getHistograms()).get("model.decisiontreeiris.batchSize").getCount());
+		assertEquals(1, (metrics.getCounters()).get("model.decisiontreeiris.errors").getCount());
+		assertTrue((metrics.getTimers()).containsKey("model.decisiontreeiris.requests"));
+
+		ResultCacheFactory cacheFactory = new ResultCacheFactory(10, 60, TimeUnit.SECONDS);
+
+		ResultCache cache = cacheFactory.create(modelMetrics);
+		cache.get(Collections.<FieldName, Object>emptyMap());
+
+		assertEquals(1, (metrics.getCounters()).get("model.decisiontreeiris.cacheMisses").getCount());
+		assertEquals(0, (metrics.getCounters()).get("model.decisiontreeiris.cacheHits").getCount());
+		assertTrue((metrics.getCounters()).containsKey("model.decisiontreeiris.cacheEvictions"));
+
+		metricsRegistry.unregister("DecisionTreeIris");
+
+		assertNull(metricsRegistry.get("DecisionTreeIris"));
+		assertTrue((metrics.getNames()).isEmpty());
+
+		// Re-deployment after undeployment starts from scratch
+		assertNotSame(modelMetrics, metricsRegistry.register("DecisionTreeIris"));
+	}
+
+	@Test
+	public void createAndRegister(){
+		MetricRegistry metrics = new MetricRegistry();
+
+		ModelMetricsRegistry metricsRegistry = new ModelMetricsRegistry(metrics);
+
+		// The model has not been published yet
+		ModelMetrics modelMetrics = metricsRegistry.create("DecisionTreeIris");
+
+		assertNull(metricsRegistry.get("DecisionTreeIris"));
+		assertTrue((metrics.getNames()).isEmpty());
+
+		metricsRegistry.register("DecisionTreeIris", modelMetrics);
+
+		assertSame(modelMetrics, metricsRegistry.get("DecisionTreeIris"));
+		assertFalse((metrics.getNames()).isEmpty());
+
+		// Re-deployment keeps the metrics
+		assertSame(modelMetrics, metricsRegistry.create("decisiontreeiris"));
+
+		ModelMetrics otherModelMetrics = new ModelMetrics();
+
+		metricsRegistry.register("DecisionTreeIris", otherModelMetrics);
+
+		assertSame(otherModelMetrics, metricsRegistry.get("DecisionTreeIris"));
+		assertSame(otherModelMetrics.getRequests(), (metrics.getTimers()).get("model.decisiontreeiris.requests"));
+	}
+
+	@Test
+	public void disabled(){
+		ModelMetricsRegistry metricsRegistry = new ModelMetricsRegistry();
+
+		assertNull(metricsRegistry.create("DecisionTreeIris"));
+		assertNull(metricsRegistry.register("DecisionTreeIris"));
+		assertNull(metricsRegistry.get("DecisionTreeIris"));
+	}
+}
@@ -0,0 +1,353 @@
+/*
+ * Copyright (c) 2014 Villu Ruusmann
+ *
+ * This file is part of Openscoring
+ *
+ * Openscoring is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Openscoring is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Openscoring.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openscoring.service;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+import javax.ws.rs.*;
+import javax.ws.rs.core.*;
+
+import org.openscoring.common.*;
+
+import com.sun.jersey.api.*;
+
+import org.dmg.pmml.*;
+
+import org.junit.*;
+import org.junit.Rule;
+import org.junit.rules.*;
+
+import com.codahale.metrics.*;
+
+import static org.junit.Assert.*;
+
+public class ModelRegistryTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+
+	@Test
+	public void versioning() throws Exception {
+		ModelRegistry registry = new ModelRegistry();
+
+		PMML pmml = ModelServiceTest.loadPMML("DecisionTreeIris");
+
+		ModelEntry first = new ModelEntry(pmml);
+		assertNull(registry.put("DecisionTreeIris", first));
+		assertEquals(1, first.getVersion());
+
+		ModelEntry second = new ModelEntry(pmml);
+		assertSame(first, registry.put("decisiontreeiris", second));
+		assertTrue(second.getVersion() > first.getVersion());
+
+		assertSame(second, registry.get("DECISIONTREEIRIS"));
+		assertEquals(Collections.singleton("decisiontreeiris"), registry.idSet());
+
+		assertSame(second, registry.remove("DecisionTreeIris"));
+		assertNull(registry.get("DecisionTreeIris"));
+	}
+
+	@Test
+	public void eviction() throws Exception {
+		ModelStore swapStore = new ModelStore(this.folder.newFolder("swap"));
+
+		ModelRegistry registry = new ModelRegistry(new MetricRegistry(), 1, swapStore);
+
+		ModelService service = new ModelService(registry);
+
+		ModelMetrics irisMetrics = new ModelMetrics();
+		ModelMetrics shoppingMetrics = new ModelMetrics();
+
+		ModelEntry iris = new ModelEntry(ModelServiceTest.loadPMML("DecisionTreeIris"), null, irisMetrics);
+		registry.put("DecisionTreeIris", iris);
+
+		assertTrue(iris.getHeapSize() > 0);
+		assertEquals(iris.getHeapSize(), registry.getHeapSize());
+
+		ModelEntry shopping = new ModelEntry(ModelServiceTest.loadPMML("AssociationRulesShopping"), null, shoppingMetrics);
+		registry.put("AssociationRulesShopping", shopping);
+
+		// The budget is exceeded by every model, so only the most recently published one stays on the heap
+		assertEquals(shopping.getHeapSize(), registry.getHeapSize());
+		assertEquals(1, irisMetrics.getEvictions().getCount());
+		assertEquals(1, swapStore.listFiles().size());
+
+		assertEquals(new HashSet<String>(Arrays.asList("DecisionTreeIris", "AssociationRulesShopping")), registry.idSet());
+
+		List<EvaluationRequest> requests = ModelServiceTest.loadRequest("Iris");
+
+		List<EvaluationResponse> responses = service.evaluateBatch("DecisionTreeIris", requests);
+		assertEquals(requests.size(), responses.size());
+
+		ModelEntry reloadedIris = registry.get("DecisionTreeIris");
+		assertNotSame(iris, reloadedIris);
+		assertEquals(iris.getVersion(), reloadedIris.getVersion());
+		assertEquals(iris.getHeapSize(), reloadedIris.getHeapSize());
+		assertSame(irisMetrics, reloadedIris.getMetrics());
+
+		assertEquals(1, irisMetrics.getReload().getCount());
+		assertEquals(1, shoppingMetrics.getEvictions().getCount());
+		assertEquals(iris.getHeapSize(), registry.getHeapSize());
+
+		registry.get("AssociationRulesShopping");
+
+		assertEquals(2, irisMetrics.getEvictions().getCount());
+		assertEquals(2, swapStore.listFiles().size());
+
+		ModelEntry removedIris = registry.remove("DecisionTreeIris");
+		assertNotNull(removedIris);
+		assertNull(removedIris.getEvaluator());
+
+		assertNull(registry.get("DecisionTreeIris"));
+		assertEquals(1, swapStore.listFiles().size());
+	}
+
+	@Test
+	public void reloadFailure() throws Exception {
+		ModelStore swapStore = new ModelStore(this.folder.newFolder("swap"));
+
+		ModelRegistry registry = new ModelRegistry(new MetricRegistry(), 1, swapStore);
+
+		ModelService service = new ModelService(registry);
+
+		registry.put("DecisionTreeIris", new ModelEntry(ModelServiceTest.loadPMML("DecisionTreeIris")));
+		registry.put("AssociationRulesShopping", new ModelEntry(ModelServiceTest.loadPMML("AssociationRulesShopping")));
+
+		swapStore.delete("DecisionTreeIris");
+
+		try {
+			service.getSummary("DecisionTreeIris");
+
+			fail();
+		} catch(WebApplicationException wae){
+			assertEquals((Response.Status.SERVICE_UNAVAILABLE).getStatusCode(), (wae.getResponse()).getStatus());
+		}
+
+		// The model stays deployed
+		assertTrue((registry.idSet()).contains("DecisionTreeIris"));
+	}
+
+	@Test
+	public void concurrentDeployUndeployEvaluate() throws Exception {
+		final
+		ModelRegistry registry = new ModelRegistry();
+
+		final
+		ModelService service = new ModelService(registry);
+
+		final
+		PMML pmml = ModelServiceTest.loadPMML("DecisionTreeIris");
+
+		final
+		List<EvaluationRequest> requests = ModelServiceTest.loadRequest("Iris");
+
+		final
+		Queue<Throwable> failures = new ConcurrentLinkedQueue<Throwable>();
+
+		final
+		AtomicInteger evaluations = new AtomicInteger();
+
+		final
+		CountDownLatch startLatch = new CountDownLatch(1);
+
+		final
+		long deadline = System.currentTimeMillis() + 2000;
+
+		List<Thread> threads = new ArrayList<Thread>();
+
+		for(int i = 0; i < 2; i++){
+			threads.add(new Thread(new StressTask(startLatch, deadline, failures){
+
+				@Override
+				public void execute(){
+					registry.put("DecisionTreeIris", new ModelEntry(pmml));
+				}
+			}));
+		}
+
+		threads.add(new Thread(new StressTask(startLatch, deadline, failures){
+
+			@Override
+			public void execute(){
+				registry.remove("decisiontreeiris");
+			}
+		}));
+
+		for(int i = 0; i < 4; i++){
+			threads.add(new Thread(new StressTask(startLatch, deadline, failures){
+
+				private int version = 0;
+
+
+				@Override
+				public void execute(){
+					ModelEntry entry = registry.get("DecisionTreeIris");
+
+					if(entry != null){
+
+						// Versions never go backwards, not even across undeployments
+						if(entry.getVersion() < this.version){
+							throw new AssertionError("Version " + entry.getVersion() + " after version " + this.version);
+						}
+
+						this.version = entry.getVersion();
+					}
+
+					try {
+						List<EvaluationResponse> responses = service.evaluateBatch("DecisionTreeIris", requests);
+
+						assertEquals(requests.size(), responses.size());
+
+						evaluations.incrementAndGet();
+					} catch(NotFoundException nfe){
+						// Ignored
+					}
+				}
+			}));
+		}
+
+		for(Thread thread : threads){
+			thread.start();
+		}
+
+		startLatch.countDown();
+
+		for(Thread thread : threads){
+			thread.join();
+		}
+
+		if(!failures.isEmpty()){
+			throw new AssertionError(failures.peek());
+		}
+
+		assertTrue(evaluations.get() > 0);
+	}
+
+	@Test
+	public void concurrentEvictReload() throws Exception {
+		final
+		ModelRegistry registry = new ModelRegistry(new MetricRegistry(), 1, new ModelStore(this.folder.newFolder("swap")));
+
+		final
+		ModelService service = new ModelService(registry);
+
+		final
+		PMML pmml = ModelServiceTest.loadPMML("DecisionTreeIris");
+
+		final
+		List<EvaluationRequest> requests = ModelServiceTest.loadRequest("Iris");
+
+		final
+		Queue<Throwable> failures = new ConcurrentLinkedQueue<Throwable>();
+
+		final
+		CountDownLatch startLatch = new CountDownLatch(1);
+
+		final
+		long deadline = System.currentTimeMillis() + 2000;
+
+		List<Thread> threads = new ArrayList<Thread>();
+
+		threads.add(new Thread(new StressTask(startLatch, deadline, failures){
+
+			@Override
+			public void execute(){
+				registry.put("Iris" + (System.nanoTime() % 3), new ModelEntry(pmml));
+			}
+		}));
+
+		threads.add(new Thread(new StressTask(startLatch, deadline, failures){
+
+			@Override
+			public void execute(){
+				registry.remove("Iris" + (System.nanoTime() % 3));
+			}
+		}));
+
+		// Every evaluation of an evicted model reloads it, and evicts the other models
+		for(int i = 0; i < 4; i++){
+			threads.add(new Thread(new StressTask(startLatch, deadline, failures){
+
+				@Override
+				public void execute(){
+
+					try {
+						List<EvaluationResponse> responses = service.evaluateBatch("Iris" + (System.nanoTime() % 3), requests);
+
+						assertEquals(requests.size(), responses.size());
+					} catch(NotFoundException nfe){
+						// Ignored
+					}
+				}
+			}));
+		}
+
+		for(Thread thread : threads){
+			thread.start();
+		}
+
+		startLatch.countDown();
+
+		for(Thread thread : threads){
+			thread.join();
+		}
+
+		if(!failures.isEmpty()){
+			throw new AssertionError(failures.peek());
+		}
+	}
+
+	abstract
+	static
+	private class StressTask implements Runnable {
+
+		private CountDownLatch startLatch = null;
+
+		private long deadline = 0;
+
+		private Queue<Throwable> failures = null;
+
+
+		public StressTask(CountDownLatch startLatch, long deadline, Queue<Throwable> failures){
+			this.startLatch = startLatch;
+			this.deadline = deadline;
+			this.failures = failures;
+		}
+
+		abstract
+		public void execute() throws Exception;
+
+		@Override
+		public void run(){
+
+			try {
+				this.startLatch.await();
+
+				while(System.currentTimeMillis() < this.deadline){
+					execute();
+				}
+			} catch(Throwable t){
+				this.failures.add(t);
+			}
+		}
+	}
+}
@@ -20,6 +20,7 @@ package org.openscoring.service;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.*;
 
 import javax.xml.transform.*;
 
@@ -30,6 +31,8 @@ import org.jpmml.model.*;
 
 import com.google.common.collect.*;
 
+import com.sun.jersey.api.*;
+
 import org.dmg.pmml.*;
 
 import org.junit.*;
@@ -54,6 +57,136 @@ public class ModelServiceTest {
 		compare(responses, result);
 	}
 
+	@Test(timeout = 10000)
+	public void decisionTreeIrisStream() throws Exception {
+		ModelRegistry registry = new ModelRegistry();
+		registry.put("DecisionTreeIris", new ModelEntry(loadPMML("DecisionTreeIris")));
+
+		final
+		ModelService service = new ModelService(registry);
+
+		final
+		ModelEntry entry = registry.get("DecisionTreeIris");
+
+		PipedOutputStream requestOs = new PipedOutputStream();
+
+		final
+		PipedInputStream requestIs = new PipedInputStream(requestOs);
+
+		PipedInputStream responseIs = new PipedInputStream();
+
+		final
+		PipedOutputStream responseOs = new PipedOutputStream(responseIs);
+
+		Thread thread = new Thread(){
+
+			@Override
+			public void run(){
+				service.evaluateStream(entry, requestIs, responseOs);
+			}
+		};
+		thread.start();
+
+		Writer writer = new OutputStreamWriter(requestOs, "UTF-8");
+
+		BufferedReader reader = new BufferedReader(new InputStreamReader(responseIs, "UTF-8"));
+
+		writer.write("{\"id\" : \"1\", \"arguments\" : {\"Sepal.Length\" : 5.1, \"Sepal.Width\" : 3.5, \"Petal.Length\" : 1.4, \"Petal.Width\" : 0.2}}\n");
+		writer.flush();
+
+		// The first result arrives while the request body is still open
+		String first = reader.readLine();
+		assertTrue(first.startsWith("{\"id\":\"1\""));
+
+		writer.write("{\"id\" : \"2\", \"arguments\" : {\"Sepal.Length\" : 7.0, \"Sepal.Width\" : 3.2, \"Petal.Length\" : 4.7, \"Petal.Width\" : 1.4}}\n");
+		writer.close();
+
+		String second = reader.readLine();
+		assertTrue(second.startsWith("{\"id\":\"2\""));
+
+		assertNull(reader.readLine());
+
+		thread.join();
+	}
+
+	@Test
+	public void decisionTreeIrisParallel() throws Exception {
+		ModelRegistry registry = new ModelRegistry();
+		registry.put("DecisionTreeIris", new ModelEntry(loadPMML("DecisionTreeIris")));
+
+		BatchExecutor executor = new BatchExecutor(4, 10);
+
+		try {
+			ModelService service = new ModelService.Builder(registry)
+				.setExecutor(executor)
+				.build();
+
+			List<EvaluationRequest> requests = loadRequest("Iris");
+			List<EvaluationResponse> result = service.evaluateBatch("DecisionTreeIris", requests);
+
+			List<EvaluationResponse> responses = loadResponse("DecisionTreeIris");
+
+			compare(responses, result);
+
+			for(int i = 0; i < requests.size(); i++){
+				assertEquals((requests.get(i)).getId(), (result.get(i)).getId());
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void decisionTreeIrisTable() throws Exception {
+		ModelService service = createService("DecisionTreeIris");
+
+		List<EvaluationRequest> requests = loadRequest("Iris");
+
+		List<String> columns = new ArrayList<String>((requests.get(0)).getArguments().keySet());
+
+		List<String> ids = Lists.newArrayList();
+		List<List<Object>> rows = Lists.newArrayList();
+
+		for(EvaluationRequest request : requests){
+			List<Object> row = Lists.newArrayList();
+
+			for(String column : columns){
+				row.add(request.getArgument(column));
+			}
+
+			ids.add(request.getId());
+			rows.add(row);
+		}
+
+		TableEvaluationRequest tableRequest = new TableEvaluationRequest();
+		tableRequest.setIds(ids);
+		tableRequest.setColumns(columns);
+		tableRequest.setRows(rows);
+
+		TableEvaluationResponse tableResponse = service.evaluateTable("DecisionTreeIris", tableRequest);
+
+		assertEquals(ids, tableResponse.getIds());
+
+		List<EvaluationResponse> result = Lists.newArrayList();
+
+		for(List<Object> row : tableResponse.getRows()){
+			Map<String, Object> values = Maps.newLinkedHashMap();
+
+			for(int i = 0; i < row.size(); i++){
+				values.put((tableResponse.getColumns()).get(i), row.get(i));
+			}
+
+			EvaluationResponse response = new EvaluationResponse();
+			response.setResult(values);
+
+			result.add(response);
+		}
+
+		List<EvaluationResponse> responses = loadResponse("DecisionTreeIris");
+
+		compare(responses, result);
+	}
+
 	@Test
 	public void associationRulesShopping() throws Exception {
 		ModelService service = createService("AssociationRulesShopping");
@@ -73,6 +206,67 @@ public class ModelServiceTest {
 		compare(responses, aggregatedResult);
 	}
 
+	@Test
+	public void undeploy() throws Exception {
+		ModelRegistry registry = new ModelRegistry();
+		registry.put("DecisionTreeIris", new ModelEntry(loadPMML("DecisionTreeIris")));
+
+		ModelDeployer deployer = new ModelDeployer(1, 1);
+
+		try {
+			ModelService service = new ModelService.Builder(registry)
+				.setDeployer(deployer)
+				.build();
+
+			Callable<Void> task = new Callable<Void>(){
+
+				@Override
+				public Void call(){
+					return null;
+				}
+			};
+
+			deployer.submit("DecisionTreeIris", task);
+
+			long deadline = System.currentTimeMillis() + 5000L;
+
+			while((service.getDeploymentStatus("DecisionTreeIris")).getStatus() != DeploymentStatusResponse.Status.DEPLOYED){
+				assertTrue(System.currentTimeMillis() < deadline);
+
+				Thread.sleep(10L);
+			}
+
+			service.undeploy("DecisionTreeIris");
+
+			assertNull(deployer.getStatus("DecisionTreeIris"));
+
+			try {
+				service.getDeploymentStatus("DecisionTreeIris");
+
+				fail();
+			} catch(NotFoundException nfe){
+				// Ignored
+			}
+		} finally {
+			deployer.shutdown();
+		}
+	}
+
+	@Test
+	public void binaryCodec() throws Exception {
+		ModelRegistry registry = new ModelRegistry();
+		registry.put("AssociationRulesShopping", new ModelEntry(loadPMML("AssociationRulesShopping")));
+
+		ModelService service = new ModelService(registry);
+
+		// The client derives its codec from the model summary
+		BinaryCodec clientCodec = BinaryCodec.create(service.getSummary("AssociationRulesShopping"));
+		BinaryCodec serverCodec = (registry.get("AssociationRulesShopping")).getCodec();
+
+		assertEquals(clientCodec.getArgumentFields(), serverCodec.getArgumentFields());
+		assertEquals(clientCodec.getResultFields(), serverCodec.getResultFields());
+	}
+
 	static
 	private void compare(List<EvaluationResponse> expectedResponses, List<EvaluationResponse> actualResponses){
 		assertEquals(expectedResponses.size(), actualResponses.size());
@@ -142,13 +336,13 @@ public class ModelServiceTest {
 	static
 	private ModelService createService(String id) throws Exception {
 		ModelRegistry registry = new ModelRegistry();
-		registry.put(id, loadPMML(id));
+		registry.put(id, new ModelEntry(loadPMML(id)));
 
 		return new ModelService(registry);
 	}
 
 	static
-	private PMML loadPMML(String id) throws Exception {
+	PMML loadPMML(String id) throws Exception {
 		InputStream is = ModelServiceTest.class.getResourceAsStream("/pmml/" + id + ".pmml");
 
 		try {
@@ -161,7 +355,7 @@ public class ModelServiceTest {
 	}
 
 	static
-	private List<EvaluationRequest> loadRequest(String id) throws Exception {
+	List<EvaluationRequest> loadRequest(String id) throws Exception {
 		InputStream is = ModelServiceTest.class.getResourceAsStream("/csv/" + id + ".csv");
 
 		try {
@@ -0,0 +1,146 @@
+/*
+ * Copyright (c) 2014 Villu Ruusmann
+ *
+ * This file is part of Openscoring
+ *
+ * Openscoring is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Openscoring is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Openscoring.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openscoring.service;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.openscoring.common.*;
+
+import org.dmg.pmml.*;
+
+import com.codahale.metrics.*;
+
+import org.junit.*;
+import org.junit.Rule;
+import org.junit.rules.*;
+
+import static org.junit.Assert.*;
+
+public class ModelStoreTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+
+	@Test
+	public void storeAndLoad() throws Exception {
+		ModelStore store = new ModelStore(this.folder.newFolder("models"));
+
+		store.store("DecisionTreeIris", ModelServiceTest.loadPMML("DecisionTreeIris"));
+		store.store("AssociationRulesShopping", ModelServiceTest.loadPMML("AssociationRulesShopping"));
+
+		assertEquals(2, store.listFiles().size());
+
+		ModelRegistry registry = new ModelRegistry();
+
+		ModelLoader loader = new ModelLoader(registry, store, new ResultCacheFactory(), new ModelWarmer(), new ModelDeployer(), new ModelMetricsRegistry());
+		loader.start(2);
+
+		assertTrue(loader.await(10, TimeUnit.SECONDS));
+		assertEquals(2, loader.getLoaded());
+		assertEquals(0, loader.getFailed());
+
+		assertEquals(new HashSet<String>(Arrays.asList("DecisionTreeIris", "AssociationRulesShopping")), registry.idSet());
+
+		ModelService service = new ModelService(registry);
+
+		List<EvaluationRequest> requests = ModelServiceTest.loadRequest("Iris");
+		List<EvaluationResponse> responses = service.evaluateBatch("DecisionTreeIris", requests);
+
+		assertEquals(requests.size(), responses.size());
+
+		store.delete("decisiontreeiris");
+
+		assertEquals(1, store.listFiles().size());
+	}
+
+	@Test
+	public void concurrentStores() throws Exception {
+		final
+		ModelStore store = new ModelStore(this.folder.newFolder("models"));
+
+		final
+		PMML pmml = ModelServiceTest.loadPMML("DecisionTreeIris");
+
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+
+		List<Future<?>> futures = new ArrayList<Future<?>>();
+
+		for(int i = 0; i < 16; i++){
+			Callable<Void> task = new Callable<Void>(){
+
+				@Override
+				public Void call() throws Exception {
+					store.store("DecisionTreeIris", pmml);
+
+					return null;
+				}
+			};
+
+			futures.add(executor.submit(task));
+		}
+
+		for(Future<?> future : futures){
+			future.get();
+		}
+
+		executor.shutdown();
+
+		List<File> files = store.listFiles();
+
+		assertEquals(1, files.size());
+
+		// No temporary files are left behind
+		assertEquals(1, ((files.get(0)).getParentFile().listFiles()).length);
+
+		assertEquals("DecisionTreeIris", (store.load("DecisionTreeIris")).getId());
+	}
+
+	@Test
+	public void deployedModelTakesPrecedence() throws Exception {
+		ModelStore store = new ModelStore(this.folder.newFolder("models"));
+
+		PMML pmml = ModelServiceTest.loadPMML("DecisionTreeIris");
+
+		store.store("DecisionTreeIris", pmml);
+
+		ModelRegistry registry = new ModelRegistry();
+
+		ModelMetricsRegistry metricsRegistry = new ModelMetricsRegistry(new MetricRegistry());
+
+		ModelMetrics modelMetrics = new ModelMetrics();
+
+		ModelEntry entry = new ModelEntry(pmml, null, modelMetrics);
+		registry.put("DecisionTreeIris", entry);
+
+		metricsRegistry.register("DecisionTreeIris", modelMetrics);
+
+		ModelLoader loader = new ModelLoader(registry, store, new ResultCacheFactory(), new ModelWarmer(), new ModelDeployer(), metricsRegistry);
+		loader.start(1);
+
+		assertTrue(loader.await(10, TimeUnit.SECONDS));
+
+		assertSame(entry, registry.get("DecisionTreeIris"));
+
+		// The persisted model was not published, so its metrics must not replace the metrics of the deployed model
+		assertSame(modelMetrics, metricsRegistry.get("DecisionTreeIris"));
+	}
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright (c) 2014 Villu Ruusmann
+ *
+ * This file is part of Openscoring
+ *
+ * Openscoring is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Openscoring is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Openscoring.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openscoring.service;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import javax.xml.transform.*;
+
+import org.jpmml.model.*;
+
+import com.google.common.io.*;
+
+import org.dmg.pmml.*;
+
+import org.junit.*;
+
+import org.xml.sax.*;
+
+import com.codahale.metrics.*;
+
+import static org.junit.Assert.*;
+
+public class ModelWarmerTest {
+
+	@Test
+	public void warmUp() throws Exception {
+		MetricRegistry metrics = new MetricRegistry();
+
+		ModelMetricsRegistry metricsRegistry = new ModelMetricsRegistry(metrics);
+
+		ModelEntry entry = new ModelEntry(ModelServiceTest.loadPMML("DecisionTreeIris"), null, metricsRegistry.register("DecisionTreeIris"));
+
+		ModelWarmer warmer = new ModelWarmer(500, 60, TimeUnit.SECONDS);
+
+		assertEquals(500, warmer.warmUp(entry));
+
+		assertEquals(1, (metrics.getTimers()).get("model.decisiontreeiris.warmUp").getCount());
+
+		assertTrue((Long)(metrics.getGauges()).get("model.decisiontreeiris.warmUpColdLatency").getValue() > 0L);
+		assertTrue((Long)(metrics.getGauges()).get("model.decisiontreeiris.warmUpWarmLatency").getValue() > 0L);
+
+		assertEquals(0, (new ModelWarmer()).warmUp(entry));
+	}
+
+	@Test
+	public void generateSample() throws Exception {
+		ModelEntry entry = new ModelEntry(ModelServiceTest.loadPMML("DecisionTreeIris"));
+
+		List<Map<FieldName, ?>> sample = ModelWarmer.generateSample(entry, 100, new Random(42L));
+
+		assertEquals(100, sample.size());
+
+		for(Map<FieldName, ?> record : sample){
+			assertEquals(new HashSet<FieldName>(entry.getActiveFields()), record.keySet());
+
+			for(Object value : record.values()){
+				assertTrue(value == null || value instanceof Double);
+			}
+		}
+
+		// Models with a "group by" field get collections of values
+		entry = new ModelEntry(ModelServiceTest.loadPMML("AssociationRulesShopping"));
+
+		sample = ModelWarmer.generateSample(entry, 100, new Random(42L));
+
+		for(Map<FieldName, ?> record : sample){
+			assertTrue(record.get(new FieldName("item")) instanceof List);
+		}
+
+		assertEquals(100, (new ModelWarmer(100, 60, TimeUnit.SECONDS)).warmUp(entry));
+	}
+
+	@Test
+	public void getVerificationSample() throws Exception {
+		ModelEntry entry = new ModelEntry(ModelServiceTest.loadPMML("DecisionTreeIris"));
+
+		assertTrue((ModelWarmer.getVerificationSample(entry)).isEmpty());
+
+		String verification =
+			"<ModelVerification recordCount=\"2\" fieldCount=\"3\">" +
+				"<VerificationFields>" +
+					"<VerificationField field=\"Sepal.Length\" column=\"sepal_length\"/>" +
+					"<VerificationField field=\"Petal.Length\"/>" +
+					"<VerificationField field=\"Species\"/>" +
+				"</VerificationFields>" +
+				"<InlineTable>" +
+					"<row><sepal_length>5.1</sepal_length><Petal.Length>1.4</Petal.Length><Species>setosa</Species></row>" +
+					"<row><sepal_length>7</sepal_length><Petal.Length>4.7</Petal.Length><Species>versicolor</Species></row>" +
+				"</InlineTable>" +
+			"</ModelVerification>";
+
+		String string = loadString("DecisionTreeIris");
+		string = string.replace("</TreeModel>", verification + "</TreeModel>");
+
+		entry = new ModelEntry(parsePMML(string));
+
+		List<Map<FieldName, ?>> sample = ModelWarmer.getVerificationSample(entry);
+
+		assertEquals(2, sample.size());
+
+		Map<FieldName, Object> expected = new LinkedHashMap<FieldName, Object>();
+		expected.put(new FieldName("Sepal.Length"), "7");
+		expected.put(new FieldName("Petal.Length"), "4.7");
+
+		// Target fields are not part of the sample
+		assertEquals(expected, sample.get(1));
+	}
+
+	static
+	private String loadString(String id) throws IOException {
+		InputStream is = ModelWarmerTest.class.getResourceAsStream("/pmml/" + id + ".pmml");
+
+		try {
+			return new String(ByteStreams.toByteArray(is), "UTF-8");
+		} finally {
+			is.close();
+		}
+	}
+
+	static
+	private PMML parsePMML(String string) throws Exception {
+		Source source = ImportFilter.apply(new InputSource(new StringReader(string)));
+
+		return JAXBUtil.unmarshalPMML(source);
+	}
+}
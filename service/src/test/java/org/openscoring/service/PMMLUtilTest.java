@@ -0,0 +1,79 @@
+/*
+ * Copyright (c) 2014 Villu Ruusmann
+ *
+ * This file is part of Openscoring
+ *
+ * Openscoring is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Openscoring is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Openscoring.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openscoring.service;
+
+import java.io.*;
+import java.util.*;
+
+import org.openscoring.common.*;
+
+import org.dmg.pmml.*;
+
+import org.junit.*;
+
+import static org.junit.Assert.*;
+
+public class PMMLUtilTest {
+
+	@Test
+	public void unmarshal() throws Exception {
+		PMML pmml = unmarshal("DecisionTreeIris");
+
+		assertNull(pmml.sourceLocation());
+
+		TreeModel treeModel = (TreeModel)pmml.getModels().get(0);
+
+		Node root = treeModel.getNode();
+		Node child = root.getNodes().get(0);
+
+		assertNull(root.sourceLocation());
+		assertNull(child.sourceLocation());
+
+		assertEquals("setosa", root.getScore());
+		assertSame(root.getScore(), child.getScore());
+
+		List<EvaluationRequest> requests = ModelServiceTest.loadRequest("Iris");
+
+		ModelRegistry registry = new ModelRegistry();
+		registry.put("Expected", new ModelEntry(ModelServiceTest.loadPMML("DecisionTreeIris")));
+		registry.put("Actual", new ModelEntry(pmml));
+
+		ModelService service = new ModelService(registry);
+
+		List<EvaluationResponse> expectedResponses = service.evaluateBatch("Expected", requests);
+		List<EvaluationResponse> actualResponses = service.evaluateBatch("Actual", requests);
+
+		assertEquals(expectedResponses.size(), actualResponses.size());
+
+		for(int i = 0; i < expectedResponses.size(); i++){
+			assertEquals((expectedResponses.get(i)).getResult(), (actualResponses.get(i)).getResult());
+		}
+	}
+
+	static
+	private PMML unmarshal(String id) throws Exception {
+		InputStream is = PMMLUtilTest.class.getResourceAsStream("/pmml/" + id + ".pmml");
+
+		try {
+			return PMMLUtil.unmarshal(is);
+		} finally {
+			is.close();
+		}
+	}
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright (c) 2014 Villu Ruusmann
+ *
+ * This file is part of Openscoring
+ *
+ * Openscoring is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Openscoring is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Openscoring.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.openscoring.service;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.openscoring.common.*;
+
+import org.junit.*;
+
+import com.codahale.metrics.*;
+
+import static org.junit.Assert.*;
+
+public class ResultCacheTest {
+
+	@Test
+	public void decisionTreeIris() throws Exception {
+		ModelMetrics metrics = new ModelMetrics();
+
+		ResultCacheFactory cacheFactory = new ResultCacheFactory(1000, 60, TimeUnit.SECONDS);
+
+		ModelEntry entry = new ModelEntry(ModelServiceTest.loadPMML("DecisionTreeIris"), cacheFactory.create(metrics), metrics);
+
+		List<EvaluationRequest> requests = ModelServiceTest.loadRequest("Iris");
+
+		List<EvaluationResponse> firstResponses = evaluate(entry, requests);
+
+		Counter hits = metrics.getCacheHits();
+		Counter misses = metrics.getCacheMisses();
+
+		assertEquals(requests.size(), hits.getCount() + misses.getCount());
+
+		long previousHits = hits.getCount();
+
+		List<EvaluationResponse> secondResponses = evaluate(entry, requests);
+
+		assertEquals(previousHits + requests.size(), hits.getCount());
+
+		for(int i = 0; i < requests.size(); i++){
+			EvaluationResponse firstResponse = firstResponses.get(i);
+			EvaluationResponse secondResponse = secondResponses.get(i);
+
+			assertEquals((requests.get(i)).getId(), secondResponse.getId());
+			assertEquals(firstResponse.getResult(), secondResponse.getResult());
+		}
+
+		ResultCache cache = entry.getCache();
+		cache.invalidateAll();
+
+		evaluate(entry, requests.subList(0, 1));
+
+		assertEquals(previousHits + requests.size(), hits.getCount());
+	}
+
+	@Test
+	public void evictions() throws Exception {
+		ModelMetrics metrics = new ModelMetrics();
+
+		ResultCacheFactory cacheFactory = new ResultCacheFactory(10, 60, TimeUnit.SECONDS);
+
+		ModelEntry entry = new ModelEntry(ModelServiceTest.loadPMML("DecisionTreeIris"), cacheFactory.create(metrics), metrics);
+
+		List<EvaluationRequest> requests = ModelServiceTest.loadRequest("Iris");
+
+		evaluate(entry, requests);
+
+		Counter evictions = metrics.getCacheEvictions();
+
+		assertTrue(evictions.getCount() > 0);
+	}
+
+	static
+	private List<EvaluationResponse> evaluate(ModelEntry entry, List<EvaluationRequest> requests){
+		List<EvaluationResponse> responses = new ArrayList<EvaluationResponse>();
+
+		for(EvaluationRequest request : requests){
+			responses.add(ModelService.evaluate(entry, request));
+		}
+
+		return responses;
+	}
+}